@@ -0,0 +1,155 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.cryostat.jfr.datasource.utils.InvalidQueryException;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Describes which events of a type become annotations and how they are labelled.
+ *
+ * <p>When a threshold is set, only events whose {@code field} is at least the threshold are
+ * annotated. The threshold is expressed in the field's display unit, i.e. bytes for memory and
+ * milliseconds for timespans. The text may refer to event fields as {@code {field}}.
+ */
+public record AnnotationRule(
+        String name,
+        String eventType,
+        String field,
+        Double threshold,
+        String text,
+        List<String> tags) {
+
+    public static final List<AnnotationRule> DEFAULTS =
+            List.of(
+                    new AnnotationRule(
+                            "gc",
+                            "jdk.GarbageCollection",
+                            null,
+                            null,
+                            "{name} ({cause}) paused for {sumOfPauses}",
+                            List.of("gc")),
+                    new AnnotationRule(
+                            "safepoint",
+                            "jdk.SafepointBegin",
+                            "duration",
+                            10d,
+                            "Safepoint {safepointId} took {duration}",
+                            List.of("safepoint")),
+                    new AnnotationRule(
+                            "deoptimization",
+                            "jdk.Deoptimization",
+                            null,
+                            null,
+                            "{reason} ({action}) in {method}",
+                            List.of("jit")),
+                    new AnnotationRule(
+                            "compilation-failure",
+                            "jdk.CompilationFailure",
+                            null,
+                            null,
+                            "Compilation {compileId} failed: {failureMessage}",
+                            List.of("jit")),
+                    new AnnotationRule(
+                            "thread-dump",
+                            "jdk.ThreadDump",
+                            null,
+                            null,
+                            "Thread dump",
+                            List.of("threads")));
+
+    // eventType, or eventType?field>=threshold
+    private static final Pattern EXPRESSION_PATTERN =
+            Pattern.compile("^\\s*([\\w.$]+)\\s*(?:\\?\\s*(\\w+)\\s*>=\\s*([0-9.eE+-]+)\\s*)?$");
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("\\{(\\w+)\\}");
+
+    public boolean hasThreshold() {
+        return field != null && threshold != null;
+    }
+
+    /** @return the event fields referred to by the text, in order of appearance */
+    public List<String> placeholders() {
+        List<String> fields = new ArrayList<>();
+        Matcher m = PLACEHOLDER_PATTERN.matcher(text);
+        while (m.find()) {
+            fields.add(m.group(1));
+        }
+        return fields;
+    }
+
+    /** Replaces the placeholders of the text with the rendered field values. */
+    public String renderText(Function<String, String> fieldValues) {
+        Matcher m = PLACEHOLDER_PATTERN.matcher(text);
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            String value = fieldValues.apply(m.group(1));
+            m.appendReplacement(sb, Matcher.quoteReplacement(value == null ? "" : value));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Parses an ad-hoc rule from an annotation query, e.g. {@code jdk.ObjectAllocationSample} or
+     * {@code jdk.ObjectAllocationSample?weight>=500000}.
+     */
+    public static AnnotationRule parse(String expression) throws InvalidQueryException {
+        Matcher m = EXPRESSION_PATTERN.matcher(expression);
+        if (!m.matches()) {
+            throw new InvalidQueryException("query");
+        }
+        String eventType = m.group(1);
+        String field = m.group(2);
+        Double threshold = null;
+        if (field != null) {
+            try {
+                threshold = Double.valueOf(m.group(3));
+            } catch (NumberFormatException e) {
+                throw new InvalidQueryException("query");
+            }
+        }
+        String text = field == null ? eventType : eventType + " " + field + " {" + field + "}";
+        return new AnnotationRule(eventType, eventType, field, threshold, text, List.of());
+    }
+
+    public static AnnotationRule fromJson(JsonObject json) throws InvalidQueryException {
+        String eventType = json.getString("eventType");
+        if (eventType == null || eventType.isBlank()) {
+            throw new InvalidQueryException("eventType");
+        }
+        Number threshold = json.getNumber("threshold");
+        List<String> tags = new ArrayList<>();
+        JsonArray tagsJson = json.getJsonArray("tags", new JsonArray());
+        for (int i = 0; i < tagsJson.size(); i++) {
+            tags.add(tagsJson.getString(i));
+        }
+        return new AnnotationRule(
+                json.getString("name", eventType),
+                eventType,
+                json.getString("field"),
+                threshold == null ? null : threshold.doubleValue(),
+                json.getString("text", eventType),
+                List.copyOf(tags));
+    }
+}
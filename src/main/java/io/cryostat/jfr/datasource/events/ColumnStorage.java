@@ -0,0 +1,42 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+/** Holds the encoded columns of a {@link CompactEventStore}. */
+interface ColumnStorage extends AutoCloseable {
+
+    /** Stores a copy of the first {@code length} words. */
+    Column store(long[] words, int length);
+
+    /** @return the total size of the stored columns in bytes */
+    long getSize();
+
+    /** Frees the stored columns. Columns must not be read afterwards. */
+    @Override
+    void close();
+
+    /** A stored column of 64-bit words. */
+    interface Column {
+
+        int length();
+
+        /**
+         * @param scratch an array the words may be copied into if it is long enough, or null
+         * @return the words, which must not be modified
+         */
+        long[] words(long[] scratch);
+    }
+}
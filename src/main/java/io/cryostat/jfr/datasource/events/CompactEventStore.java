@@ -0,0 +1,95 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Event storage in a compact column-oriented format, built from the parsed item collection which
+ * can then be discarded. See {@link CompactEventTable} for the encoding.
+ */
+public class CompactEventStore implements EventStore {
+
+    private final Map<String, CompactEventTable> tables;
+    private final List<String> chunkEventTypes;
+    private final ColumnStorage storage;
+
+    private CompactEventStore(
+            Map<String, CompactEventTable> tables,
+            List<String> chunkEventTypes,
+            ColumnStorage storage) {
+        this.tables = tables;
+        this.chunkEventTypes = chunkEventTypes;
+        this.storage = storage;
+    }
+
+    /**
+     * Encodes every event of the source. Non-numeric members are interned into the dictionary and
+     * stored by id.
+     *
+     * @param offHeap whether to keep the encoded events in native memory, which is only freed when
+     *     the store is closed
+     */
+    public static CompactEventStore encode(
+            EventStore source, MemberDictionary dictionary, boolean offHeap) {
+        ColumnStorage storage = offHeap ? new OffHeapColumnStorage() : new HeapColumnStorage();
+        try {
+            Map<String, CompactEventTable> tables = new LinkedHashMap<>();
+            for (String eventType : source.getEventTypes()) {
+                EventTable table = source.get(eventType);
+                if (table != null) {
+                    tables.put(eventType, CompactEventTable.encode(table, dictionary, storage));
+                }
+            }
+            return new CompactEventStore(
+                    Collections.unmodifiableMap(tables),
+                    List.copyOf(source.getChunkEventTypes()),
+                    storage);
+        } catch (RuntimeException e) {
+            storage.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public EventTable get(String eventType) {
+        return tables.get(eventType);
+    }
+
+    @Override
+    public Collection<String> getEventTypes() {
+        return tables.keySet();
+    }
+
+    @Override
+    public List<String> getChunkEventTypes() {
+        return chunkEventTypes;
+    }
+
+    /** @return the approximate size of the encoded events in bytes */
+    public long getEncodedSize() {
+        return storage.getSize();
+    }
+
+    @Override
+    public void close() {
+        storage.close();
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IUnit;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+
+import io.cryostat.jfr.datasource.events.ColumnStorage.Column;
+import io.cryostat.jfr.datasource.utils.BitPacking;
+import io.cryostat.jfr.datasource.utils.XorDoubleCodec;
+
+/**
+ * The events of one type, encoded column by column in blocks of {@link #BLOCK_SIZE} events.
+ *
+ * <p>Within a block, start times are stored as bit-packed deltas from the first start time and end
+ * times as bit-packed durations. Quantities are stored in their display unit as XOR-compressed
+ * doubles, and all other members as bit-packed {@link MemberDictionary} ids. The encoded columns
+ * are kept in a {@link ColumnStorage}. Scans skip blocks by their time bounds and decode the
+ * columns of a block only when a value is first read.
+ */
+class CompactEventTable implements EventTable {
+
+    static final int BLOCK_SIZE = 1024;
+
+    private final String eventType;
+    private final List<EventField> fields;
+    // Unit of each quantity field, null for member fields
+    private final IUnit[] units;
+    private final MemberDictionary dictionary;
+    private final Block[] blocks;
+    private final int size;
+    private final long maxEndTime;
+
+    private CompactEventTable(
+            String eventType,
+            List<EventField> fields,
+            IUnit[] units,
+            MemberDictionary dictionary,
+            Block[] blocks) {
+        this.eventType = eventType;
+        this.fields = fields;
+        this.units = units;
+        this.dictionary = dictionary;
+        this.blocks = blocks;
+        int size = 0;
+        long maxEndTime = 0;
+        for (Block block : blocks) {
+            size += block.size;
+            maxEndTime = Math.max(maxEndTime, block.maxEndTime);
+        }
+        this.size = size;
+        this.maxEndTime = maxEndTime;
+    }
+
+    static CompactEventTable encode(
+            EventTable source, MemberDictionary dictionary, ColumnStorage storage) {
+        List<EventField> fields = source.getFields();
+        IUnit[] units = new IUnit[fields.size()];
+        boolean[] quantity = new boolean[fields.size()];
+        for (int f = 0; f < fields.size(); f++) {
+            quantity[f] = fields.get(f).isQuantity() && !fields.get(f).isEventTime();
+        }
+
+        List<Block> blocks = new ArrayList<>();
+        BlockBuilder builder = new BlockBuilder(fields.size());
+        source.scanAll(
+                row -> {
+                    int i = builder.count++;
+                    builder.startTimes[i] = row.getStartTime();
+                    builder.endTimes[i] = row.getEndTime();
+                    for (int f = 0; f < units.length; f++) {
+                        if (fields.get(f).isEventTime()) {
+                            continue;
+                        }
+                        Object value = row.getValue(f);
+                        if (quantity[f]) {
+                            double number = Double.NaN;
+                            if (value instanceof IQuantity) {
+                                IQuantity q = (IQuantity) value;
+                                if (units[f] == null) {
+                                    units[f] = EventField.displayUnit(q.getUnit());
+                                }
+                                number = q.doubleValueIn(units[f]);
+                            }
+                            builder.numbers[f][i] = number;
+                        } else {
+                            builder.ids[f][i] = value == null ? 0 : dictionary.id(value) + 1L;
+                        }
+                    }
+                    if (builder.count == BLOCK_SIZE) {
+                        blocks.add(builder.build(quantity, storage));
+                    }
+                    return true;
+                });
+        if (builder.count > 0) {
+            blocks.add(builder.build(quantity, storage));
+        }
+        return new CompactEventTable(
+                source.getEventType(), fields, units, dictionary, blocks.toArray(new Block[0]));
+    }
+
+    @Override
+    public String getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public List<EventField> getFields() {
+        return fields;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getMinStartTime() {
+        return blocks.length == 0 ? Long.MAX_VALUE : blocks[0].firstStartTime;
+    }
+
+    @Override
+    public long getMaxEndTime() {
+        return maxEndTime;
+    }
+
+    @Override
+    public int estimateCount(long from, long to) {
+        int count = 0;
+        for (int b = firstBlock(from); b < blocks.length && blocks[b].firstStartTime <= to; b++) {
+            count += blocks[b].size;
+        }
+        return count;
+    }
+
+    @Override
+    public void scan(long from, long to, long endTo, RowVisitor visitor) {
+        Row row = new Row();
+        for (int b = firstBlock(from); b < blocks.length; b++) {
+            Block block = blocks[b];
+            if (block.firstStartTime > to) {
+                return;
+            }
+            if (block.lastStartTime < from) {
+                continue;
+            }
+            row.enter(block);
+            for (int i = 0; i < block.size; i++) {
+                long startTime = row.startTimes[i];
+                if (startTime > to) {
+                    return;
+                }
+                if (startTime >= from && row.endTimes[i] <= endTo) {
+                    row.position = i;
+                    if (!visitor.visit(row)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // First block that may contain events starting at or after the given time
+    private int firstBlock(long time) {
+        int low = 0;
+        int high = blocks.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blocks[mid].lastStartTime < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private final class Row implements EventRow {
+        final long[] startTimes = new long[BLOCK_SIZE];
+        final long[] endTimes = new long[BLOCK_SIZE];
+        final double[][] numbers = new double[fields.size()][];
+        // Encoded words of the current block, or reusable copies of them
+        final long[][] words = new long[fields.size()][];
+        final boolean[] decoded = new boolean[fields.size()];
+        long[] startDeltas;
+        long[] durations;
+        Block block;
+        int position;
+
+        void enter(Block block) {
+            this.block = block;
+            Arrays.fill(decoded, false);
+            startDeltas = block.startDeltas.words(startDeltas);
+            durations = block.durations.words(durations);
+            for (int i = 0; i < block.size; i++) {
+                startTimes[i] =
+                        block.firstStartTime + BitPacking.get(startDeltas, block.startWidth, i);
+                endTimes[i] =
+                        startTimes[i]
+                                + BitPacking.unZigZag(
+                                        BitPacking.get(durations, block.durationWidth, i));
+            }
+        }
+
+        // The encoded words of a member field in the current block
+        private long[] ids(int field) {
+            if (!decoded[field]) {
+                words[field] = block.ids[field].words(words[field]);
+                decoded[field] = true;
+            }
+            return words[field];
+        }
+
+        @Override
+        public long getStartTime() {
+            return startTimes[position];
+        }
+
+        @Override
+        public long getEndTime() {
+            return endTimes[position];
+        }
+
+        @Override
+        public Object getValue(int field) {
+            EventField eventField = fields.get(field);
+            if (eventField.isEventTime()) {
+                long time =
+                        eventField.identifier().equals(JfrAttributes.START_TIME.getIdentifier())
+                                ? getStartTime()
+                                : getEndTime();
+                return UnitLookup.EPOCH_MS.quantity(time);
+            }
+            if (block.numbers[field] != null) {
+                double number = getNumber(field);
+                return Double.isNaN(number) ? null : units[field].quantity(number);
+            }
+            long id = BitPacking.get(ids(field), block.idWidths[field], position);
+            return id == 0 ? null : dictionary.member((int) (id - 1));
+        }
+
+        @Override
+        public double getNumber(int field) {
+            Column encoded = block.numbers[field];
+            if (encoded == null) {
+                Object value = getValue(field);
+                if (value instanceof IQuantity) {
+                    return EventField.displayValue((IQuantity) value);
+                }
+                return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+            }
+            if (!decoded[field]) {
+                if (numbers[field] == null) {
+                    numbers[field] = new double[BLOCK_SIZE];
+                }
+                words[field] = encoded.words(words[field]);
+                XorDoubleCodec.decode(words[field], block.size, numbers[field]);
+                decoded[field] = true;
+            }
+            return numbers[field][position];
+        }
+    }
+
+    private static final class Block {
+        final int size;
+        final long firstStartTime;
+        final long lastStartTime;
+        final long maxEndTime;
+        final Column startDeltas;
+        final int startWidth;
+        final Column durations;
+        final int durationWidth;
+        // Per field, either XOR-compressed numbers or bit-packed dictionary ids
+        final Column[] numbers;
+        final Column[] ids;
+        final int[] idWidths;
+
+        Block(
+                int size,
+                long firstStartTime,
+                long lastStartTime,
+                long maxEndTime,
+                Column startDeltas,
+                int startWidth,
+                Column durations,
+                int durationWidth,
+                Column[] numbers,
+                Column[] ids,
+                int[] idWidths) {
+            this.size = size;
+            this.firstStartTime = firstStartTime;
+            this.lastStartTime = lastStartTime;
+            this.maxEndTime = maxEndTime;
+            this.startDeltas = startDeltas;
+            this.startWidth = startWidth;
+            this.durations = durations;
+            this.durationWidth = durationWidth;
+            this.numbers = numbers;
+            this.ids = ids;
+            this.idWidths = idWidths;
+        }
+    }
+
+    private static final class BlockBuilder {
+        final long[] startTimes = new long[BLOCK_SIZE];
+        final long[] endTimes = new long[BLOCK_SIZE];
+        final double[][] numbers;
+        final long[][] ids;
+        int count;
+
+        BlockBuilder(int fields) {
+            this.numbers = new double[fields][BLOCK_SIZE];
+            this.ids = new long[fields][BLOCK_SIZE];
+        }
+
+        Block build(boolean[] quantity, ColumnStorage storage) {
+            long firstStartTime = startTimes[0];
+            long lastStartTime = startTimes[count - 1];
+            long maxEndTime = 0;
+            long maxDelta = 0;
+            long maxDuration = 0;
+            long[] deltas = new long[count];
+            long[] durations = new long[count];
+            for (int i = 0; i < count; i++) {
+                deltas[i] = startTimes[i] - firstStartTime;
+                durations[i] = BitPacking.zigZag(endTimes[i] - startTimes[i]);
+                maxDelta = Math.max(maxDelta, deltas[i]);
+                maxDuration = Math.max(maxDuration, durations[i]);
+                maxEndTime = Math.max(maxEndTime, Math.max(startTimes[i], endTimes[i]));
+            }
+            int startWidth = BitPacking.width(maxDelta);
+            int durationWidth = BitPacking.width(maxDuration);
+
+            Column[] encodedNumbers = new Column[numbers.length];
+            Column[] encodedIds = new Column[ids.length];
+            int[] idWidths = new int[ids.length];
+            for (int f = 0; f < numbers.length; f++) {
+                if (quantity[f]) {
+                    encodedNumbers[f] = store(storage, XorDoubleCodec.encode(numbers[f], count));
+                } else {
+                    long maxId = 0;
+                    for (int i = 0; i < count; i++) {
+                        maxId = Math.max(maxId, ids[f][i]);
+                    }
+                    idWidths[f] = BitPacking.width(maxId);
+                    encodedIds[f] = store(storage, BitPacking.pack(ids[f], count, idWidths[f]));
+                }
+            }
+            Block block =
+                    new Block(
+                            count,
+                            firstStartTime,
+                            lastStartTime,
+                            maxEndTime,
+                            store(storage, BitPacking.pack(deltas, count, startWidth)),
+                            startWidth,
+                            store(storage, BitPacking.pack(durations, count, durationWidth)),
+                            durationWidth,
+                            encodedNumbers,
+                            encodedIds,
+                            idWidths);
+            count = 0;
+            return block;
+        }
+
+        private static Column store(ColumnStorage storage, long[] words) {
+            return storage.store(words, words.length);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import org.openjdk.jmc.common.unit.ContentType;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IUnit;
+import org.openjdk.jmc.common.unit.KindOfQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+
+/** A field of an event type, identified as in JMC, e.g. "duration" or "objectClass". */
+public record EventField(String identifier, ContentType<?> contentType) {
+
+    public boolean isQuantity() {
+        return contentType instanceof KindOfQuantity;
+    }
+
+    /** Whether the field is one of the event start or end times, which tables keep separately */
+    public boolean isEventTime() {
+        return identifier.equals(JfrAttributes.START_TIME.getIdentifier())
+                || identifier.equals(JfrAttributes.END_TIME.getIdentifier());
+    }
+
+    /** @return the unit quantities are presented in, e.g. bytes rather than kibibytes */
+    public static IUnit displayUnit(IUnit originalUnit) {
+        String unitIdentifier = originalUnit.getContentType().getIdentifier();
+        switch (unitIdentifier) {
+            case "memory":
+                return UnitLookup.BYTE;
+            case "timespan":
+                return UnitLookup.MILLISECOND;
+            case "frequency":
+                return UnitLookup.HERTZ;
+            default:
+                return originalUnit;
+        }
+    }
+
+    public static double displayValue(IQuantity quantity) {
+        return quantity.doubleValueIn(displayUnit(quantity.getUnit()));
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+/**
+ * One event of an {@link EventTable} during a scan. Rows are cursors and are only valid within
+ * the visitor call they are passed to.
+ */
+public interface EventRow {
+
+    /** @return the event start time in epoch milliseconds */
+    long getStartTime();
+
+    /** @return the event end time in epoch milliseconds, or the start time for instant events */
+    long getEndTime();
+
+    /**
+     * @param field the position of the field in {@link EventTable#getFields()}
+     * @return the field member, an {@code IQuantity} for quantities, or null if the event has none
+     */
+    Object getValue(int field);
+
+    /**
+     * @param field the position of the field in {@link EventTable#getFields()}
+     * @return the numeric field value in its display unit, or NaN if the value is not numeric
+     */
+    double getNumber(int field);
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.Collection;
+import java.util.List;
+
+/** Event storage of a loaded recording, by event type. */
+public interface EventStore extends AutoCloseable {
+
+    /** @return the events of the type, or null if the recording has no such event type */
+    EventTable get(String eventType);
+
+    /** @return the distinct event type identifiers */
+    Collection<String> getEventTypes();
+
+    /**
+     * @return event type identifiers in recording order, once for every chunk that has events of
+     *     the type
+     */
+    List<String> getChunkEventTypes();
+
+    /**
+     * @return the earliest event start time in epoch milliseconds, or {@link Long#MAX_VALUE} if
+     *     there are no events
+     */
+    default long getMinStartTime() {
+        long startTime = Long.MAX_VALUE;
+        for (String eventType : getEventTypes()) {
+            EventTable table = get(eventType);
+            if (table != null && table.size() > 0) {
+                startTime = Math.min(table.getMinStartTime(), startTime);
+            }
+        }
+        return startTime;
+    }
+
+    /**
+     * @return the latest event start or end time in epoch milliseconds, or {@link Long#MIN_VALUE}
+     *     if there are no events
+     */
+    default long getMaxEndTime() {
+        long endTime = Long.MIN_VALUE;
+        for (String eventType : getEventTypes()) {
+            EventTable table = get(eventType);
+            if (table != null && table.size() > 0) {
+                endTime = Math.max(table.getMaxEndTime(), endTime);
+            }
+        }
+        return endTime;
+    }
+
+    /** Frees any memory not managed by the garbage collector. */
+    @Override
+    default void close() {}
+}
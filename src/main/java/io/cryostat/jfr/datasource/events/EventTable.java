@@ -0,0 +1,109 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.List;
+
+import io.cryostat.jfr.datasource.utils.CancellationToken;
+
+/** The events of one type in a loaded recording, ordered by start time. */
+public interface EventTable {
+
+    String getEventType();
+
+    List<EventField> getFields();
+
+    /** @return the position of the field, or -1 if the event type has no such field */
+    default int indexOf(String identifier) {
+        List<EventField> fields = getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).identifier().equals(identifier)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int size();
+
+    /** @return the earliest event start time in epoch milliseconds */
+    long getMinStartTime();
+
+    /** @return the latest event start or end time in epoch milliseconds */
+    long getMaxEndTime();
+
+    /** @return an upper bound of the number of events starting within [from, to] */
+    int estimateCount(long from, long to);
+
+    /**
+     * Visits the events starting within [from, to] and ending no later than {@code endTo}, in
+     * start time order, until the visitor returns false.
+     */
+    void scan(long from, long to, long endTo, RowVisitor visitor);
+
+    /** Visits the events whose lifetime is contained in [from, to]. */
+    default void scan(long from, long to, RowVisitor visitor) {
+        scan(from, to, to, visitor);
+    }
+
+    /** Visits every event. */
+    default void scanAll(RowVisitor visitor) {
+        scan(Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * As {@link #scan(long, long, long, RowVisitor)}, but stopping with a {@link
+     * io.cryostat.jfr.datasource.utils.QueryCancelledException} once the query is cancelled.
+     */
+    default void scan(
+            long from, long to, long endTo, CancellationToken cancellation, RowVisitor visitor) {
+        scan(from, to, endTo, RowVisitor.cancellable(cancellation, visitor));
+    }
+
+    /** Visits the events whose lifetime is contained in [from, to] until the query is cancelled. */
+    default void scan(long from, long to, CancellationToken cancellation, RowVisitor visitor) {
+        scan(from, to, to, cancellation, visitor);
+    }
+
+    /** Visits every event until the query is cancelled. */
+    default void scanAll(CancellationToken cancellation, RowVisitor visitor) {
+        scanAll(RowVisitor.cancellable(cancellation, visitor));
+    }
+
+    @FunctionalInterface
+    interface RowVisitor {
+
+        /** Number of events visited between cancellation checks */
+        int CANCELLATION_CHECK_INTERVAL = 1024;
+
+        /** @return whether to continue with the next event */
+        boolean visit(EventRow row);
+
+        /** Checks for cancellation before the first and every following batch of events. */
+        static RowVisitor cancellable(CancellationToken cancellation, RowVisitor visitor) {
+            if (cancellation == CancellationToken.NONE) {
+                return visitor;
+            }
+            int[] count = {0};
+            return row -> {
+                if (count[0]++ % CANCELLATION_CHECK_INTERVAL == 0) {
+                    cancellation.check();
+                }
+                return visitor.visit(row);
+            };
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.openjdk.jmc.flightrecorder.parser.IEventSink;
+import org.openjdk.jmc.flightrecorder.parser.IEventSinkFactory;
+import org.openjdk.jmc.flightrecorder.parser.IParserExtension;
+import org.openjdk.jmc.flightrecorder.parser.ParserExtensionRegistry;
+import org.openjdk.jmc.flightrecorder.parser.ValueField;
+
+/**
+ * A parser extension dropping events while a recording is parsed, before any items are built for
+ * them. Event types that are not included are left out of the parsed recording altogether.
+ */
+class EventTypeFilter implements IParserExtension {
+
+    private static final IEventSink DISCARD = values -> {};
+
+    private final Predicate<String> include;
+    private final int limit;
+
+    /**
+     * @param include the identifiers of the event types to keep
+     * @param limit the most events to keep of each type in each chunk
+     */
+    EventTypeFilter(Predicate<String> include, int limit) {
+        this.include = include;
+        this.limit = limit;
+    }
+
+    /** @return this filter followed by the default parser extensions */
+    List<IParserExtension> withDefaults() {
+        List<IParserExtension> extensions = new ArrayList<>();
+        // Wrapping the item sinks directly, so that the filter sees the event types that other
+        // extensions translate to
+        extensions.add(this);
+        extensions.addAll(ParserExtensionRegistry.getParserExtensions());
+        return extensions;
+    }
+
+    @Override
+    public String getValueInterpretation(String eventTypeId, String fieldId) {
+        return null;
+    }
+
+    @Override
+    public IEventSinkFactory getEventSinkFactory(IEventSinkFactory subFactory) {
+        return new IEventSinkFactory() {
+            @Override
+            public IEventSink create(
+                    String identifier,
+                    String label,
+                    String[] category,
+                    String description,
+                    List<ValueField> dataStructure) {
+                if (!include.test(identifier)) {
+                    return DISCARD;
+                }
+                IEventSink sink =
+                        subFactory.create(identifier, label, category, description, dataStructure);
+                if (limit == Integer.MAX_VALUE) {
+                    return sink;
+                }
+                int[] count = {0};
+                return values -> {
+                    if (count[0] < limit) {
+                        count[0]++;
+                        sink.addEvent(values);
+                    }
+                };
+            }
+
+            @Override
+            public void flush() {
+                subFactory.flush();
+            }
+        };
+    }
+}
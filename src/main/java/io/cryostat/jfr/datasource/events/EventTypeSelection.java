@@ -0,0 +1,117 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * The event types to load from a recording: those matching any of the included patterns, or all
+ * of them if there are none, except those matching any of the excluded patterns. A pattern is an
+ * event type identifier, in which {@code *} stands for any sequence of characters, e.g. {@code
+ * jdk.GC*}.
+ */
+public record EventTypeSelection(List<String> include, List<String> exclude)
+        implements Predicate<String> {
+
+    /** Selects every event type */
+    public static final EventTypeSelection ALL = new EventTypeSelection(List.of(), List.of());
+
+    public EventTypeSelection {
+        include = normalize(include);
+        exclude = normalize(exclude);
+    }
+
+    /**
+     * @param include the included patterns, each of which may be a comma separated list
+     * @param exclude the excluded patterns, each of which may be a comma separated list
+     */
+    public static EventTypeSelection of(List<String> include, List<String> exclude) {
+        return new EventTypeSelection(include, exclude);
+    }
+
+    /** @return whether every event type is selected */
+    public boolean isAll() {
+        return include.isEmpty() && exclude.isEmpty();
+    }
+
+    /** @return this selection, or the other one if this one selects every event type */
+    public EventTypeSelection orElse(EventTypeSelection other) {
+        return isAll() ? other : this;
+    }
+
+    @Override
+    public boolean test(String eventType) {
+        return (include.isEmpty() || matchesAny(include, eventType))
+                && !matchesAny(exclude, eventType);
+    }
+
+    private static boolean matchesAny(List<String> patterns, String eventType) {
+        for (String pattern : patterns) {
+            if (matches(pattern, eventType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean matches(String pattern, String eventType) {
+        int star = pattern.indexOf('*');
+        if (star < 0) {
+            return pattern.equals(eventType);
+        }
+        if (!eventType.startsWith(pattern.substring(0, star))) {
+            return false;
+        }
+        // Match each literal part between wildcards as early as possible
+        int position = star;
+        int start = star + 1;
+        while (true) {
+            int next = pattern.indexOf('*', start);
+            if (next < 0) {
+                String suffix = pattern.substring(start);
+                return eventType.length() - suffix.length() >= position
+                        && eventType.endsWith(suffix);
+            }
+            int found = eventType.indexOf(pattern.substring(start, next), position);
+            if (found < 0) {
+                return false;
+            }
+            position = found + next - start;
+            start = next + 1;
+        }
+    }
+
+    // Splits comma separated lists and sorts the patterns, so that equal selections compare equal
+    private static List<String> normalize(List<String> patterns) {
+        if (patterns == null || patterns.isEmpty()) {
+            return List.of();
+        }
+        TreeSet<String> normalized = new TreeSet<>();
+        for (String pattern : patterns) {
+            if (pattern == null) {
+                continue;
+            }
+            for (String part : pattern.split(",")) {
+                if (!part.isBlank()) {
+                    normalized.add(part.strip());
+                }
+            }
+        }
+        return List.copyOf(normalized);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.Arrays;
+
+/** Keeps columns as arrays on the heap, to be reclaimed by the garbage collector. */
+class HeapColumnStorage implements ColumnStorage {
+
+    private long size;
+
+    @Override
+    public Column store(long[] words, int length) {
+        long[] copy = Arrays.copyOf(words, length);
+        size += (long) length * Long.BYTES;
+        return new Column() {
+            @Override
+            public int length() {
+                return copy.length;
+            }
+
+            @Override
+            public long[] words(long[] scratch) {
+                return copy;
+            }
+        };
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() {}
+}
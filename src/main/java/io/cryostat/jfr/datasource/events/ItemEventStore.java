@@ -0,0 +1,79 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.ItemFilters;
+
+/**
+ * Event storage backed by the parsed JMC item collection. The events of a type are indexed by
+ * start time the first time the type is scanned, so that range scans only visit the events within
+ * the range instead of filtering the whole collection.
+ */
+public class ItemEventStore implements EventStore {
+
+    private final IItemCollection events;
+    private final Map<String, Optional<ItemEventTable>> tables = new ConcurrentHashMap<>();
+
+    public ItemEventStore(IItemCollection events) {
+        this.events = events;
+    }
+
+    public IItemCollection getEvents() {
+        return events;
+    }
+
+    @Override
+    public EventTable get(String eventType) {
+        return tables.computeIfAbsent(
+                        eventType,
+                        t ->
+                                Optional.ofNullable(
+                                        ItemEventTable.create(
+                                                t, events.apply(ItemFilters.type(t)))))
+                .orElse(null);
+    }
+
+    @Override
+    public Collection<String> getEventTypes() {
+        Set<String> eventTypes = new LinkedHashSet<>();
+        for (IItemIterable itemIterable : events) {
+            eventTypes.add(itemIterable.getType().getIdentifier());
+        }
+        return eventTypes;
+    }
+
+    @Override
+    public List<String> getChunkEventTypes() {
+        List<String> eventTypes = new ArrayList<>();
+        for (IItemIterable itemIterable : events) {
+            if (itemIterable.hasItems()) {
+                eventTypes.add(itemIterable.getType().getIdentifier());
+            }
+        }
+        return eventTypes;
+    }
+}
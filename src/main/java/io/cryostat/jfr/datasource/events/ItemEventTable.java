@@ -0,0 +1,302 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmc.common.item.IAccessorKey;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.IType;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.QuantityConversionException;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+
+/** The JMC items of one event type, ordered by start time once on first use. */
+class ItemEventTable implements EventTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final String eventType;
+    private final IItemCollection events;
+    private final List<EventField> fields;
+    private volatile Index index;
+
+    private ItemEventTable(String eventType, IItemCollection events, List<EventField> fields) {
+        this.eventType = eventType;
+        this.events = events;
+        this.fields = fields;
+    }
+
+    /** @return the table, or null if the collection has no events of the type */
+    static ItemEventTable create(String eventType, IItemCollection events) {
+        List<EventField> fields = new ArrayList<>();
+        boolean found = false;
+        for (IItemIterable itemIterable : events) {
+            found = true;
+            for (IAccessorKey<?> attribute :
+                    itemIterable.getType().getAccessorKeys().keySet()) {
+                EventField field =
+                        new EventField(attribute.getIdentifier(), attribute.getContentType());
+                if (!fields.contains(field)) {
+                    fields.add(field);
+                }
+            }
+        }
+        return found
+                ? new ItemEventTable(eventType, events, Collections.unmodifiableList(fields))
+                : null;
+    }
+
+    @Override
+    public String getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public List<EventField> getFields() {
+        return fields;
+    }
+
+    @Override
+    public int size() {
+        return index().items.length;
+    }
+
+    @Override
+    public long getMinStartTime() {
+        Index index = index();
+        return index.startTimes.length == 0 ? Long.MAX_VALUE : index.startTimes[0];
+    }
+
+    @Override
+    public long getMaxEndTime() {
+        return index().maxEndTime;
+    }
+
+    @Override
+    public int estimateCount(long from, long to) {
+        Index index = index();
+        int end = to == Long.MAX_VALUE ? index.items.length : index.lowerBound(to + 1);
+        return Math.max(end - index.lowerBound(from), 0);
+    }
+
+    @Override
+    public void scan(long from, long to, long endTo, RowVisitor visitor) {
+        Index index = index();
+        Row row = new Row(index);
+        for (int i = index.lowerBound(from);
+                i < index.items.length && index.startTimes[i] <= to;
+                i++) {
+            if (index.endTimes[i] <= endTo) {
+                row.position = i;
+                if (!visitor.visit(row)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private Index index() {
+        Index current = this.index;
+        if (current == null) {
+            synchronized (this) {
+                current = this.index;
+                if (current == null) {
+                    current = buildIndex();
+                    this.index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Index buildIndex() {
+        List<IItem> items = new ArrayList<>();
+        List<IMemberAccessor<?, IItem>[]> itemAccessors = new ArrayList<>();
+        // Growable arrays rather than lists, which would box both times of every event
+        long[] starts = new long[INITIAL_CAPACITY];
+        long[] ends = new long[INITIAL_CAPACITY];
+        for (IItemIterable itemIterable : events) {
+            IType<IItem> type = itemIterable.getType();
+            // One accessor per table field, aligned with the field positions
+            IMemberAccessor<?, IItem>[] accessors = new IMemberAccessor[fields.size()];
+            for (IAccessorKey<?> attribute : type.getAccessorKeys().keySet()) {
+                int i =
+                        fields.indexOf(
+                                new EventField(
+                                        attribute.getIdentifier(), attribute.getContentType()));
+                if (i >= 0) {
+                    accessors[i] = type.getAccessor(attribute);
+                }
+            }
+            IMemberAccessor<IQuantity, IItem> startTimeAccessor =
+                    JfrAttributes.START_TIME.getAccessor(type);
+            IMemberAccessor<IQuantity, IItem> endTimeAccessor =
+                    JfrAttributes.END_TIME.getAccessor(type);
+            for (IItem item : itemIterable) {
+                long startTime = epochMillis(startTimeAccessor, item);
+                long endTime =
+                        endTimeAccessor == null ? startTime : epochMillis(endTimeAccessor, item);
+                int i = items.size();
+                if (i == starts.length) {
+                    starts = Arrays.copyOf(starts, i * 2);
+                    ends = Arrays.copyOf(ends, i * 2);
+                }
+                items.add(item);
+                itemAccessors.add(accessors);
+                starts[i] = startTime;
+                ends[i] = endTime;
+            }
+        }
+
+        int size = items.size();
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        sortByKey(starts, order);
+
+        Index index = new Index(size);
+        for (int i = 0; i < size; i++) {
+            index.items[i] = items.get(order[i]);
+            index.accessors[i] = itemAccessors.get(order[i]);
+            index.startTimes[i] = starts[order[i]];
+            index.endTimes[i] = ends[order[i]];
+            index.maxEndTime =
+                    Math.max(index.maxEndTime, Math.max(index.startTimes[i], index.endTimes[i]));
+        }
+        return index;
+    }
+
+    static long epochMillis(IMemberAccessor<IQuantity, IItem> accessor, IItem item) {
+        try {
+            return accessor.getMember(item).longValueIn(UnitLookup.EPOCH_MS);
+        } catch (QuantityConversionException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Stable sort of the positions in {@code order} by their key. Events usually arrive sorted
+     * already, in which case this is a single linear pass.
+     */
+    static void sortByKey(long[] keys, int[] order) {
+        boolean sorted = true;
+        for (int i = 1; i < order.length && sorted; i++) {
+            sorted = keys[order[i - 1]] <= keys[order[i]];
+        }
+        if (!sorted) {
+            mergeSort(keys, order, new int[order.length], 0, order.length);
+        }
+    }
+
+    private static void mergeSort(long[] keys, int[] order, int[] tmp, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(keys, order, tmp, from, mid);
+        mergeSort(keys, order, tmp, mid, to);
+        if (keys[order[mid - 1]] <= keys[order[mid]]) {
+            return;
+        }
+        System.arraycopy(order, from, tmp, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && keys[tmp[left]] <= keys[tmp[right]])) {
+                order[i] = tmp[left++];
+            } else {
+                order[i] = tmp[right++];
+            }
+        }
+    }
+
+    private static final class Index {
+        final IItem[] items;
+        final IMemberAccessor<?, IItem>[][] accessors;
+        final long[] startTimes;
+        final long[] endTimes;
+        long maxEndTime;
+
+        @SuppressWarnings("unchecked")
+        Index(int size) {
+            this.items = new IItem[size];
+            this.accessors = new IMemberAccessor[size][];
+            this.startTimes = new long[size];
+            this.endTimes = new long[size];
+        }
+
+        // First position whose start time is at least the given time
+        int lowerBound(long time) {
+            int low = 0;
+            int high = startTimes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (startTimes[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static final class Row implements EventRow {
+        private final Index index;
+        int position;
+
+        Row(Index index) {
+            this.index = index;
+        }
+
+        @Override
+        public long getStartTime() {
+            return index.startTimes[position];
+        }
+
+        @Override
+        public long getEndTime() {
+            return index.endTimes[position];
+        }
+
+        @Override
+        public Object getValue(int field) {
+            IMemberAccessor<?, IItem> accessor = index.accessors[position][field];
+            return accessor == null ? null : accessor.getMember(index.items[position]);
+        }
+
+        @Override
+        public double getNumber(int field) {
+            Object value = getValue(field);
+            if (value instanceof IQuantity) {
+                return EventField.displayValue((IQuantity) value);
+            } else if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.ItemFilters;
+import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+
+import io.cryostat.jfr.datasource.utils.JfrChunks;
+import io.cryostat.jfr.datasource.utils.JfrChunks.Chunk;
+import io.cryostat.jfr.datasource.utils.JfrChunks.Span;
+import io.cryostat.jfr.datasource.utils.LruCache;
+
+/**
+ * Event storage that only keeps a catalog of a recording file when it is loaded: the event types,
+ * their fields, and the chunks that have events of each type, taken from a parse that keeps one
+ * event per type and chunk. The events of a type are parsed from the file when a query first
+ * scans the type, and the most recently used types stay loaded. The time range of the recording
+ * is taken from the chunk headers, so it is known without loading any events.
+ */
+public class LazyEventStore implements EventStore {
+
+    private final File file;
+    private final Object fileKey;
+    private final long lastModified;
+    private final long length;
+    private final ItemEventStore catalog;
+    // From the chunk headers, or MAX_VALUE and MIN_VALUE if the file cannot be split into chunks
+    private final long chunkStartTime;
+    private final long chunkEndTime;
+    private final LruCache<String, EventTable> loaded;
+    private final Map<String, Optional<EventTable>> tables = new ConcurrentHashMap<>();
+
+    private LazyEventStore(
+            File file,
+            BasicFileAttributes attributes,
+            IItemCollection catalog,
+            List<Span> spans,
+            int maxTypes) {
+        this.file = file;
+        this.fileKey = attributes.fileKey();
+        this.lastModified = attributes.lastModifiedTime().toMillis();
+        this.length = attributes.size();
+        this.catalog = new ItemEventStore(catalog);
+        long startTime = Long.MAX_VALUE;
+        long endTime = Long.MIN_VALUE;
+        for (Span span : spans) {
+            startTime = Math.min(span.startMillis(), startTime);
+            endTime = Math.max(span.endMillis(), endTime);
+        }
+        this.chunkStartTime = startTime;
+        this.chunkEndTime = endTime;
+        this.loaded = new LruCache<>(Math.max(maxTypes, 1));
+    }
+
+    /**
+     * Reads the catalog of the file.
+     *
+     * @param maxTypes the most event types to keep loaded at once
+     * @param types the event types to load, others being left out of the catalog
+     */
+    public static LazyEventStore open(File file, int maxTypes, EventTypeSelection types)
+            throws IOException, CouldNotLoadRecordingException {
+        BasicFileAttributes attributes =
+                Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        IItemCollection catalog =
+                JfrLoaderToolkit.loadEvents(
+                        List.of(file), new EventTypeFilter(types, 1).withDefaults());
+        List<Span> spans = new ArrayList<>();
+        for (Chunk chunk : JfrChunks.list(file.toPath())) {
+            spans.add(JfrChunks.span(file.toPath(), chunk));
+        }
+        return new LazyEventStore(file, attributes, catalog, spans, maxTypes);
+    }
+
+    @Override
+    public EventTable get(String eventType) {
+        return tables.computeIfAbsent(
+                        eventType,
+                        t -> Optional.ofNullable(catalog.get(t)).map(c -> new LazyEventTable(t, c)))
+                .orElse(null);
+    }
+
+    @Override
+    public Collection<String> getEventTypes() {
+        return catalog.getEventTypes();
+    }
+
+    @Override
+    public List<String> getChunkEventTypes() {
+        return catalog.getChunkEventTypes();
+    }
+
+    @Override
+    public long getMinStartTime() {
+        if (chunkStartTime == Long.MAX_VALUE) {
+            return EventStore.super.getMinStartTime();
+        }
+        // Events that started before their chunk was begun are only known from the catalog
+        return Math.min(chunkStartTime, catalog.getMinStartTime());
+    }
+
+    @Override
+    public long getMaxEndTime() {
+        if (chunkEndTime == Long.MIN_VALUE) {
+            return EventStore.super.getMaxEndTime();
+        }
+        return Math.max(chunkEndTime, catalog.getMaxEndTime());
+    }
+
+    /** @return the events of the type, parsing them from the file unless they are loaded */
+    private EventTable load(LazyEventTable table) {
+        EventTable events = loaded.get(table.eventType);
+        if (events != null) {
+            return events;
+        }
+        // One parse per type at a time, other types can load concurrently
+        synchronized (table) {
+            events = loaded.get(table.eventType);
+            if (events == null) {
+                // Both parses see the same chunks and type structures, so the fields line up
+                events = Objects.requireNonNullElse(parse(table.eventType), table.catalogTable);
+                loaded.put(table.eventType, events);
+            }
+        }
+        return events;
+    }
+
+    private ItemEventTable parse(String eventType) {
+        try {
+            BasicFileAttributes attributes =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (!Objects.equals(attributes.fileKey(), fileKey)
+                    || attributes.lastModifiedTime().toMillis() != lastModified
+                    || attributes.size() != length) {
+                throw new IOException(file.getName() + " was modified since it was loaded");
+            }
+            IItemCollection events =
+                    JfrLoaderToolkit.loadEvents(
+                            List.of(file),
+                            new EventTypeFilter(eventType::equals, Integer.MAX_VALUE)
+                                    .withDefaults());
+            return ItemEventTable.create(eventType, events.apply(ItemFilters.type(eventType)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (CouldNotLoadRecordingException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    /** A table answering from the catalog where it can, and from the loaded events otherwise. */
+    private final class LazyEventTable implements EventTable {
+        private final String eventType;
+        private final EventTable catalogTable;
+
+        LazyEventTable(String eventType, EventTable catalogTable) {
+            this.eventType = eventType;
+            this.catalogTable = catalogTable;
+        }
+
+        @Override
+        public String getEventType() {
+            return eventType;
+        }
+
+        @Override
+        public List<EventField> getFields() {
+            return catalogTable.getFields();
+        }
+
+        @Override
+        public int indexOf(String identifier) {
+            return catalogTable.indexOf(identifier);
+        }
+
+        @Override
+        public int size() {
+            return load(this).size();
+        }
+
+        @Override
+        public long getMinStartTime() {
+            return load(this).getMinStartTime();
+        }
+
+        @Override
+        public long getMaxEndTime() {
+            return load(this).getMaxEndTime();
+        }
+
+        @Override
+        public int estimateCount(long from, long to) {
+            return load(this).estimateCount(from, to);
+        }
+
+        @Override
+        public void scan(long from, long to, long endTo, RowVisitor visitor) {
+            load(this).scan(from, to, endTo, visitor);
+        }
+    }
+}
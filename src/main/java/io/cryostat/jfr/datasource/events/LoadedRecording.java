@@ -0,0 +1,182 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.cryostat.jfr.datasource.utils.LruCache;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A parsed recording and the derived state kept alongside it while it is loaded.
+ *
+ * <p>Recordings are reference counted, starting with the reference held by their creator. The
+ * event store is closed when the last reference is released, so a query that has retained the
+ * recording can finish even if the recording is deleted or evicted meanwhile.
+ */
+public class LoadedRecording {
+
+    private static final int ANNOTATIONS_CACHE_SIZE = 64;
+    private static final int RESULTS_CACHE_SIZE = 64;
+
+    private final EventStore store;
+    private final MemberDictionary dictionary;
+    private final Map<String, Map<String, Rollup>> rollups;
+    // Rollups built or being built on request, by event type and field, or null if given up front
+    private final Map<String, CompletableFuture<Optional<Rollup>>> lazyRollups;
+    private final LruCache<String, String> annotations = new LruCache<>(ANNOTATIONS_CACHE_SIZE);
+    private final LruCache<String, List<JsonObject>> results = new LruCache<>(RESULTS_CACHE_SIZE);
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public LoadedRecording(
+            EventStore store,
+            MemberDictionary dictionary,
+            Map<String, Map<String, Rollup>> rollups) {
+        this.store = store;
+        this.dictionary = dictionary;
+        this.rollups = rollups;
+        this.lazyRollups = null;
+    }
+
+    /**
+     * A recording whose rollups are built for a field once the field has been queried, so that
+     * only the fields that are queried hold rollups.
+     */
+    public LoadedRecording(EventStore store, MemberDictionary dictionary) {
+        this.store = store;
+        this.dictionary = dictionary;
+        this.rollups = Map.of();
+        this.lazyRollups = new ConcurrentHashMap<>();
+    }
+
+    public EventStore getStore() {
+        return store;
+    }
+
+    public MemberDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * The pre-aggregated values of a numeric event field, if they were given up front or have been
+     * built since. Never loads events or builds rollups, so it is cheap enough to cost queries.
+     */
+    public Optional<Rollup> getRollup(String eventType, String field) {
+        if (lazyRollups == null) {
+            Map<String, Rollup> typeRollups = rollups.get(eventType);
+            return typeRollups == null
+                    ? Optional.empty()
+                    : Optional.ofNullable(typeRollups.get(field));
+        }
+        CompletableFuture<Optional<Rollup>> rollup = lazyRollups.get(rollupKey(eventType, field));
+        return rollup != null && rollup.isDone() ? rollup.join() : Optional.empty();
+    }
+
+    /** @return whether the rollup of the field was given up front or has been built since */
+    boolean hasRollup(String eventType, String field) {
+        if (lazyRollups == null) {
+            return true;
+        }
+        CompletableFuture<Optional<Rollup>> rollup = lazyRollups.get(rollupKey(eventType, field));
+        return rollup != null && rollup.isDone();
+    }
+
+    /**
+     * Builds the rollup of a numeric event field on the executor, unless it has been built or is
+     * being built already, so that later queries on the field can use it. The build holds a
+     * reference to the recording until it is done.
+     */
+    void buildRollup(String eventType, String field, Executor executor) {
+        if (lazyRollups == null) {
+            return;
+        }
+        String key = rollupKey(eventType, field);
+        CompletableFuture<Optional<Rollup>> rollup = new CompletableFuture<>();
+        if (lazyRollups.containsKey(key) || lazyRollups.putIfAbsent(key, rollup) != null) {
+            return;
+        }
+        try {
+            executor.execute(
+                    () -> {
+                        if (!retain()) {
+                            rollup.complete(Optional.empty());
+                            return;
+                        }
+                        try {
+                            EventTable table = store.get(eventType);
+                            rollup.complete(
+                                    table == null
+                                            ? Optional.empty()
+                                            : Rollup.build(table, field));
+                        } catch (RuntimeException e) {
+                            // Built again once the field is queried next
+                            lazyRollups.remove(key, rollup);
+                            rollup.completeExceptionally(e);
+                            throw e;
+                        } finally {
+                            release();
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            lazyRollups.remove(key, rollup);
+        }
+    }
+
+    private static String rollupKey(String eventType, String field) {
+        return eventType + '\0' + field;
+    }
+
+    /** Rendered annotation responses by annotation query and range. */
+    public LruCache<String, String> getAnnotations() {
+        return annotations;
+    }
+
+    /** Query target results by logical plan. */
+    public LruCache<String, List<JsonObject>> getResults() {
+        return results;
+    }
+
+    /**
+     * Takes another reference to the recording.
+     *
+     * @return false if the recording has already been closed, in which case no reference is taken
+     */
+    public boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /** Drops a reference, closing the event store once none remain. */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            store.close();
+        }
+    }
+}
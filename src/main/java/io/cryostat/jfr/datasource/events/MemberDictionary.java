@@ -0,0 +1,118 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmc.common.IMCStackTrace;
+
+/**
+ * Interns the non-numeric members of a recording's events, such as {@code IMCType} and {@code
+ * IMCThread} values, mapping each distinct member to a stable integer id and a string rendering
+ * that is computed at most once. The same few thousand classes and threads are referenced by
+ * millions of events, so query paths render through the dictionary rather than calling {@code
+ * toString()} per event.
+ *
+ * <p>Members are kept for the lifetime of the recording, so rendering only interns up to {@link
+ * #MAX_RENDERED_MEMBERS} members, and never stack traces, which are often distinct per event.
+ * Other members are rendered without caching. Compact event tables intern every member they
+ * encode, which they hold anyway.
+ *
+ * <p>Lookups are lock-free. Interning a member not seen before takes a lock.
+ */
+public class MemberDictionary {
+
+    /** The number of members beyond which rendering no longer interns new members */
+    static final int MAX_RENDERED_MEMBERS = 65_536;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final Map<Object, Integer> ids = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Object[] members = new Object[INITIAL_CAPACITY];
+    private volatile String[] renderings = new String[INITIAL_CAPACITY];
+    private volatile int size;
+
+    /** @return the stable id of the member, interning it if needed */
+    public int id(Object member) {
+        Integer id = ids.get(member);
+        if (id != null) {
+            return id;
+        }
+        lock.lock();
+        try {
+            id = ids.get(member);
+            if (id != null) {
+                return id;
+            }
+            int next = size;
+            if (next == members.length) {
+                renderings = Arrays.copyOf(renderings, next * 2);
+                members = Arrays.copyOf(members, next * 2);
+            }
+            members[next] = member;
+            size = next + 1;
+            // Publish the id only once the member is visible through the array
+            ids.put(member, next);
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Object member(int id) {
+        return members[id];
+    }
+
+    public String render(int id) {
+        String[] cache = renderings;
+        String rendering = id < cache.length ? cache[id] : null;
+        if (rendering == null) {
+            rendering = members[id].toString();
+            if (id < cache.length) {
+                // Benign race: a concurrent resize may drop this entry, which only costs a
+                // recomputation later
+                cache[id] = rendering;
+            }
+        }
+        return rendering;
+    }
+
+    /** @return the string rendering of the member, or null for a null member */
+    public String render(Object member) {
+        if (member == null) {
+            return null;
+        }
+        if (member instanceof String) {
+            return (String) member;
+        }
+        Integer id = ids.get(member);
+        if (id != null) {
+            return render(id.intValue());
+        }
+        if (member instanceof IMCStackTrace || size >= MAX_RENDERED_MEMBERS) {
+            return member.toString();
+        }
+        return render(id(member));
+    }
+
+    public int size() {
+        return size;
+    }
+}
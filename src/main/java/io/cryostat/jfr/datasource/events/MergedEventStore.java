@@ -0,0 +1,133 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Event storage presenting several event stores as one, e.g. the chunks of a recording parsed on
+ * their own or the hourly files of a rolling recording. The tables of an event type are only
+ * merged when the type is first used, from the parts that have events of the type, and scans only
+ * visit the parts whose events of the type overlap the scanned range.
+ *
+ * <p>The store takes over the parts and closes them when it is closed.
+ */
+public class MergedEventStore implements EventStore {
+
+    private final List<EventStore> parts;
+    private final Map<String, Optional<EventTable>> tables = new ConcurrentHashMap<>();
+    // The event types each part has events of, computed on first use
+    private volatile List<Set<String>> presentTypes;
+
+    public MergedEventStore(List<? extends EventStore> parts) {
+        this.parts = List.copyOf(parts);
+    }
+
+    @Override
+    public EventTable get(String eventType) {
+        return tables.computeIfAbsent(eventType, this::merge).orElse(null);
+    }
+
+    private Optional<EventTable> merge(String eventType) {
+        List<Set<String>> presentTypes = presentTypes();
+        List<EventTable> partTables = new ArrayList<>();
+        EventTable empty = null;
+        for (int i = 0; i < parts.size(); i++) {
+            if (!presentTypes.get(i).contains(eventType)) {
+                if (empty == null) {
+                    empty = parts.get(i).get(eventType);
+                }
+                continue;
+            }
+            EventTable table = parts.get(i).get(eventType);
+            if (table != null) {
+                partTables.add(table);
+            }
+        }
+        switch (partTables.size()) {
+            case 0:
+                // Known to the recording but without events, as with a single store
+                return Optional.ofNullable(empty);
+            case 1:
+                return Optional.of(partTables.get(0));
+            default:
+                return Optional.of(new MergedEventTable(eventType, partTables));
+        }
+    }
+
+    private List<Set<String>> presentTypes() {
+        List<Set<String>> current = this.presentTypes;
+        if (current == null) {
+            current = new ArrayList<>();
+            for (EventStore part : parts) {
+                current.add(new HashSet<>(part.getChunkEventTypes()));
+            }
+            this.presentTypes = current;
+        }
+        return current;
+    }
+
+    @Override
+    public Collection<String> getEventTypes() {
+        Set<String> eventTypes = new LinkedHashSet<>();
+        for (EventStore part : parts) {
+            eventTypes.addAll(part.getEventTypes());
+        }
+        return eventTypes;
+    }
+
+    @Override
+    public List<String> getChunkEventTypes() {
+        List<String> eventTypes = new ArrayList<>();
+        for (EventStore part : parts) {
+            eventTypes.addAll(part.getChunkEventTypes());
+        }
+        return eventTypes;
+    }
+
+    @Override
+    public long getMinStartTime() {
+        long startTime = Long.MAX_VALUE;
+        for (EventStore part : parts) {
+            startTime = Math.min(part.getMinStartTime(), startTime);
+        }
+        return startTime;
+    }
+
+    @Override
+    public long getMaxEndTime() {
+        long endTime = Long.MIN_VALUE;
+        for (EventStore part : parts) {
+            endTime = Math.max(part.getMaxEndTime(), endTime);
+        }
+        return endTime;
+    }
+
+    @Override
+    public void close() {
+        for (EventStore part : parts) {
+            part.close();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The events of one type in several recordings, e.g. the chunks of a recording or the files of a
+ * rolling recording. Events are scanned in start time order. Where recordings overlap in time,
+ * their events are merged, otherwise each recording is scanned on its own.
+ *
+ * <p>Fields are the union of the fields of every recording, by identifier. Recordings without a
+ * field, e.g. ones made by an older JVM, have no value for it.
+ */
+class MergedEventTable implements EventTable {
+
+    // Most events buffered at once to merge the events of parts that overlap in time
+    private static final int MERGE_WINDOW = 4096;
+
+    private final String eventType;
+    private final List<EventField> fields;
+    private final EventTable[] parts;
+    // Position of every merged field in each part, or null where the positions are the same
+    private final int[][] fieldMaps;
+    private final int size;
+    private final long minStartTime;
+    private final long maxEndTime;
+
+    MergedEventTable(String eventType, List<EventTable> tables) {
+        this.eventType = eventType;
+        List<EventTable> sorted = new ArrayList<>(tables);
+        sorted.sort(Comparator.comparingLong(EventTable::getMinStartTime));
+        this.parts = sorted.toArray(new EventTable[0]);
+
+        Map<String, EventField> merged = new LinkedHashMap<>();
+        for (EventTable part : parts) {
+            for (EventField field : part.getFields()) {
+                merged.putIfAbsent(field.identifier(), field);
+            }
+        }
+        this.fields = List.copyOf(merged.values());
+
+        this.fieldMaps = new int[parts.length][];
+        int size = 0;
+        long minStartTime = Long.MAX_VALUE;
+        long maxEndTime = Long.MIN_VALUE;
+        for (int p = 0; p < parts.length; p++) {
+            EventTable part = parts[p];
+            int[] map = new int[fields.size()];
+            boolean identity = part.getFields().size() == fields.size();
+            for (int f = 0; f < map.length; f++) {
+                map[f] = part.indexOf(fields.get(f).identifier());
+                identity &= map[f] == f;
+            }
+            fieldMaps[p] = identity ? null : map;
+            size += part.size();
+            minStartTime = Math.min(minStartTime, part.getMinStartTime());
+            maxEndTime = Math.max(maxEndTime, part.getMaxEndTime());
+        }
+        this.size = size;
+        this.minStartTime = minStartTime;
+        this.maxEndTime = maxEndTime;
+    }
+
+    @Override
+    public String getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public List<EventField> getFields() {
+        return fields;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getMinStartTime() {
+        return minStartTime;
+    }
+
+    @Override
+    public long getMaxEndTime() {
+        return maxEndTime;
+    }
+
+    @Override
+    public int estimateCount(long from, long to) {
+        long count = 0;
+        for (EventTable part : parts) {
+            if (overlaps(part, from, to)) {
+                count += part.estimateCount(from, to);
+            }
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Scans the range in slices between the first and last event times of the parts, so that each
+     * slice has the same parts overlapping it throughout. Slices with events of a single part are
+     * scanned straight from the part, and the events of several parts, e.g. at the boundaries of
+     * the chunks of a recording, are merged by start time.
+     */
+    @Override
+    public void scan(long from, long to, long endTo, RowVisitor visitor) {
+        TreeSet<Long> cuts = new TreeSet<>();
+        for (EventTable part : parts) {
+            if (overlaps(part, from, to)) {
+                cuts.add(Math.max(part.getMinStartTime(), from));
+                if (part.getMaxEndTime() < to) {
+                    cuts.add(part.getMaxEndTime() + 1);
+                }
+            }
+        }
+        Iterator<Long> starts = cuts.iterator();
+        Long next = starts.hasNext() ? starts.next() : null;
+        while (next != null) {
+            long start = next;
+            next = starts.hasNext() ? starts.next() : null;
+            long end = next == null ? to : next - 1;
+            List<Integer> overlapping = new ArrayList<>();
+            for (int p = 0; p < parts.length; p++) {
+                if (overlaps(parts[p], start, end)) {
+                    overlapping.add(p);
+                }
+            }
+            if (overlapping.size() == 1) {
+                if (!scanPart(overlapping.get(0), start, end, endTo, visitor)) {
+                    return;
+                }
+            } else if (!overlapping.isEmpty() && !merge(overlapping, start, end, endTo, visitor)) {
+                return;
+            }
+        }
+    }
+
+    // Whether the part can have events starting within [from, to]
+    private static boolean overlaps(EventTable part, long from, long to) {
+        long minStartTime = part.getMinStartTime();
+        long maxEndTime = part.getMaxEndTime();
+        // Empty parts have no time range
+        return minStartTime <= maxEndTime && minStartTime <= to && maxEndTime >= from;
+    }
+
+    /** @return false if the visitor stopped the scan */
+    private boolean scanPart(int p, long from, long to, long endTo, RowVisitor visitor) {
+        boolean[] stopped = {false};
+        int[] map = fieldMaps[p];
+        MappedRow mapped = map == null ? null : new MappedRow(map);
+        parts[p].scan(
+                from,
+                to,
+                endTo,
+                row -> {
+                    if (mapped != null) {
+                        mapped.row = row;
+                        row = mapped;
+                    }
+                    if (!visitor.visit(row)) {
+                        stopped[0] = true;
+                        return false;
+                    }
+                    return true;
+                });
+        return !stopped[0];
+    }
+
+    /**
+     * Merges the events of the parts within [from, to] by start time, in windows of about {@link
+     * #MERGE_WINDOW} events. Rows of parts scanned earlier come first among rows with the same
+     * start time.
+     *
+     * @return false if the visitor stopped the scan
+     */
+    private boolean merge(
+            List<Integer> overlapping, long from, long to, long endTo, RowVisitor visitor) {
+        long estimate = 0;
+        long last = from;
+        for (int p : overlapping) {
+            estimate += parts[p].estimateCount(from, to);
+            // No part has events starting after its last end time
+            last = Math.max(last, Math.min(to, parts[p].getMaxEndTime()));
+        }
+        long span = last - from + 1;
+        long windows = Math.max(1, Math.min(estimate / MERGE_WINDOW, span));
+        long width = span / windows + (span % windows == 0 ? 0 : 1);
+        for (long start = from; ; start += width) {
+            long end = last - start < width ? last : start + width - 1;
+            List<BufferedRow> rows = new ArrayList<>();
+            for (int p : overlapping) {
+                int[] map = fieldMaps[p];
+                parts[p].scan(
+                        start,
+                        end,
+                        endTo,
+                        row -> {
+                            rows.add(new BufferedRow(row, map, fields.size()));
+                            return true;
+                        });
+            }
+            rows.sort(Comparator.comparingLong(BufferedRow::getStartTime));
+            for (BufferedRow row : rows) {
+                if (!visitor.visit(row)) {
+                    return false;
+                }
+            }
+            if (end == last) {
+                return true;
+            }
+        }
+    }
+
+    // A copy of a row, which outlives the scan of its part
+    private static final class BufferedRow implements EventRow {
+        private final long startTime;
+        private final long endTime;
+        private final Object[] values;
+        private final double[] numbers;
+
+        BufferedRow(EventRow row, int[] map, int fields) {
+            this.startTime = row.getStartTime();
+            this.endTime = row.getEndTime();
+            this.values = new Object[fields];
+            this.numbers = new double[fields];
+            for (int field = 0; field < fields; field++) {
+                int f = map == null ? field : map[field];
+                values[field] = f < 0 ? null : row.getValue(f);
+                numbers[field] = f < 0 ? Double.NaN : row.getNumber(f);
+            }
+        }
+
+        @Override
+        public long getStartTime() {
+            return startTime;
+        }
+
+        @Override
+        public long getEndTime() {
+            return endTime;
+        }
+
+        @Override
+        public Object getValue(int field) {
+            return values[field];
+        }
+
+        @Override
+        public double getNumber(int field) {
+            return numbers[field];
+        }
+    }
+
+    private static final class MappedRow implements EventRow {
+        private final int[] map;
+        EventRow row;
+
+        MappedRow(int[] map) {
+            this.map = map;
+        }
+
+        @Override
+        public long getStartTime() {
+            return row.getStartTime();
+        }
+
+        @Override
+        public long getEndTime() {
+            return row.getEndTime();
+        }
+
+        @Override
+        public Object getValue(int field) {
+            int f = map[field];
+            return f < 0 ? null : row.getValue(f);
+        }
+
+        @Override
+        public double getNumber(int field) {
+            int f = map[field];
+            return f < 0 ? Double.NaN : row.getNumber(f);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Several loaded recording files selected together as one recording. Rollups are merged from the
+ * rollups of the files once every file has built its rollup of a field.
+ */
+class MergedRecording extends LoadedRecording {
+
+    private final List<String> paths;
+    private final List<LoadedRecording> parts;
+    private final Map<String, Optional<Rollup>> rollups = new ConcurrentHashMap<>();
+
+    /**
+     * @param paths the absolute paths of the files
+     * @param parts the loaded files, taking over one reference to each
+     */
+    MergedRecording(List<String> paths, List<LoadedRecording> parts) {
+        super(
+                new MergedEventStore(parts.stream().map(PartStore::new).toList()),
+                new MemberDictionary(),
+                Map.of());
+        this.paths = List.copyOf(paths);
+        this.parts = List.copyOf(parts);
+    }
+
+    /** @return whether the file at the absolute path is one of the merged files */
+    boolean contains(String path) {
+        return paths.contains(path);
+    }
+
+    @Override
+    public Optional<Rollup> getRollup(String eventType, String field) {
+        String key = eventType + '\0' + field;
+        Optional<Rollup> merged = rollups.get(key);
+        if (merged == null) {
+            if (!hasRollup(eventType, field)) {
+                return Optional.empty();
+            }
+            merged = merge(eventType, field);
+            Optional<Rollup> raced = rollups.putIfAbsent(key, merged);
+            if (raced != null) {
+                merged = raced;
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    boolean hasRollup(String eventType, String field) {
+        for (LoadedRecording part : parts) {
+            if (!part.hasRollup(eventType, field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void buildRollup(String eventType, String field, Executor executor) {
+        for (LoadedRecording part : parts) {
+            part.buildRollup(eventType, field, executor);
+        }
+    }
+
+    private Optional<Rollup> merge(String eventType, String field) {
+        List<Rollup> partRollups = new ArrayList<>();
+        for (LoadedRecording part : parts) {
+            Optional<Rollup> rollup = part.getRollup(eventType, field);
+            if (rollup.isPresent()) {
+                partRollups.add(rollup.get());
+                continue;
+            }
+            EventTable table = part.getStore().get(eventType);
+            if (table != null && table.size() > 0) {
+                // Without rollups of every file the events have to be scanned anyway
+                return Optional.empty();
+            }
+        }
+        return partRollups.isEmpty() ? Optional.empty() : Optional.of(Rollup.merge(partRollups));
+    }
+
+    // The events of a merged file, releasing the file's reference when closed
+    private record PartStore(LoadedRecording recording) implements EventStore {
+        @Override
+        public EventTable get(String eventType) {
+            return recording.getStore().get(eventType);
+        }
+
+        @Override
+        public Collection<String> getEventTypes() {
+            return recording.getStore().getEventTypes();
+        }
+
+        @Override
+        public List<String> getChunkEventTypes() {
+            return recording.getStore().getChunkEventTypes();
+        }
+
+        @Override
+        public long getMinStartTime() {
+            return recording.getStore().getMinStartTime();
+        }
+
+        @Override
+        public long getMaxEndTime() {
+            return recording.getStore().getMaxEndTime();
+        }
+
+        @Override
+        public void close() {
+            recording.release();
+        }
+    }
+}
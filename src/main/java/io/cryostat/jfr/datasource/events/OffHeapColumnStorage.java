@@ -0,0 +1,64 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Keeps columns in native memory allocated from a shared arena, so that they neither count
+ * towards the heap nor need to be traced by the garbage collector. The memory is freed all at once
+ * when the storage is closed, after which any read fails with an {@link IllegalStateException}
+ * rather than accessing freed memory.
+ */
+class OffHeapColumnStorage implements ColumnStorage {
+
+    private final Arena arena = Arena.ofShared();
+    private long size;
+
+    @Override
+    public Column store(long[] words, int length) {
+        MemorySegment segment =
+                arena.allocate((long) length * Long.BYTES, ValueLayout.JAVA_LONG.byteAlignment());
+        MemorySegment.copy(words, 0, segment, ValueLayout.JAVA_LONG, 0, length);
+        size += segment.byteSize();
+        return new Column() {
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public long[] words(long[] scratch) {
+                long[] words =
+                        scratch != null && scratch.length >= length ? scratch : new long[length];
+                MemorySegment.copy(segment, ValueLayout.JAVA_LONG, 0, words, 0, length);
+                return words;
+            }
+        };
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
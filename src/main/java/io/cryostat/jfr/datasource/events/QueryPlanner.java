@@ -0,0 +1,341 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import io.cryostat.jfr.datasource.server.Target;
+import io.cryostat.jfr.datasource.utils.CancellationToken;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Plans the evaluation of query targets. A target is parsed into a {@link LogicalPlan}, stating
+ * what it asks for, and evaluated by whichever of the registered {@link Operator}s that can
+ * evaluate it has the lowest estimated cost on the loaded recording. Results that were computed
+ * before for the same recording are served from its result cache. Plans of one query that an
+ * operator can evaluate together, e.g. in one pass over the events they share, are evaluated as
+ * a batch.
+ */
+final class QueryPlanner {
+
+    // Larger results are not worth the memory they would hold in the cache
+    static final int MAX_CACHED_POINTS = 10_000;
+
+    enum Kind {
+        /** A property of the recording as a whole, e.g. its duration */
+        RECORDING,
+        /** One datapoint per event */
+        SERIES,
+        /** One aggregated datapoint per time bucket */
+        AGGREGATE,
+        /** Rows of event fields */
+        TABLE,
+        /** Not a target type that is supported */
+        NONE
+    }
+
+    /**
+     * What a target asks for: the event type and fields of the target, filtered and grouped by
+     * its options, optionally aggregated per time bucket, within [from, to] and limited to {@code
+     * limit} rows.
+     */
+    record LogicalPlan(Kind kind, Target target, long from, long to, long bucket, int limit) {
+
+        static LogicalPlan of(Target target, long from, long to, long intervalMs, int maxRows) {
+            String identifier = target.getTargetIdentifier();
+            if (target.getType().equals("table")) {
+                if (identifier.equals(Target.durationTargetIdentifier)
+                        || identifier.equals(Target.startTimeTargetIdentifier)) {
+                    return new LogicalPlan(Kind.RECORDING, target, from, to, 0, 1);
+                }
+                int limit = Math.min(target.getLimit().orElse(maxRows), maxRows);
+                return new LogicalPlan(Kind.TABLE, target, from, to, 0, limit);
+            }
+            if (target.getType().equals("timeserie")) {
+                if (target.getAggregate().isPresent()) {
+                    long bucket = intervalMs > 0 ? intervalMs : Rollup.RESOLUTIONS[0];
+                    return new LogicalPlan(
+                            Kind.AGGREGATE, target, from, to, bucket, Integer.MAX_VALUE);
+                }
+                return new LogicalPlan(Kind.SERIES, target, from, to, 0, Integer.MAX_VALUE);
+            }
+            return new LogicalPlan(Kind.NONE, target, from, to, 0, 0);
+        }
+
+        String eventType() {
+            return target.getEventType();
+        }
+
+        List<String> fields() {
+            return target.getFields();
+        }
+
+        /** Option fields by their values, where {@code *} groups by every value */
+        Map<String, Set<String>> groupBy() {
+            return target.getTargetOptions();
+        }
+
+        Optional<Target.Aggregate> aggregate() {
+            return target.getAggregate();
+        }
+
+        /** Whether the rows are ordered by a field rather than taken in event order */
+        boolean isOrdered() {
+            return target.getOrderBy().isPresent();
+        }
+
+        /** @return the rows to select before skipping the offset */
+        long window() {
+            return (long) target.getOffset() + limit;
+        }
+
+        /** Identifies the result of the plan on a recording */
+        String key() {
+            return String.join(
+                    "|",
+                    kind.name(),
+                    target.getTargetIdentifier(),
+                    String.valueOf(target.getTargetOptions()),
+                    String.valueOf(target.getAggregate().orElse(null)),
+                    String.valueOf(target.getOrderBy().orElse(null)),
+                    String.valueOf(target.isDescending()),
+                    String.valueOf(target.getOffset()),
+                    String.valueOf(limit),
+                    String.valueOf(bucket),
+                    from + "-" + to);
+        }
+    }
+
+    /** A way of evaluating logical plans. */
+    interface Operator {
+
+        String name();
+
+        /**
+         * @return the estimated number of events and rollup buckets the operator visits to
+         *     evaluate the plan, or -1 if it cannot evaluate the plan
+         */
+        long cost(LoadedRecording current, LogicalPlan plan);
+
+        List<JsonObject> execute(
+                LoadedRecording current, LogicalPlan plan, CancellationToken cancellation);
+
+        /**
+         * @return a key of the plans the operator can evaluate together with {@link #executeAll},
+         *     or null if the plan is evaluated on its own. Plans are only batched within the same
+         *     range.
+         */
+        default Object batchKey(LogicalPlan plan) {
+            return null;
+        }
+
+        /**
+         * Evaluates plans with equal batch keys together. A batch is expected to cost no more than
+         * its most expensive plan.
+         *
+         * @return the results of the plans, in order
+         */
+        default List<List<JsonObject>> executeAll(
+                LoadedRecording current, List<LogicalPlan> plans, CancellationToken cancellation) {
+            List<List<JsonObject>> results = new ArrayList<>(plans.size());
+            for (LogicalPlan plan : plans) {
+                results.add(execute(current, plan, cancellation));
+            }
+            return results;
+        }
+    }
+
+    /** A logical plan with the operator chosen to evaluate it. */
+    record PhysicalPlan(LogicalPlan logical, Operator operator, long cost) {
+
+        List<JsonObject> execute(LoadedRecording current, CancellationToken cancellation) {
+            List<JsonObject> result = operator.execute(current, logical, cancellation);
+            cache(current, result);
+            return result;
+        }
+
+        private void cache(LoadedRecording current, List<JsonObject> result) {
+            if (!(operator instanceof CachedResult) && isCacheable(result)) {
+                current.getResults().put(logical.key(), result);
+            }
+        }
+
+        // Identifies the batch of the plan, if its operator batches it
+        private Object batch() {
+            Object key = operator.batchKey(logical);
+            return key == null ? null : List.of(operator, key, logical.from(), logical.to());
+        }
+
+        @Override
+        public String toString() {
+            return operator.name() + "(" + logical.key() + ") cost " + cost;
+        }
+    }
+
+    private static final Operator EMPTY =
+            new Operator() {
+                @Override
+                public String name() {
+                    return "empty";
+                }
+
+                @Override
+                public long cost(LoadedRecording current, LogicalPlan plan) {
+                    return 0;
+                }
+
+                @Override
+                public List<JsonObject> execute(
+                        LoadedRecording current,
+                        LogicalPlan plan,
+                        CancellationToken cancellation) {
+                    return List.of();
+                }
+            };
+
+    private final List<Operator> operators;
+    private final int maxRows;
+
+    /**
+     * @param operators the operators to choose from, in order of preference among equal costs
+     * @param maxRows the most rows of any table
+     */
+    QueryPlanner(List<Operator> operators, int maxRows) {
+        this.operators = List.copyOf(operators);
+        this.maxRows = maxRows;
+    }
+
+    PhysicalPlan plan(LoadedRecording current, Target target, long from, long to, long intervalMs) {
+        LogicalPlan logical = LogicalPlan.of(target, from, to, intervalMs, maxRows);
+        if (logical.kind() == Kind.NONE) {
+            return new PhysicalPlan(logical, EMPTY, 0);
+        }
+        List<JsonObject> cached = current.getResults().get(logical.key());
+        if (cached != null) {
+            return new PhysicalPlan(logical, new CachedResult(cached), 0);
+        }
+        Operator chosen = EMPTY;
+        long lowest = Long.MAX_VALUE;
+        for (Operator operator : operators) {
+            long cost = operator.cost(current, logical);
+            if (cost >= 0 && cost < lowest) {
+                chosen = operator;
+                lowest = cost;
+            }
+        }
+        return new PhysicalPlan(logical, chosen, chosen == EMPTY ? 0 : lowest);
+    }
+
+    // Holds on to the result, so that it stays available if it is evicted after planning
+    private record CachedResult(List<JsonObject> result) implements Operator {
+        @Override
+        public String name() {
+            return "cached";
+        }
+
+        @Override
+        public long cost(LoadedRecording current, LogicalPlan plan) {
+            return 0;
+        }
+
+        @Override
+        public List<JsonObject> execute(
+                LoadedRecording current, LogicalPlan plan, CancellationToken cancellation) {
+            return result;
+        }
+    }
+
+    /** @return the cost of the plans, counting every batch of plans once */
+    long cost(List<PhysicalPlan> plans) {
+        long cost = 0;
+        Map<Object, Long> batches = new HashMap<>();
+        for (PhysicalPlan plan : plans) {
+            Object batch = plan.batch();
+            if (batch == null) {
+                cost += plan.cost();
+            } else {
+                batches.merge(batch, plan.cost(), Math::max);
+            }
+        }
+        for (long batchCost : batches.values()) {
+            cost += batchCost;
+        }
+        return cost;
+    }
+
+    /**
+     * Evaluates the plans of a query, evaluating the plans of each batch together.
+     *
+     * @return the results of the plans, in order
+     */
+    List<JsonObject> execute(
+            LoadedRecording current, List<PhysicalPlan> plans, CancellationToken cancellation) {
+        List<List<JsonObject>> results = new ArrayList<>(plans.size());
+        Map<Object, List<Integer>> batches = new LinkedHashMap<>();
+        for (int i = 0; i < plans.size(); i++) {
+            Object batch = plans.get(i).batch();
+            results.add(null);
+            if (batch == null) {
+                results.set(i, plans.get(i).execute(current, cancellation));
+            } else {
+                batches.computeIfAbsent(batch, k -> new ArrayList<>()).add(i);
+            }
+        }
+        for (List<Integer> batch : batches.values()) {
+            PhysicalPlan first = plans.get(batch.get(0));
+            if (batch.size() == 1) {
+                results.set(batch.get(0), first.execute(current, cancellation));
+                continue;
+            }
+            List<LogicalPlan> logical = new ArrayList<>(batch.size());
+            for (int i : batch) {
+                logical.add(plans.get(i).logical());
+            }
+            List<List<JsonObject>> batchResults =
+                    first.operator().executeAll(current, logical, cancellation);
+            for (int j = 0; j < batch.size(); j++) {
+                PhysicalPlan plan = plans.get(batch.get(j));
+                plan.cache(current, batchResults.get(j));
+                results.set(batch.get(j), batchResults.get(j));
+            }
+        }
+        List<JsonObject> response = new ArrayList<>();
+        for (List<JsonObject> result : results) {
+            response.addAll(result);
+        }
+        return response;
+    }
+
+    private static boolean isCacheable(List<JsonObject> result) {
+        long points = 0;
+        for (JsonObject obj : result) {
+            JsonArray values =
+                    obj.containsKey("datapoints")
+                            ? obj.getJsonArray("datapoints")
+                            : obj.getJsonArray("rows");
+            points += values == null ? 1 : values.size();
+        }
+        return points <= MAX_CACHED_POINTS;
+    }
+}
@@ -17,89 +17,235 @@ package io.cryostat.jfr.datasource.events;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.function.Consumer;
-
-import org.openjdk.jmc.common.item.IAccessorKey;
-import org.openjdk.jmc.common.item.IItem;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import org.openjdk.jmc.common.IDisplayable;
+import org.openjdk.jmc.common.IMCStackTrace;
 import org.openjdk.jmc.common.item.IItemCollection;
 import org.openjdk.jmc.common.item.IItemIterable;
-import org.openjdk.jmc.common.item.IMemberAccessor;
-import org.openjdk.jmc.common.item.IType;
 import org.openjdk.jmc.common.item.ItemFilters;
 import org.openjdk.jmc.common.unit.IQuantity;
-import org.openjdk.jmc.common.unit.IRange;
 import org.openjdk.jmc.common.unit.IUnit;
-import org.openjdk.jmc.common.unit.QuantityConversionException;
-import org.openjdk.jmc.common.unit.QuantityRange;
-import org.openjdk.jmc.common.unit.UnitLookup;
 import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
 import org.openjdk.jmc.flightrecorder.JfrAttributes;
 import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
 
+import io.cryostat.jfr.datasource.events.QueryPlanner.Kind;
+import io.cryostat.jfr.datasource.events.QueryPlanner.LogicalPlan;
+import io.cryostat.jfr.datasource.events.QueryPlanner.Operator;
+import io.cryostat.jfr.datasource.events.QueryPlanner.PhysicalPlan;
 import io.cryostat.jfr.datasource.json.JsonUtils;
+import io.cryostat.jfr.datasource.server.AnnotationQuery;
+import io.cryostat.jfr.datasource.server.FlameGraphQuery;
 import io.cryostat.jfr.datasource.server.Query;
 import io.cryostat.jfr.datasource.server.Search;
 import io.cryostat.jfr.datasource.server.Target;
+import io.cryostat.jfr.datasource.utils.CancellationToken;
+import io.cryostat.jfr.datasource.utils.InvalidQueryException;
+import io.cryostat.jfr.datasource.utils.JfrChunks;
+import io.cryostat.jfr.datasource.utils.JfrChunks.Chunk;
+import io.cryostat.jfr.datasource.utils.LruCache;
+import io.cryostat.jfr.datasource.utils.QueryCancelledException;
+import io.cryostat.jfr.datasource.utils.TopN;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
 @ApplicationScoped
 public class RecordingService {
 
+    /** How loaded events are kept in memory */
+    public enum StorageMode {
+        /** The parsed JMC item collection, indexed by start time */
+        ITEMS,
+        /** A compressed column-oriented copy, discarding the parsed items */
+        COMPACT,
+        /** As {@link #COMPACT}, but kept in native memory outside of the heap */
+        OFF_HEAP
+    }
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.table.max-rows", defaultValue = "100000")
+    int tableMaxRows;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.rollups.enabled", defaultValue = "false")
+    boolean rollupsEnabled;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.storage.mode", defaultValue = "items")
+    StorageMode storageMode;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.storage.max-recordings", defaultValue = "1")
+    int maxRecordings;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.load.split-chunks", defaultValue = "true")
+    boolean splitChunks;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.load.lazy", defaultValue = "false")
+    boolean lazy;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.load.lazy.max-types", defaultValue = "16")
+    int lazyMaxTypes;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.load.include")
+    Optional<List<String>> loadInclude;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.load.exclude")
+    Optional<List<String>> loadExclude;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.annotations.max", defaultValue = "1000")
+    int annotationsMax;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.annotations.rules-file")
+    Optional<java.nio.file.Path> annotationRulesFile;
+
     @Inject Logger logger;
 
-    private IItemCollection events;
+    // The selected recording, holding a reference to it
+    private final AtomicReference<LoadedRecording> recording = new AtomicReference<>();
+    // Recordings kept loaded by file, each holding a reference
+    private LruCache<ResidentKey, LoadedRecording> resident;
+    private volatile List<AnnotationRule> annotationRules;
+    private EventTypeSelection defaultTypes = EventTypeSelection.ALL;
+    private QueryPlanner planner;
+    // Builds rollups one at a time, off the request path
+    private ExecutorService rollupBuilder;
+
+    void onStart(@Observes StartupEvent evt) {
+        this.planner =
+                new QueryPlanner(
+                        List.of(new RecordingInfo(), new RollupLookup(), new RangeScan()),
+                        tableMaxRows);
+        this.defaultTypes =
+                EventTypeSelection.of(
+                        loadInclude.orElse(List.of()), loadExclude.orElse(List.of()));
+        if (!defaultTypes.isAll()) {
+            logger.infov(
+                    "Loading event types {0} except {1}",
+                    defaultTypes.include().isEmpty() ? "*" : defaultTypes.include(),
+                    defaultTypes.exclude());
+        }
+        this.resident =
+                new LruCache<>(
+                        Math.max(maxRecordings, 1),
+                        (key, evicted) -> {
+                            logger.infov("Evicting loaded events of {0}", key.path());
+                            evicted.release();
+                        });
+        this.rollupBuilder =
+                Executors.newSingleThreadExecutor(
+                        Thread.ofPlatform().name("jfr-datasource-rollups-", 0).daemon().factory());
+    }
+
+    void onStop(@Observes ShutdownEvent evt) {
+        rollupBuilder.shutdownNow();
+        unloadAll();
+    }
+
+    /**
+     * Builds the rollup of a field in the background once an aggregate target has scanned it, so
+     * that later targets on the field can use it. The build visits every event of the type, so it
+     * is not done within the request, where it would not be bounded by the query deadline nor
+     * counted by admission control.
+     */
+    private void buildRollupLater(LoadedRecording current, String eventType, String field) {
+        current.buildRollup(
+                eventType,
+                field,
+                task ->
+                        rollupBuilder.execute(
+                                () -> {
+                                    try {
+                                        task.run();
+                                    } catch (RuntimeException e) {
+                                        logger.warnv(
+                                                e,
+                                                "Failed to build rollup of {0}.{1}",
+                                                eventType,
+                                                field);
+                                    }
+                                }));
+    }
 
     public boolean eventsLoaded() {
-        return events != null;
+        return recording.get() != null;
     }
 
-    public String search(Search search) throws JsonMappingException {
-        if (!eventsLoaded()) {
+    /**
+     * Takes a reference to the selected recording, which the caller must release.
+     *
+     * @return the selected recording, or null if there is none
+     */
+    LoadedRecording acquire() {
+        while (true) {
+            LoadedRecording current = recording.get();
+            // A recording can only be closed after it has been replaced, so retry with the new one
+            if (current == null || current.retain()) {
+                return current;
+            }
+        }
+    }
+
+    public String search(Search search, CancellationToken cancellation)
+            throws JsonMappingException {
+        final LoadedRecording current = acquire();
+        if (current == null) {
             return JsonUtils.EMPTY_ARRAY;
         }
-        if (search.getTarget().isPresent()) {
-            String target = search.getTarget().get();
-            return target.equals("*") ? getEventTypes() : getTargetValues(target);
-        } else {
-            throw new JsonMappingException(null, "missing target field in json body");
+        try {
+            if (search.getTarget().isPresent()) {
+                String target = search.getTarget().get();
+                return target.equals("*")
+                        ? getEventTypes(current)
+                        : getTargetValues(current, target, cancellation);
+            } else {
+                throw new JsonMappingException(null, "missing target field in json body");
+            }
+        } finally {
+            current.release();
         }
     }
 
-    public String getEventTypes() throws JsonMappingException {
+    public String getEventTypes(LoadedRecording current) throws JsonMappingException {
         JsonArray json = new JsonArray();
-        Iterator<IItemIterable> i = events.iterator();
-        while (i.hasNext()) {
+        EventStore store = current.getStore();
+        for (String eventType : store.getChunkEventTypes()) {
             try {
-                IItemIterable item = i.next();
-                if (item.hasItems()) {
-                    IType<IItem> type = item.getType();
-                    for (IAccessorKey<?> attribute : type.getAccessorKeys().keySet()) {
-                        if (attribute
-                                        .getIdentifier()
-                                        .contains(JfrAttributes.EVENT_TYPE.getIdentifier())
-                                || attribute
-                                        .getIdentifier()
+                EventTable table = store.get(eventType);
+                if (table != null) {
+                    for (EventField field : table.getFields()) {
+                        if (field.identifier().contains(JfrAttributes.EVENT_TYPE.getIdentifier())
+                                || field.identifier()
                                         .contains(JfrAttributes.START_TIME.getIdentifier())
-                                || attribute
-                                        .getIdentifier()
+                                || field.identifier()
                                         .contains(JfrAttributes.END_TIME.getIdentifier())) {
                             continue;
                         }
-                        String name = type.getIdentifier() + "." + attribute.getIdentifier();
+                        String name = eventType + "." + field.identifier();
                         json.add(name);
                     }
                 }
@@ -110,36 +256,30 @@ public class RecordingService {
         return json.toString();
     }
 
-    public String getTargetValues(String target) {
+    public String getTargetValues(
+            LoadedRecording current, String target, CancellationToken cancellation) {
         if (target.isBlank()) {
             return JsonUtils.EMPTY_ARRAY;
         }
 
         JsonArray json = new JsonArray();
-        IItemCollection filteredEvents = filterEvents(target);
+        String eventType = target.substring(0, target.lastIndexOf("."));
         String targetField = target.substring(target.lastIndexOf(".") + 1);
 
-        // Should be only 0 or 1 iterator as filtered by name
-        for (IItemIterable itemIterable : filteredEvents) {
-            IType<IItem> type = itemIterable.getType();
-            IMemberAccessor<?, IItem> accessor = null;
-            for (IAccessorKey<?> attribute : type.getAccessorKeys().keySet()) {
-                if (targetField.equals(attribute.getIdentifier())) {
-                    accessor = type.getAccessor(attribute);
-                    break;
-                }
-            }
-
-            if (accessor != null) {
-                for (IItem item : itemIterable) {
-                    json.add(accessor.getMember(item).toString());
-                }
-            }
+        EventTable table = current.getStore().get(eventType);
+        int field = table == null ? -1 : table.indexOf(targetField);
+        if (field >= 0) {
+            table.scanAll(
+                    cancellation,
+                    row -> {
+                        json.add(render(current, row.getValue(field)));
+                        return true;
+                    });
         }
         return json.toString();
     }
 
-    public JsonObject getDuration() {
+    public JsonObject getDuration(LoadedRecording current) {
         final JsonObject targetObject = new JsonObject();
 
         JsonArray columns = new JsonArray();
@@ -153,32 +293,9 @@ public class RecordingService {
         targetObject.put("rows", rows);
         targetObject.put("columns", columns);
 
-        long startTime = Long.MAX_VALUE;
-        long stopTime = 0;
-
-        for (IItemIterable itemIterable : events) {
-            IType<IItem> type = itemIterable.getType();
-            IMemberAccessor<IQuantity, IItem> startTimeAccessor =
-                    JfrAttributes.START_TIME.getAccessor(type);
-            IMemberAccessor<IQuantity, IItem> endTimeAccessor =
-                    JfrAttributes.END_TIME.getAccessor(type);
-            for (IItem item : itemIterable) {
-                try {
-                    long eventStartTime =
-                            startTimeAccessor.getMember(item).longValueIn(UnitLookup.EPOCH_MS);
-
-                    startTime = Math.min(eventStartTime, startTime);
-                    stopTime = Math.max(eventStartTime, stopTime);
-                    if (endTimeAccessor != null) {
-                        long eventEndTime =
-                                endTimeAccessor.getMember(item).longValueIn(UnitLookup.EPOCH_MS);
-                        stopTime = Math.max(eventEndTime, stopTime);
-                    }
-                } catch (QuantityConversionException e) {
-                    // Do nothing
-                }
-            }
-        }
+        EventStore store = current.getStore();
+        long startTime = store.getMinStartTime();
+        long stopTime = Math.max(store.getMaxEndTime(), 0);
 
         JsonArray row = new JsonArray();
         logger.infov("Start time: {0}", startTime);
@@ -190,7 +307,7 @@ public class RecordingService {
         return targetObject;
     }
 
-    public JsonObject getStartTime() {
+    public JsonObject getStartTime(LoadedRecording current) {
         final JsonObject targetObject = new JsonObject();
 
         JsonArray columns = new JsonArray();
@@ -204,23 +321,7 @@ public class RecordingService {
         targetObject.put("rows", rows);
         targetObject.put("columns", columns);
 
-        long startTime = Long.MAX_VALUE;
-
-        for (IItemIterable itemIterable : events) {
-            IType<IItem> type = itemIterable.getType();
-            IMemberAccessor<IQuantity, IItem> startTimeAccessor =
-                    JfrAttributes.START_TIME.getAccessor(type);
-            for (IItem item : itemIterable) {
-                try {
-                    long markTime =
-                            startTimeAccessor.getMember(item).longValueIn(UnitLookup.EPOCH_MS);
-
-                    startTime = Math.min(markTime, startTime);
-                } catch (QuantityConversionException e) {
-                    // Do nothing
-                }
-            }
-        }
+        long startTime = current.getStore().getMinStartTime();
 
         JsonArray row = new JsonArray();
         row.add(Long.valueOf(startTime));
@@ -229,33 +330,93 @@ public class RecordingService {
         return targetObject;
     }
 
-    public String query(Query query) {
+    /**
+     * Estimates the cost of a query as the number of events its targets visit, as planned.
+     * Aggregate targets that are answered from rollups count the rollup buckets and the events of
+     * the partial buckets at either end instead, and cached results cost nothing. Targets that
+     * share a scan count its events once.
+     */
+    public long estimateCost(Query query) throws InvalidQueryException {
+        final LoadedRecording current = acquire();
+        if (current == null) {
+            return 0;
+        }
+        try {
+            return planner.cost(plan(current, query, CancellationToken.NONE));
+        } finally {
+            current.release();
+        }
+    }
+
+    /** Estimates the cost of a flame graph query as the number of events it visits. */
+    public long estimateCost(FlameGraphQuery query) {
+        final Optional<String> eventType = query.getTarget();
+        final LoadedRecording current = eventType.isPresent() ? acquire() : null;
+        if (current == null) {
+            return 0;
+        }
+        try {
+            final EventTable table = current.getStore().get(eventType.get());
+            return table == null ? 0 : table.estimateCount(query.getFrom(), query.getTo());
+        } finally {
+            current.release();
+        }
+    }
+
+    public String query(Query query, CancellationToken cancellation) {
+        final LoadedRecording current = acquire();
+        if (current == null) {
+            return JsonUtils.EMPTY_ARRAY;
+        }
         try {
-            if (events == null) {
-                return JsonUtils.EMPTY_ARRAY;
-            }
             JsonArray responseJson = new JsonArray();
-            query.applyTargets(
-                    (t) -> {
-                        String type = t.getType();
-                        logger.info(type);
-                        if (type.equals("timeserie")) {
-                            for (JsonObject obj :
-                                    this.getTimeseries(t, query.getFrom(), query.getTo())) {
-                                responseJson.add(obj);
-                            }
-                        } else if (type.equals("table")) {
-                            responseJson.add(this.getTable(t, query.getFrom(), query.getTo()));
-                        }
-                    });
+            List<PhysicalPlan> plans = plan(current, query, cancellation);
+            for (JsonObject obj : planner.execute(current, plans, cancellation)) {
+                responseJson.add(obj);
+            }
             return responseJson.toString();
+        } catch (QueryCancelledException e) {
+            throw e;
         } catch (Exception e) {
             logger.error(e);
             return JsonUtils.EMPTY_ARRAY;
+        } finally {
+            current.release();
+        }
+    }
+
+    private List<PhysicalPlan> plan(
+            LoadedRecording current, Query query, CancellationToken cancellation)
+            throws InvalidQueryException {
+        final long from = query.getFrom();
+        final long to = query.getTo();
+        final long intervalMs = query.getIntervalMs();
+        final List<PhysicalPlan> plans = new ArrayList<>();
+        query.applyTargets(
+                t -> {
+                    cancellation.check();
+                    PhysicalPlan plan = planner.plan(current, t, from, to, intervalMs);
+                    logger.debugv("Planned {0}", plan);
+                    plans.add(plan);
+                });
+        return plans;
+    }
+
+    /**
+     * The evaluation of a target in a pass over the events of its type, which may be shared with
+     * other targets on the type.
+     *
+     * @param visitor visits the events within the range, or null if the target needs none
+     * @param result the result of the target, once the events have been visited
+     */
+    private record TargetScan(EventTable.RowVisitor visitor, Supplier<List<JsonObject>> result) {
+        static TargetScan done(List<JsonObject> result) {
+            return new TargetScan(null, () -> result);
         }
     }
 
-    public List<JsonObject> getTimeseries(Target target, long from, long to) {
+    /** Evaluates a timeseries target without an aggregate, one datapoint per event. */
+    private TargetScan getTimeseries(LoadedRecording current, Target target, EventTable table) {
         final List<JsonObject> targetObjects = new ArrayList<>();
 
         final String targetIdentifier = target.getTargetIdentifier(); // eventName.field format
@@ -286,217 +447,476 @@ public class RecordingService {
                     });
         }
 
-        applyFilterEvents(
-                targetIdentifier,
-                from,
-                to,
-                (filteredEvents) -> {
-                    // Iterators for event types that match filters
-                    // Note: There should be only 0 or 1 iterator as filter is defined as event
-                    // name.
-                    for (IItemIterable itemIterable : filteredEvents) {
-                        IType<IItem> type = itemIterable.getType();
-                        final Map<String, IMemberAccessor<?, IItem>> aMap = new HashMap<>();
-                        for (IAccessorKey<?> attribute : type.getAccessorKeys().keySet()) {
-                            if (eventField.equals(attribute.getIdentifier())) {
-                                aMap.put(eventField, type.getAccessor(attribute));
-                            } else if (targetOptions.get(attribute.getIdentifier()) != null) {
-                                aMap.put(attribute.getIdentifier(), type.getAccessor(attribute));
-                            }
-                        }
+        final int valueField = table == null ? -1 : table.indexOf(eventField);
+        if (valueField < 0) {
+            return TargetScan.done(targetObjects);
+        }
+        final boolean quantity = table.getFields().get(valueField).isQuantity();
+        // Positions of the option fields the event type has
+        final Map<String, Integer> optionFields = new HashMap<>();
+        for (String fieldName : targetOptions.keySet()) {
+            int field = table.indexOf(fieldName);
+            if (field >= 0) {
+                optionFields.put(fieldName, field);
+            }
+        }
 
-                        if (!aMap.isEmpty() && aMap.get(eventField) != null) {
-                            IMemberAccessor<?, IItem> targetAccessor = aMap.get(eventField);
-                            for (IItem item : itemIterable) { // Iterate on each event
-                                long startTime = 0;
-                                JsonArray datapoint = new JsonArray(); // [y, x]
-
-                                Object value = targetAccessor.getMember(item);
-                                if (value instanceof IQuantity) {
-                                    IQuantity quanity = (IQuantity) value;
-                                    IUnit displayUnit = displayUnit(quanity.getUnit());
-                                    datapoint.add(quanity.doubleValueIn(displayUnit));
-                                } else {
-                                    // Note: content can be JSON, which requires transformation in
-                                    // Grafana.
-                                    datapoint.add(value.toString());
-                                }
+        return new TargetScan(
+                row -> {
+                    JsonArray datapoint = new JsonArray(); // [y, x]
 
-                                try {
-                                    IMemberAccessor<IQuantity, IItem> startTimeAccessor =
-                                            JfrAttributes.START_TIME.getAccessor(type);
-                                    startTime =
-                                            startTimeAccessor
-                                                    .getMember(item)
-                                                    .longValueIn(UnitLookup.EPOCH_MS);
-                                } catch (QuantityConversionException e) {
-                                    // Do Nothing
-                                }
-                                datapoint.add(startTime);
-
-                                if (targetOptions.isEmpty()) {
-                                    targetObjects.get(0).getJsonArray("datapoints").add(datapoint);
-                                } else {
-                                    targetOptions.forEach(
-                                            (fieldName, valueSet) -> {
-                                                IMemberAccessor<?, IItem> accessor =
-                                                        aMap.get(fieldName);
-                                                if (accessor != null) {
-                                                    String group =
-                                                            accessor.getMember(item).toString();
-                                                    boolean found = false;
-                                                    for (JsonObject obj : targetObjects) {
-                                                        // Must match option field name (i.e.
-                                                        // category) and target name
-                                                        String paramField =
-                                                                obj.getJsonObject("meta")
-                                                                        .getString("paramField");
-                                                        if (paramField.equals(fieldName)
-                                                                && obj.getString("target")
-                                                                        .equals(group)) {
-                                                            found = true;
-                                                            obj.getJsonArray("datapoints")
-                                                                    .add(datapoint);
-                                                        }
-                                                    }
-                                                    if (toUpdateOptions.contains(fieldName)
-                                                            && !found) {
-                                                        JsonObject obj =
-                                                                createEmptyTargetJson(
-                                                                        group,
-                                                                        Optional.of(fieldName));
-                                                        obj.getJsonArray("datapoints")
-                                                                .add(datapoint);
-                                                        targetObjects.add(obj);
-                                                    }
-                                                }
-                                            });
-                                }
-                            }
+                    if (quantity) {
+                        double value = row.getNumber(valueField);
+                        datapoint.add(Double.isNaN(value) ? null : value);
+                    } else {
+                        // Note: content can be JSON, which requires transformation in Grafana.
+                        datapoint.add(render(current, row.getValue(valueField)));
+                    }
+                    datapoint.add(row.getStartTime());
+
+                    if (targetOptions.isEmpty()) {
+                        targetObjects.get(0).getJsonArray("datapoints").add(datapoint);
+                    } else {
+                        targetOptions.forEach(
+                                (fieldName, valueSet) -> {
+                                    Integer field = optionFields.get(fieldName);
+                                    if (field != null) {
+                                        String group = render(current, row.getValue(field));
+                                        boolean found = false;
+                                        for (JsonObject obj : targetObjects) {
+                                            // Must match option field name (i.e. category) and
+                                            // target name
+                                            String paramField =
+                                                    obj.getJsonObject("meta")
+                                                            .getString("paramField");
+                                            if (paramField.equals(fieldName)
+                                                    && obj.getString("target").equals(group)) {
+                                                found = true;
+                                                obj.getJsonArray("datapoints").add(datapoint);
+                                            }
+                                        }
+                                        if (toUpdateOptions.contains(fieldName) && !found) {
+                                            JsonObject obj =
+                                                    createEmptyTargetJson(
+                                                            group, Optional.of(fieldName));
+                                            obj.getJsonArray("datapoints").add(datapoint);
+                                            targetObjects.add(obj);
+                                        }
+                                    }
+                                });
+                    }
+                    return true;
+                },
+                () -> targetObjects);
+    }
+
+    /**
+     * Aggregates the target field per interval, one datapoint per non-empty interval, scanning the
+     * events within the range. Targets with options are grouped while scanning.
+     */
+    private TargetScan getAggregateTimeseries(
+            LoadedRecording current, Target target, EventTable table, long interval) {
+        final Target.Aggregate aggregate = target.getAggregate().get();
+        final String eventField = target.getFields().get(0);
+        final Map<String, Set<String>> targetOptions = target.getTargetOptions();
+
+        // Series by option field and value, in the order they are created
+        final Map<List<String>, TreeMap<Long, Rollup.Bucket>> series = new LinkedHashMap<>();
+        final int valueField = table == null ? -1 : table.indexOf(eventField);
+
+        if (targetOptions.isEmpty()) {
+            final TreeMap<Long, Rollup.Bucket> buckets = new TreeMap<>();
+            series.put(List.of(), buckets);
+            if (valueField < 0) {
+                return TargetScan.done(createAggregateTargetJson(target, series, aggregate));
+            }
+            return new TargetScan(
+                    row -> {
+                        double value = row.getNumber(valueField);
+                        if (!Double.isNaN(value)) {
+                            bucketAt(buckets, row.getStartTime(), interval).add(value);
                         }
+                        return true;
+                    },
+                    () -> createAggregateTargetJson(target, series, aggregate));
+        }
+
+        final Set<String> toUpdateOptions = new HashSet<>();
+        targetOptions.forEach(
+                (fieldName, valueSet) -> {
+                    if (valueSet.contains("*")) {
+                        toUpdateOptions.add(fieldName);
+                    } else {
+                        valueSet.forEach(
+                                val -> series.put(List.of(fieldName, val), new TreeMap<>()));
                     }
                 });
+        if (valueField < 0) {
+            return TargetScan.done(createAggregateTargetJson(target, series, aggregate));
+        }
+        final Map<String, Integer> optionFields = new HashMap<>();
+        for (String fieldName : targetOptions.keySet()) {
+            int field = table.indexOf(fieldName);
+            if (field >= 0) {
+                optionFields.put(fieldName, field);
+            }
+        }
+        return new TargetScan(
+                row -> {
+                    double value = row.getNumber(valueField);
+                    if (Double.isNaN(value)) {
+                        return true;
+                    }
+                    optionFields.forEach(
+                            (fieldName, field) -> {
+                                List<String> key =
+                                        List.of(
+                                                fieldName,
+                                                String.valueOf(
+                                                        render(current, row.getValue(field))));
+                                TreeMap<Long, Rollup.Bucket> buckets = series.get(key);
+                                if (buckets == null && toUpdateOptions.contains(fieldName)) {
+                                    buckets = new TreeMap<>();
+                                    series.put(key, buckets);
+                                }
+                                if (buckets != null) {
+                                    bucketAt(buckets, row.getStartTime(), interval).add(value);
+                                }
+                            });
+                    return true;
+                },
+                () -> createAggregateTargetJson(target, series, aggregate));
+    }
+
+    /**
+     * Aggregates the target field per interval of a target without options, from the coarsest
+     * rollup resolution that evenly divides the interval. Only the events in the partial rollup buckets
+     * at either end of the range are visited, along with those of the buckets from the first with
+     * an event ending after the range, so that the same events are selected as by a scan.
+     */
+    private List<JsonObject> getRollupTimeseries(
+            LoadedRecording current, LogicalPlan plan, CancellationToken cancellation) {
+        final Target target = plan.target();
+        final Target.Aggregate aggregate = plan.aggregate().get();
+        final long interval = plan.bucket();
+        final long resolution = Rollup.resolutionFor(interval);
+        final long[] range = rollupRange(plan, resolution);
+        final EventTable table = current.getStore().get(plan.eventType());
+        final int valueField = table.indexOf(plan.fields().get(0));
+        final Rollup rollup = current.getRollup(plan.eventType(), plan.fields().get(0)).get();
+
+        final long rollupTo = rollup.firstEndingAfter(resolution, range[0], range[1], plan.to());
+
+        final TreeMap<Long, Rollup.Bucket> buckets = new TreeMap<>();
+        final ObjLongConsumer<Double> add =
+                (value, startTime) -> bucketAt(buckets, startTime, interval).add(value);
+        rollup.forEach(
+                resolution,
+                range[0],
+                rollupTo,
+                (startTime, bucket) -> bucketAt(buckets, startTime, interval).merge(bucket));
+        collectNumbers(
+                table, valueField, plan.from(), range[0] - 1, plan.to(), cancellation, add);
+        collectNumbers(table, valueField, rollupTo, plan.to(), plan.to(), cancellation, add);
+        return createAggregateTargetJson(target, Map.of(List.of(), buckets), aggregate);
+    }
+
+    /**
+     * @return the range [from, to) of the rollup buckets of the resolution that lie entirely within
+     *     the range of the plan, or null if there are none
+     */
+    private static long[] rollupRange(LogicalPlan plan, long resolution) {
+        long alignedFrom = Math.floorDiv(plan.from() + resolution - 1, resolution) * resolution;
+        long alignedTo = Math.floorDiv(plan.to() + 1, resolution) * resolution;
+        return alignedFrom < alignedTo ? new long[] {alignedFrom, alignedTo} : null;
+    }
 
+    private List<JsonObject> createAggregateTargetJson(
+            Target target,
+            Map<List<String>, TreeMap<Long, Rollup.Bucket>> series,
+            Target.Aggregate aggregate) {
+        List<JsonObject> targetObjects = new ArrayList<>();
+        series.forEach(
+                (key, buckets) -> {
+                    JsonObject obj =
+                            key.isEmpty()
+                                    ? createEmptyTargetJson(
+                                            target.getTargetIdentifier(), Optional.empty())
+                                    : createEmptyTargetJson(key.get(1), Optional.of(key.get(0)));
+                    JsonArray datapoints = obj.getJsonArray("datapoints");
+                    buckets.forEach(
+                            (startTime, bucket) -> {
+                                Number value = aggregateValue(bucket, aggregate);
+                                if (bucket.getCount() > 0 && !Double.isNaN(value.doubleValue())) {
+                                    JsonArray datapoint = new JsonArray(); // [y, x]
+                                    datapoint.add(value);
+                                    datapoint.add(startTime);
+                                    datapoints.add(datapoint);
+                                }
+                            });
+                    targetObjects.add(obj);
+                });
         return targetObjects;
     }
 
-    public JsonObject getTable(Target target, long from, long to) {
-        final JsonObject targetObject = new JsonObject();
-        final String targetIdentifier = target.getTargetIdentifier();
+    private static Rollup.Bucket bucketAt(
+            TreeMap<Long, Rollup.Bucket> buckets, long time, long interval) {
+        return buckets.computeIfAbsent(
+                Math.floorDiv(time, interval) * interval, k -> new Rollup.Bucket());
+    }
 
-        // Special cases for duration and startTime
-        if (targetIdentifier.equals(Target.durationTargetIdentifier)) {
-            return getDuration();
-        } else if (targetIdentifier.equals(Target.startTimeTargetIdentifier)) {
-            return getStartTime();
+    private static Number aggregateValue(Rollup.Bucket bucket, Target.Aggregate aggregate) {
+        switch (aggregate) {
+            case COUNT:
+                return bucket.getCount();
+            case SUM:
+                return bucket.getSum();
+            case MIN:
+                return bucket.getMin();
+            case MAX:
+                return bucket.getMax();
+            case AVG:
+                return bucket.getAverage();
+            default:
+                return bucket.getQuantile(aggregate.getQuantile());
         }
+    }
 
-        String targetEventField = targetIdentifier.substring(targetIdentifier.lastIndexOf(".") + 1);
+    /** Passes the numeric values of the events starting within [from, to] to the consumer. */
+    private static void collectNumbers(
+            EventTable table,
+            int field,
+            long from,
+            long to,
+            long endTo,
+            CancellationToken cancellation,
+            ObjLongConsumer<Double> consumer) {
+        if (from > to) {
+            return;
+        }
+        table.scan(
+                from,
+                to,
+                endTo,
+                cancellation,
+                row -> {
+                    double value = row.getNumber(field);
+                    if (!Double.isNaN(value)) {
+                        consumer.accept(value, row.getStartTime());
+                    }
+                    return true;
+                });
+    }
+
+    private TargetScan getTable(LoadedRecording current, LogicalPlan plan, EventTable table) {
+        final JsonObject targetObject = new JsonObject();
+        final Target target = plan.target();
+
+        final List<String> targetEventFields = target.getFields();
 
         targetObject.put("type", "table");
 
         JsonArray columns = new JsonArray();
 
         JsonObject timestampCol = new JsonObject();
-        timestampCol.put("text", "Time");
+        timestampCol.put("text", Target.TIME_COLUMN);
         timestampCol.put("type", "time");
         columns.add(timestampCol);
 
-        JsonObject targetCol = new JsonObject();
-        targetCol.put("text", targetEventField);
-        targetCol.put("type", "string"); // default string
-        columns.add(targetCol);
+        for (String targetEventField : targetEventFields) {
+            JsonObject targetCol = new JsonObject();
+            targetCol.put("text", targetEventField);
+            targetCol.put("type", "string"); // default string
+            columns.add(targetCol);
+        }
 
         JsonArray rows = new JsonArray();
 
         targetObject.put("rows", rows);
         targetObject.put("columns", columns);
 
-        applyFilterEvents(
-                targetIdentifier,
-                from,
-                to,
-                (filteredEvents) -> {
-                    // Iterators for event types that match filters
-                    // Note: There should be only 0 or 1 iterator as filter is defined as event
-                    // name.
-                    for (IItemIterable itemIterable : filteredEvents) {
-                        IType<IItem> type = itemIterable.getType();
-                        IMemberAccessor<?, IItem> accessor = null;
-                        for (IAccessorKey<?> attribute : type.getAccessorKeys().keySet()) {
-                            if (targetEventField.equals(attribute.getIdentifier())) {
-                                accessor = type.getAccessor(attribute);
-                                columns.forEach(
-                                        (obj) -> { // Update targetField type
-                                            JsonObject jsonObj = ((JsonObject) obj);
-                                            String colName = jsonObj.getString("text");
-                                            if (colName.equals(targetEventField)) {
-                                                jsonObj.put(
-                                                        "type",
-                                                        getColumnType(
-                                                                attribute
-                                                                        .getContentType()
-                                                                        .getIdentifier()));
-                                            }
-                                        });
-                            }
-                        }
+        if (table == null) {
+            return TargetScan.done(List.of(targetObject));
+        }
+
+        // One table field per requested column, so that every field is read in a single pass
+        // over the events
+        final int[] fields = new int[targetEventFields.size()];
+        boolean anyField = false;
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = table.indexOf(targetEventFields.get(i));
+            if (fields[i] >= 0) {
+                anyField = true;
+                // Update targetField type
+                columns.getJsonObject(i + 1)
+                        .put(
+                                "type",
+                                getColumnType(
+                                        table.getFields()
+                                                .get(fields[i])
+                                                .contentType()
+                                                .getIdentifier()));
+            }
+        }
+        if (!anyField) {
+            return TargetScan.done(List.of(targetObject));
+        }
+
+        // Rows are selected with a bounded heap, so that only offset + limit rows are ever
+        // materialized however many events match
+        final int window = (int) Math.min(plan.window(), Integer.MAX_VALUE);
+        final int orderColumn =
+                target.getOrderBy()
+                        .map(
+                                orderBy ->
+                                        orderBy.equals(Target.TIME_COLUMN)
+                                                ? 0
+                                                : targetEventFields.indexOf(orderBy) + 1)
+                        .orElse(-1);
+        final TopN<Object, JsonArray> selection =
+                new TopN<>(
+                        window,
+                        orderColumn < 0 ? (a, b) -> 0 : cellComparator(target.isDescending()));
+
+        return new TargetScan(
+                row -> {
+                    if (orderColumn < 0 && selection.isFull()) {
+                        // Unordered: the first rows in event order are final
+                        return false;
+                    }
+                    final long time = row.getStartTime();
+
+                    Object key = null;
+                    if (orderColumn == 0) {
+                        key = time;
+                    } else if (orderColumn > 0) {
+                        key = cellValue(current, table, row, fields[orderColumn - 1]);
+                    }
+                    final Object orderKey = key;
 
-                        if (accessor != null) {
-                            for (IItem item : itemIterable) {
+                    selection.offer(
+                            orderKey,
+                            () -> {
                                 JsonArray datapoint = new JsonArray();
-                                long startTime = 0;
-                                try {
-                                    IMemberAccessor<IQuantity, IItem> startTimeAccessor =
-                                            JfrAttributes.START_TIME.getAccessor(type);
-                                    startTime =
-                                            startTimeAccessor
-                                                    .getMember(item)
-                                                    .longValueIn(UnitLookup.EPOCH_MS);
-                                } catch (QuantityConversionException e) {
-                                    // Do Nothing
+                                datapoint.add(time);
+                                for (int i = 0; i < fields.length; i++) {
+                                    datapoint.add(
+                                            i + 1 == orderColumn
+                                                    ? orderKey
+                                                    : cellValue(current, table, row, fields[i]));
                                 }
-                                datapoint.add(startTime);
-
-                                Object value = accessor.getMember(item);
-                                if (value instanceof IQuantity) {
-                                    IQuantity quanity = (IQuantity) value;
-                                    IUnit displayUnit = displayUnit(quanity.getUnit());
-                                    datapoint.add(quanity.doubleValueIn(displayUnit));
-                                } else {
-                                    datapoint.add(value.toString());
-                                }
-
-                                rows.add(datapoint);
-                            }
-                        }
+                                return datapoint;
+                            });
+                    return true;
+                },
+                () -> {
+                    List<JsonArray> selectedRows = selection.toList();
+                    for (JsonArray row :
+                            selectedRows.subList(
+                                    Math.min(target.getOffset(), selectedRows.size()),
+                                    selectedRows.size())) {
+                        rows.add(row);
                     }
+                    return List.of(targetObject);
                 });
-        return targetObject;
     }
 
-    public void applyFilterEvents(
-            String targetIdentifier, long from, long to, Consumer<IItemCollection> consumer) {
-        consumer.accept(filterEvents(targetIdentifier, from, to));
+    private Object cellValue(LoadedRecording current, EventTable table, EventRow row, int field) {
+        if (field < 0) {
+            return null;
+        }
+        if (table.getFields().get(field).isQuantity()) {
+            double value = row.getNumber(field);
+            return Double.isNaN(value) ? null : value;
+        }
+        return render(current, row.getValue(field));
     }
 
-    public IItemCollection filterEvents(String targetIdentifier, long from, long to) {
-        String eventName = targetIdentifier.substring(0, targetIdentifier.lastIndexOf("."));
-        IQuantity start = UnitLookup.EPOCH_MS.quantity(from);
-        IQuantity end = UnitLookup.EPOCH_MS.quantity(to);
-        IRange<IQuantity> range = QuantityRange.createWithEnd(start, end);
-        IItemCollection filteredEvents =
-                this.events.apply(
-                        ItemFilters.and(
-                                ItemFilters.type(eventName),
-                                ItemFilters.rangeContainedIn(JfrAttributes.LIFETIME, range)));
-        return filteredEvents;
+    /**
+     * Orders table cells. Numeric cells are compared by value and all others by their string form.
+     * Empty cells sort last in either direction.
+     */
+    private static Comparator<Object> cellComparator(boolean descending) {
+        return (left, right) -> {
+            if (left == null || right == null) {
+                return left == right ? 0 : (left == null ? 1 : -1);
+            }
+            int c;
+            if (left instanceof Number && right instanceof Number) {
+                c = Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+            } else {
+                c = left.toString().compareTo(right.toString());
+            }
+            return descending ? -c : c;
+        };
     }
 
-    public IItemCollection filterEvents(String targetIdentifier) {
-        String eventName = targetIdentifier.substring(0, targetIdentifier.lastIndexOf("."));
-        IItemCollection filteredEvents = this.events.apply(ItemFilters.type(eventName));
-        return filteredEvents;
+    /**
+     * Aggregates the stack traces of the target event type within the query range, weighted by
+     * the optional numeric weight field.
+     */
+    public StackTraceAggregator aggregateStackTraces(
+            FlameGraphQuery query, CancellationToken cancellation)
+            throws JsonMappingException, InvalidQueryException {
+        final StackTraceAggregator aggregator = new StackTraceAggregator();
+        final String eventType =
+                query.getTarget()
+                        .orElseThrow(
+                                () ->
+                                        new JsonMappingException(
+                                                null, "missing target field in json body"));
+        final LoadedRecording current = acquire();
+        if (current == null) {
+            return aggregator;
+        }
+        try {
+            aggregateStackTraces(current, eventType, query, cancellation, aggregator);
+        } finally {
+            current.release();
+        }
+        return aggregator;
+    }
+
+    private void aggregateStackTraces(
+            LoadedRecording current,
+            String eventType,
+            FlameGraphQuery query,
+            CancellationToken cancellation,
+            StackTraceAggregator aggregator)
+            throws InvalidQueryException {
+        final Optional<String> weightField = query.getWeight();
+
+        final EventTable table = current.getStore().get(eventType);
+        final int stackTraceField =
+                table == null ? -1 : table.indexOf(JfrAttributes.EVENT_STACKTRACE.getIdentifier());
+        if (stackTraceField < 0) {
+            return;
+        }
+
+        int field = -1;
+        if (weightField.isPresent()) {
+            field = table.indexOf(weightField.get());
+            if (field < 0 || !table.getFields().get(field).isQuantity()) {
+                throw new InvalidQueryException("weight");
+            }
+        }
+        final int weightIndex = field;
+
+        table.scan(
+                query.getFrom(),
+                query.getTo(),
+                cancellation,
+                row -> {
+                    double weight = 1;
+                    if (weightIndex >= 0) {
+                        weight = row.getNumber(weightIndex);
+                        if (Double.isNaN(weight)) {
+                            weight = 0;
+                        }
+                    }
+                    aggregator.add((IMCStackTrace) row.getValue(stackTraceField), weight);
+                    return true;
+                });
     }
 
     public JsonObject createEmptyTargetJson(String identifier, Optional<String> paramField) {
@@ -511,27 +931,172 @@ public class RecordingService {
         return jsonObject;
     }
 
-    public String annotations() {
-        if (events == null) {
+    /**
+     * Evaluates the selected annotation rules over the query range. Only the events of the rules'
+     * types that start within the range are visited, and the rendered result is cached per loaded
+     * recording.
+     */
+    public String annotations(AnnotationQuery query, CancellationToken cancellation)
+            throws InvalidQueryException {
+        final LoadedRecording current = acquire();
+        if (current == null) {
             return JsonUtils.EMPTY_ARRAY;
         }
-        // TODO: Implement annotation support
-        // Reference: https://grafana.com/grafana/plugins/grafana-simple-json-datasource/
-        return JsonUtils.EMPTY_ARRAY;
+        try {
+            return annotations(current, query, cancellation);
+        } finally {
+            current.release();
+        }
     }
 
-    public IUnit displayUnit(IUnit originalUnit) {
-        String unitIdentifier = originalUnit.getContentType().getIdentifier();
-        switch (unitIdentifier) {
-            case "memory":
-                return UnitLookup.BYTE;
-            case "timespan":
-                return UnitLookup.MILLISECOND;
-            case "frequency":
-                return UnitLookup.HERTZ;
-            default:
-                return originalUnit;
+    private String annotations(
+            LoadedRecording current, AnnotationQuery query, CancellationToken cancellation)
+            throws InvalidQueryException {
+        final JsonObject annotation = query.getAnnotation();
+        final long from = query.getFrom();
+        final long to = query.getTo();
+        final String cacheKey = annotation.encode() + "@" + from + "-" + to;
+        String cached = current.getAnnotations().get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Earliest annotations first, capped
+        final TopN<Long, JsonObject> selection =
+                new TopN<>(annotationsMax, Comparator.naturalOrder());
+        for (AnnotationRule rule : selectAnnotationRules(query.getQuery())) {
+            final EventTable table = current.getStore().get(rule.eventType());
+            if (table == null) {
+                continue;
+            }
+            final int thresholdField = rule.hasThreshold() ? table.indexOf(rule.field()) : -1;
+            if (rule.hasThreshold() && thresholdField < 0) {
+                throw new InvalidQueryException(rule.field());
+            }
+
+            table.scan(
+                    from,
+                    to,
+                    cancellation,
+                    row -> {
+                        if (thresholdField >= 0) {
+                            double value = row.getNumber(thresholdField);
+                            if (Double.isNaN(value) || value < rule.threshold()) {
+                                return true;
+                            }
+                        }
+                        // Events are visited by start time, so once an annotation is rejected by
+                        // a full selection the later ones would be too
+                        return selection.offer(
+                                row.getStartTime(),
+                                () ->
+                                        createAnnotationJson(
+                                                annotation,
+                                                rule,
+                                                row.getStartTime(),
+                                                row.getEndTime(),
+                                                field ->
+                                                        annotationValue(
+                                                                current,
+                                                                row,
+                                                                table.indexOf(field))));
+                    });
+        }
+
+        JsonArray json = new JsonArray();
+        for (JsonObject obj : selection.toList()) {
+            json.add(obj);
+        }
+        String result = json.toString();
+        current.getAnnotations().put(cacheKey, result);
+        return result;
+    }
+
+    /**
+     * Selects the annotation rules by a comma separated list of rule names or event types. Entries
+     * that match no rule are parsed as ad-hoc rules. An empty query or {@code *} selects every
+     * rule.
+     */
+    List<AnnotationRule> selectAnnotationRules(String query) throws InvalidQueryException {
+        List<AnnotationRule> rules = getAnnotationRules();
+        if (query.isEmpty() || query.equals("*")) {
+            return rules;
+        }
+        List<AnnotationRule> selected = new ArrayList<>();
+        for (String entry : query.split(",")) {
+            String name = entry.trim();
+            boolean found = false;
+            for (AnnotationRule rule : rules) {
+                if (rule.name().equals(name) || rule.eventType().equals(name)) {
+                    selected.add(rule);
+                    found = true;
+                }
+            }
+            if (!found) {
+                selected.add(AnnotationRule.parse(name));
+            }
+        }
+        return selected;
+    }
+
+    List<AnnotationRule> getAnnotationRules() {
+        List<AnnotationRule> rules = this.annotationRules;
+        if (rules == null) {
+            rules = AnnotationRule.DEFAULTS;
+            if (annotationRulesFile.isPresent()) {
+                try {
+                    JsonArray json = new JsonArray(Files.readString(annotationRulesFile.get()));
+                    List<AnnotationRule> configured = new ArrayList<>();
+                    for (int i = 0; i < json.size(); i++) {
+                        configured.add(AnnotationRule.fromJson(json.getJsonObject(i)));
+                    }
+                    rules = List.copyOf(configured);
+                } catch (Exception e) {
+                    logger.error("Failed to read annotation rules, using the defaults", e);
+                }
+            }
+            this.annotationRules = rules;
+        }
+        return rules;
+    }
+
+    private String annotationValue(LoadedRecording current, EventRow row, int field) {
+        if (field < 0) {
+            return null;
+        }
+        Object value = row.getValue(field);
+        if (value instanceof IQuantity) {
+            return ((IQuantity) value).displayUsing(IDisplayable.AUTO);
         }
+        return render(current, value);
+    }
+
+    private JsonObject createAnnotationJson(
+            JsonObject annotation,
+            AnnotationRule rule,
+            long startTime,
+            long endTime,
+            Function<String, String> fieldValues) {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.put("annotation", annotation);
+        jsonObject.put("time", startTime);
+        jsonObject.put("timeEnd", endTime);
+        jsonObject.put("title", rule.name());
+        jsonObject.put("text", rule.renderText(fieldValues));
+        jsonObject.put("tags", new JsonArray(rule.tags()));
+        return jsonObject;
+    }
+
+    /**
+     * Renders a non-numeric event member through the loaded recording's dictionary, so that
+     * repeated class and thread members are only converted to strings once.
+     */
+    private static String render(LoadedRecording current, Object member) {
+        return current.getDictionary().render(member);
+    }
+
+    public IUnit displayUnit(IUnit originalUnit) {
+        return EventField.displayUnit(originalUnit);
     }
 
     public String getColumnType(String unitIdentifier) {
@@ -545,24 +1110,436 @@ public class RecordingService {
         }
     }
 
-    public void loadEvents(String filename) throws IOException {
+    /**
+     * Loads and selects the events of a recording file. The events of recently selected files stay
+     * loaded, up to {@code io.cryostat.jfr-datasource.storage.max-recordings}, and are selected
+     * again without parsing as long as the file is unchanged.
+     *
+     * @param types the event types to load, or {@link EventTypeSelection#ALL} for those configured
+     *     by {@code io.cryostat.jfr-datasource.load.include} and {@code load.exclude}
+     */
+    public void loadEvents(String filename, EventTypeSelection types) throws IOException {
+        select(loadResident(filename, types.orElse(defaultTypes)));
+    }
+
+    /**
+     * Loads and selects the events of a recording file that is deleted once it is loaded, e.g. a
+     * download that is not kept. The events are parsed up front even when loading lazily, since
+     * the file cannot be read again, and are not kept resident, since there is no file to select
+     * them by again.
+     */
+    public void loadEventsOnce(String filename, EventTypeSelection types) throws IOException {
+        File file = checkFile(filename);
+        try {
+            select(parse(file, types.orElse(defaultTypes), false));
+        } catch (CouldNotLoadRecordingException e) {
+            logger.error("Failed to read events from recording", e);
+            throw new IOException("Failed to load JFR recording", e);
+        }
+    }
+
+    /**
+     * Loads the events of several recording files, e.g. the files of a rolling recording, and
+     * selects them as one recording. Each file is loaded, and stays loaded, as if it were selected
+     * on its own.
+     */
+    public void loadEvents(List<String> filenames, EventTypeSelection types) throws IOException {
+        List<LoadedRecording> parts = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        try {
+            for (String filename : filenames) {
+                parts.add(loadResident(filename, types.orElse(defaultTypes)));
+                paths.add(new File(filename).getAbsolutePath());
+            }
+        } catch (IOException | RuntimeException e) {
+            for (LoadedRecording part : parts) {
+                part.release();
+            }
+            throw e;
+        }
+        logger.infov("Merging {0} recordings", parts.size());
+        select(new MergedRecording(paths, parts));
+    }
+
+    /** @return the events of the file, retained for the caller */
+    private LoadedRecording loadResident(String filename, EventTypeSelection types)
+            throws IOException {
+        File file = checkFile(filename);
+        try {
+            BasicFileAttributes attributes =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            ResidentKey key =
+                    new ResidentKey(
+                            file.getAbsolutePath(),
+                            attributes.fileKey(),
+                            attributes.lastModifiedTime().toMillis(),
+                            attributes.size(),
+                            types);
+            LoadedRecording loaded = resident.get(key);
+            if (loaded != null && loaded.retain()) {
+                logger.infov("Using loaded events of {0}", file.getName());
+            } else if ((loaded = residentLink(key)) != null) {
+                logger.infov("Using loaded events of another name of {0}", file.getName());
+            } else {
+                loaded = parse(file, types, lazy);
+                // One reference for the resident cache, one for the caller
+                loaded.retain();
+                LoadedRecording replaced = resident.put(key, loaded);
+                if (replaced != null) {
+                    replaced.release();
+                }
+            }
+            return loaded;
+        } catch (CouldNotLoadRecordingException e) {
+            logger.error("Failed to read events from recording", e);
+            throw new IOException("Failed to load JFR recording", e);
+        }
+    }
+
+    private File checkFile(String filename) throws IOException {
         if (filename == null || filename == "") {
             throw new IOException("Invalid JFR filename");
         }
+        File file = new File(filename);
+        logger.infov("Loading file: {0}", file.getAbsolutePath());
+        if (!file.exists()) {
+            throw new IOException("File not found");
+        }
+        if (!file.isFile()) {
+            throw new IOException(String.format("Path %s is not a file", file.getAbsolutePath()));
+        }
+        return file;
+    }
+
+    // Selects a retained recording, releasing the previous selection
+    private void select(LoadedRecording loaded) {
+        LoadedRecording previous = recording.getAndSet(loaded);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Looks for events loaded from another name of the same file, i.e. a hard link to it, and
+     * caches them under this name too.
+     *
+     * @return the events, retained for the caller, or null if there are none
+     */
+    private LoadedRecording residentLink(ResidentKey key) {
+        if (key.fileKey() == null) {
+            return null;
+        }
+        LoadedRecording shared = resident.findFirst((k, v) -> k.isSameFile(key));
+        if (shared == null || !shared.retain()) {
+            return null;
+        }
+        // One more reference for the entry under this name
+        shared.retain();
+        LoadedRecording replaced = resident.put(key, shared);
+        if (replaced != null) {
+            replaced.release();
+        }
+        return shared;
+    }
+
+    /**
+     * Loads and selects the events of a recording read from a stream, e.g. while it is being
+     * downloaded. Chunks are parsed as soon as they have been read, so parsing overlaps with the
+     * transfer. The events are not kept resident, since there is no file to select them by again.
+     * Events of types that are not selected are decoded, but dropped once the stream is parsed.
+     */
+    public void loadEvents(InputStream stream, String name, EventTypeSelection types)
+            throws IOException {
         try {
-            File file = new File(filename);
-            logger.infov("Loading file: {0}", file.getAbsolutePath());
-            if (!file.exists()) {
-                throw new IOException("File not found");
-            }
-            if (!file.isFile()) {
-                throw new IOException(
-                        String.format("Path %s is not a file", file.getAbsolutePath()));
+            logger.infov("Loading stream: {0}", name);
+            IItemCollection events = JfrLoaderToolkit.loadEvents(stream);
+            EventTypeSelection selected = types.orElse(defaultTypes);
+            if (!selected.isAll()) {
+                events = events.apply(ItemFilters.type(selectedTypes(events, selected)));
             }
-            this.events = JfrLoaderToolkit.loadEvents(file);
+            select(parse(events, name));
         } catch (CouldNotLoadRecordingException e) {
             logger.error("Failed to read events from recording", e);
             throw new IOException("Failed to load JFR recording", e);
         }
     }
+
+    /** @param lazy whether the events of each type may be parsed from the file on first use */
+    private LoadedRecording parse(File file, EventTypeSelection types, boolean lazy)
+            throws IOException, CouldNotLoadRecordingException {
+        if (lazy && storageMode == StorageMode.ITEMS) {
+            LazyEventStore store = LazyEventStore.open(file, lazyMaxTypes, types);
+            logger.infov(
+                    "Loaded catalog of {0} with {1} event types",
+                    file.getName(),
+                    store.getEventTypes().size());
+            return rollupsEnabled
+                    ? new LoadedRecording(store, new MemberDictionary())
+                    : new LoadedRecording(store, new MemberDictionary(), Map.of());
+        }
+        if (!types.isAll()) {
+            // Events of types that are not selected are skipped before any items are built. The
+            // parser only takes extensions for files, so the chunks are not parsed separately.
+            return parse(
+                    JfrLoaderToolkit.loadEvents(
+                            List.of(file),
+                            new EventTypeFilter(types, Integer.MAX_VALUE).withDefaults()),
+                    file.getName());
+        }
+        // Compact tables are encoded in start time order across the whole recording
+        if (splitChunks && storageMode == StorageMode.ITEMS) {
+            List<Chunk> chunks = JfrChunks.list(file.toPath());
+            if (chunks.size() > 1) {
+                return parse(parseChunks(file, chunks), file.getName());
+            }
+        }
+        return parse(JfrLoaderToolkit.loadEvents(file), file.getName());
+    }
+
+    private static Set<String> selectedTypes(IItemCollection events, EventTypeSelection types) {
+        Set<String> selected = new HashSet<>();
+        for (IItemIterable iterable : events) {
+            String identifier = iterable.getType().getIdentifier();
+            if (types.test(identifier)) {
+                selected.add(identifier);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Parses every chunk of the file on its own, so that each chunk is indexed separately and
+     * scans skip the chunks without events of the scanned type in the scanned range.
+     */
+    private EventStore parseChunks(File file, List<Chunk> chunks)
+            throws IOException, CouldNotLoadRecordingException {
+        List<EventStore> parts = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            try (InputStream in = JfrChunks.open(file.toPath(), chunk)) {
+                parts.add(new ItemEventStore(JfrLoaderToolkit.loadEvents(in)));
+            }
+        }
+        logger.infov("Loaded {0} chunks of {1}", chunks.size(), file.getName());
+        return new MergedEventStore(parts);
+    }
+
+    private LoadedRecording parse(IItemCollection events, String name) {
+        return parse(new ItemEventStore(events), name);
+    }
+
+    private LoadedRecording parse(EventStore store, String name) {
+        MemberDictionary dictionary = new MemberDictionary();
+        if (storageMode == StorageMode.COMPACT || storageMode == StorageMode.OFF_HEAP) {
+            CompactEventStore compact =
+                    CompactEventStore.encode(
+                            store, dictionary, storageMode == StorageMode.OFF_HEAP);
+            logger.infov(
+                    "Encoded events of {0} in {1} bytes", name, compact.getEncodedSize());
+            store = compact;
+        }
+        // Rollups are built for the fields that are queried, rather than every field up front
+        return rollupsEnabled
+                ? new LoadedRecording(store, dictionary)
+                : new LoadedRecording(store, dictionary, Map.of());
+    }
+
+    /**
+     * Drops the loaded events of a recording file, deselecting it if it is selected, on its own or
+     * merged with other files. Native memory held by the events is freed once no query is using
+     * them any longer.
+     */
+    public void unload(String filename) {
+        String path = new File(filename).getAbsolutePath();
+        for (LoadedRecording removed : resident.removeIf((key, value) -> key.path().equals(path))) {
+            // Events still cached under another name of the file stay selected
+            if (resident.findFirst((key, value) -> value == removed) == null
+                    && recording.compareAndSet(removed, null)) {
+                removed.release();
+            }
+            removed.release();
+        }
+        LoadedRecording current = recording.get();
+        if (current instanceof MergedRecording
+                && ((MergedRecording) current).contains(path)
+                && recording.compareAndSet(current, null)) {
+            current.release();
+        }
+    }
+
+    /** Drops the loaded events of every recording file and deselects the current recording. */
+    public void unloadAll() {
+        for (LoadedRecording removed : resident.removeIf((key, value) -> true)) {
+            removed.release();
+        }
+        LoadedRecording previous = recording.getAndSet(null);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /** Evaluates the targets that describe the recording as a whole. */
+    private final class RecordingInfo implements Operator {
+        @Override
+        public String name() {
+            return "recording";
+        }
+
+        @Override
+        public long cost(LoadedRecording current, LogicalPlan plan) {
+            return plan.kind() == Kind.RECORDING ? 1 : -1;
+        }
+
+        @Override
+        public List<JsonObject> execute(
+                LoadedRecording current, LogicalPlan plan, CancellationToken cancellation) {
+            if (plan.target().getTargetIdentifier().equals(Target.durationTargetIdentifier)) {
+                return List.of(getDuration(current));
+            }
+            return List.of(getStartTime(current));
+        }
+    }
+
+    /**
+     * Evaluates aggregate targets without options from the rollups of the target field, for the
+     * rollup buckets within the range, and the events in the partial buckets at either end.
+     */
+    private final class RollupLookup implements Operator {
+        @Override
+        public String name() {
+            return "rollup";
+        }
+
+        @Override
+        public long cost(LoadedRecording current, LogicalPlan plan) {
+            if (plan.kind() != Kind.AGGREGATE || !plan.groupBy().isEmpty()) {
+                return -1;
+            }
+            final long resolution = Rollup.resolutionFor(plan.bucket());
+            final long[] range = resolution > 0 ? rollupRange(plan, resolution) : null;
+            final EventTable table = current.getStore().get(plan.eventType());
+            final Optional<Rollup> rollup =
+                    range == null || table == null
+                            ? Optional.empty()
+                            : current.getRollup(plan.eventType(), plan.fields().get(0));
+            if (rollup.isEmpty()) {
+                return -1;
+            }
+            final long rollupTo =
+                    rollup.get().firstEndingAfter(resolution, range[0], range[1], plan.to());
+            return (rollupTo - range[0]) / resolution
+                    + table.estimateCount(plan.from(), range[0] - 1)
+                    + table.estimateCount(rollupTo, plan.to());
+        }
+
+        @Override
+        public List<JsonObject> execute(
+                LoadedRecording current, LogicalPlan plan, CancellationToken cancellation) {
+            return getRollupTimeseries(current, plan, cancellation);
+        }
+    }
+
+    /**
+     * Evaluates targets by scanning the events within the range, which seeks the start of the
+     * range in the start time index of the event type, or in its blocks of compact events. Targets
+     * on the same event type are evaluated in a single scan, which passes each event to every
+     * target that still needs more.
+     */
+    private final class RangeScan implements Operator {
+        @Override
+        public String name() {
+            return "scan";
+        }
+
+        @Override
+        public long cost(LoadedRecording current, LogicalPlan plan) {
+            if (plan.kind() == Kind.RECORDING) {
+                return -1;
+            }
+            final EventTable table = current.getStore().get(plan.eventType());
+            if (table == null) {
+                return 0;
+            }
+            final long count = table.estimateCount(plan.from(), plan.to());
+            // Unordered rows are taken in event order, so the scan stops once it has enough
+            return plan.kind() == Kind.TABLE && !plan.isOrdered()
+                    ? Math.min(count, plan.window())
+                    : count;
+        }
+
+        @Override
+        public List<JsonObject> execute(
+                LoadedRecording current, LogicalPlan plan, CancellationToken cancellation) {
+            return executeAll(current, List.of(plan), cancellation).get(0);
+        }
+
+        @Override
+        public Object batchKey(LogicalPlan plan) {
+            return plan.eventType();
+        }
+
+        @Override
+        public List<List<JsonObject>> executeAll(
+                LoadedRecording current, List<LogicalPlan> plans, CancellationToken cancellation) {
+            final LogicalPlan first = plans.get(0);
+            final EventTable table = current.getStore().get(first.eventType());
+            final List<EventTable.RowVisitor> visitors = new ArrayList<>();
+            final List<TargetScan> scans = new ArrayList<>(plans.size());
+            for (LogicalPlan plan : plans) {
+                TargetScan scan = targetScan(current, plan, table);
+                if (scan.visitor() != null) {
+                    visitors.add(scan.visitor());
+                }
+                scans.add(scan);
+            }
+            if (visitors.size() == 1) {
+                table.scan(first.from(), first.to(), cancellation, visitors.get(0));
+            } else if (!visitors.isEmpty()) {
+                // Visitors that need no more events are dropped, until none remain
+                table.scan(
+                        first.from(),
+                        first.to(),
+                        cancellation,
+                        row -> {
+                            visitors.removeIf(visitor -> !visitor.visit(row));
+                            return !visitors.isEmpty();
+                        });
+            }
+            final List<List<JsonObject>> results = new ArrayList<>(scans.size());
+            for (TargetScan scan : scans) {
+                results.add(scan.result().get());
+            }
+            for (LogicalPlan plan : plans) {
+                if (plan.kind() == Kind.AGGREGATE && plan.groupBy().isEmpty()) {
+                    buildRollupLater(current, plan.eventType(), plan.fields().get(0));
+                }
+            }
+            return results;
+        }
+
+        private TargetScan targetScan(LoadedRecording current, LogicalPlan plan, EventTable table) {
+            switch (plan.kind()) {
+                case SERIES:
+                    return getTimeseries(current, plan.target(), table);
+                case AGGREGATE:
+                    return getAggregateTimeseries(current, plan.target(), table, plan.bucket());
+                case TABLE:
+                    return getTable(current, plan, table);
+                default:
+                    return TargetScan.done(List.of());
+            }
+        }
+    }
+
+    // Identifies a version of a recording file, loaded with a selection of its event types. Hard
+    // links to a file share its file key.
+    private record ResidentKey(
+            String path, Object fileKey, long lastModified, long length, EventTypeSelection types) {
+        boolean isSameFile(ResidentKey other) {
+            return fileKey != null
+                    && fileKey.equals(other.fileKey)
+                    && lastModified == other.lastModified
+                    && length == other.length
+                    && types.equals(other.types);
+        }
+    }
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.openjdk.jmc.common.unit.UnitLookup;
+
+import io.cryostat.jfr.datasource.utils.QuantileSketch;
+
+/**
+ * Pre-aggregated values of one numeric field of an event type, bucketed by event start time at
+ * several resolutions. Each bucket keeps the count, sum, minimum and maximum of the values and a
+ * quantile sketch, all of which merge exactly, so an aggregate over any union of buckets can be
+ * answered without visiting the events again. Buckets also keep the latest end time of their
+ * events, so that queries can tell which buckets only have events ending within their range.
+ */
+public class Rollup {
+
+    /** Bucket widths in milliseconds, finest first. Every resolution divides the next. */
+    public static final long[] RESOLUTIONS = {1_000, 10_000, 60_000, 600_000};
+
+    // Coarser levels are merged from the finest one when first read, so that only the
+    // resolutions that queries use hold buckets and their sketches
+    private final Level[] levels = new Level[RESOLUTIONS.length];
+
+    private Rollup(Level finest) {
+        levels[0] = finest;
+    }
+
+    /**
+     * Builds the rollup of a numeric field of an event type, in a single pass over its events.
+     *
+     * @return the rollup, or empty if the field is not numeric or has no values
+     */
+    public static Optional<Rollup> build(EventTable table, String field) {
+        List<EventField> fields = table.getFields();
+        int index = -1;
+        for (int f = 0; f < fields.size(); f++) {
+            if (fields.get(f).identifier().equals(field) && isNumeric(fields.get(f))) {
+                index = f;
+                break;
+            }
+        }
+        if (index < 0) {
+            return Optional.empty();
+        }
+
+        final int fieldIndex = index;
+        Map<Long, Bucket> buckets = new HashMap<>();
+        table.scanAll(
+                row -> {
+                    double value = row.getNumber(fieldIndex);
+                    if (!Double.isNaN(value)) {
+                        long bucketStart =
+                                Math.floorDiv(row.getStartTime(), RESOLUTIONS[0]) * RESOLUTIONS[0];
+                        buckets.computeIfAbsent(bucketStart, k -> new Bucket())
+                                .add(value, row.getEndTime());
+                    }
+                    return true;
+                });
+        return buckets.isEmpty() ? Optional.empty() : Optional.of(new Rollup(Level.of(buckets)));
+    }
+
+    private static boolean isNumeric(EventField field) {
+        return field.isQuantity()
+                && !field.isEventTime()
+                && !UnitLookup.TIMESTAMP.equals(field.contentType());
+    }
+
+    /** @return the rollup of the union of the values of the rollups */
+    public static Rollup merge(List<Rollup> rollups) {
+        Map<Long, Bucket> buckets = new HashMap<>();
+        for (Rollup rollup : rollups) {
+            Level finest = rollup.levels[0];
+            for (int i = 0; i < finest.startTimes.length; i++) {
+                buckets.computeIfAbsent(finest.startTimes[i], k -> new Bucket())
+                        .merge(finest.buckets[i]);
+            }
+        }
+        return new Rollup(Level.of(buckets));
+    }
+
+    /**
+     * @return the coarsest resolution that evenly divides the interval, or -1 if none does
+     */
+    public static long resolutionFor(long intervalMs) {
+        for (int i = RESOLUTIONS.length - 1; i >= 0; i--) {
+            if (intervalMs >= RESOLUTIONS[i] && intervalMs % RESOLUTIONS[i] == 0) {
+                return RESOLUTIONS[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Visits the buckets of the given resolution that start within [from, to), in time order.
+     * Buckets are aligned to multiples of the resolution.
+     */
+    public void forEach(long resolution, long from, long to, BucketVisitor visitor) {
+        Level level = level(resolution);
+        for (int i = level.lowerBound(from);
+                i < level.startTimes.length && level.startTimes[i] < to;
+                i++) {
+            visitor.visit(level.startTimes[i], level.buckets[i]);
+        }
+    }
+
+    /**
+     * @return the start of the first bucket of the given resolution within [from, to) with an
+     *     event ending after {@code endTo}, or {@code to} if there is none
+     */
+    public long firstEndingAfter(long resolution, long from, long to, long endTo) {
+        Level level = level(resolution);
+        for (int i = level.lowerBound(from);
+                i < level.startTimes.length && level.startTimes[i] < to;
+                i++) {
+            if (level.buckets[i].maxEndTime > endTo) {
+                return level.startTimes[i];
+            }
+        }
+        return to;
+    }
+
+    private synchronized Level level(long resolution) {
+        int index = Arrays.binarySearch(RESOLUTIONS, resolution);
+        if (levels[index] == null) {
+            levels[index] = levels[0].coarsen(resolution);
+        }
+        return levels[index];
+    }
+
+    @FunctionalInterface
+    public interface BucketVisitor {
+        void visit(long startTime, Bucket bucket);
+    }
+
+    /** Count, sum, minimum, maximum and distribution of a set of values. */
+    public static class Bucket {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private long maxEndTime = Long.MIN_VALUE;
+        private final QuantileSketch sketch = new QuantileSketch();
+
+        public void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sketch.add(value);
+        }
+
+        /** Adds the value of an event ending at the given time. */
+        public void add(double value, long endTime) {
+            add(value);
+            maxEndTime = Math.max(maxEndTime, endTime);
+        }
+
+        public void merge(Bucket other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            maxEndTime = Math.max(maxEndTime, other.maxEndTime);
+            sketch.merge(other.sketch);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        /** @return the latest end time of the events added with theirs, or Long.MIN_VALUE */
+        public long getMaxEndTime() {
+            return maxEndTime;
+        }
+
+        public double getAverage() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        public double getQuantile(double quantile) {
+            return sketch.quantile(quantile);
+        }
+    }
+
+    private static final class Level {
+        final long[] startTimes;
+        final Bucket[] buckets;
+
+        private Level(long[] startTimes, Bucket[] buckets) {
+            this.startTimes = startTimes;
+            this.buckets = buckets;
+        }
+
+        static Level of(Map<Long, Bucket> buckets) {
+            long[] startTimes = new long[buckets.size()];
+            int i = 0;
+            for (long startTime : buckets.keySet()) {
+                startTimes[i++] = startTime;
+            }
+            Arrays.sort(startTimes);
+            Bucket[] sorted = new Bucket[startTimes.length];
+            for (i = 0; i < startTimes.length; i++) {
+                sorted[i] = buckets.get(startTimes[i]);
+            }
+            return new Level(startTimes, sorted);
+        }
+
+        Level coarsen(long resolution) {
+            long[] coarseStartTimes = new long[startTimes.length];
+            Bucket[] coarseBuckets = new Bucket[startTimes.length];
+            int size = 0;
+            for (int i = 0; i < startTimes.length; i++) {
+                long startTime = Math.floorDiv(startTimes[i], resolution) * resolution;
+                if (size == 0 || coarseStartTimes[size - 1] != startTime) {
+                    coarseStartTimes[size] = startTime;
+                    coarseBuckets[size] = new Bucket();
+                    size++;
+                }
+                coarseBuckets[size - 1].merge(buckets[i]);
+            }
+            return new Level(
+                    Arrays.copyOf(coarseStartTimes, size), Arrays.copyOf(coarseBuckets, size));
+        }
+
+        int lowerBound(long time) {
+            int low = 0;
+            int high = startTimes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (startTimes[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
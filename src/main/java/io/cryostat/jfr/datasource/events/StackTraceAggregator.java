@@ -0,0 +1,210 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmc.common.IMCFrame;
+import org.openjdk.jmc.common.IMCMethod;
+import org.openjdk.jmc.common.IMCStackTrace;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Aggregates stack traces into a call tree, suitable for rendering as a flame graph.
+ *
+ * <p>Samples are first accumulated per distinct stack trace instance, which the JFR parser shares
+ * between events referring to the same constant pool entry, so adding a sample is a single map
+ * update. Distinct traces are only folded into the frame trie when a result is requested. Frames
+ * are interned by method, so the trie size is bounded by the number of distinct call paths rather
+ * than by the number of samples.
+ */
+public class StackTraceAggregator {
+
+    static final String ROOT_LABEL = "total";
+
+    private final Map<IMCStackTrace, double[]> traces = new IdentityHashMap<>();
+    private final Map<IMCMethod, Integer> methodIds = new IdentityHashMap<>();
+    private final Map<String, Integer> labelIds = new HashMap<>();
+    private final List<String> labels = new ArrayList<>();
+
+    public void add(IMCStackTrace stackTrace, double weight) {
+        if (stackTrace == null) {
+            return;
+        }
+        traces.computeIfAbsent(stackTrace, k -> new double[1])[0] += weight;
+    }
+
+    /**
+     * Renders the call tree as a Grafana flame graph data frame, i.e. the nested set model with
+     * "level", "value", "self" and "label" fields in depth-first order.
+     */
+    public JsonObject toDataFrame(String name) {
+        JsonArray level = new JsonArray();
+        JsonArray value = new JsonArray();
+        JsonArray self = new JsonArray();
+        JsonArray label = new JsonArray();
+
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(buildTree());
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            level.add(node.depth);
+            value.add(node.total);
+            self.add(node.self);
+            label.add(labelOf(node));
+            List<Node> children = node.sortedChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+
+        JsonArray fields = new JsonArray();
+        fields.add(field("level", "number", level));
+        fields.add(field("value", "number", value));
+        fields.add(field("self", "number", self));
+        fields.add(field("label", "string", label));
+
+        JsonObject frame = new JsonObject();
+        frame.put("name", name);
+        frame.put("fields", fields);
+        return frame;
+    }
+
+    /**
+     * Renders the call tree in the collapsed/folded stack format, one line per call path with a
+     * non-zero self weight: {@code frame;frame;frame weight}.
+     */
+    public String toFolded() {
+        StringBuilder sb = new StringBuilder();
+        appendFolded(sb, buildTree(), new StringBuilder());
+        return sb.toString();
+    }
+
+    private void appendFolded(StringBuilder sb, Node node, StringBuilder path) {
+        int pathLength = path.length();
+        if (node.depth > 0) {
+            if (node.depth > 1) {
+                path.append(';');
+            }
+            path.append(labelOf(node));
+            if (node.self > 0) {
+                sb.append(path).append(' ').append(formatWeight(node.self)).append('\n');
+            }
+        }
+        for (Node child : node.sortedChildren()) {
+            appendFolded(sb, child, path);
+        }
+        path.setLength(pathLength);
+    }
+
+    private Node buildTree() {
+        Node root = new Node(-1, 0);
+        for (Map.Entry<IMCStackTrace, double[]> entry : traces.entrySet()) {
+            double weight = entry.getValue()[0];
+            List<? extends IMCFrame> frames = entry.getKey().getFrames();
+            Node node = root;
+            node.total += weight;
+            // Frames are ordered from the top of the stack, so walk them backwards from the root
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                node = node.child(frameId(frames.get(i)));
+                node.total += weight;
+            }
+            node.self += weight;
+        }
+        return root;
+    }
+
+    private int frameId(IMCFrame frame) {
+        IMCMethod method = frame.getMethod();
+        if (method == null) {
+            return internLabel("<unknown>");
+        }
+        Integer id = methodIds.get(method);
+        if (id == null) {
+            // Distinct chunks carry distinct but equal method instances, so intern by label too
+            String typeName = method.getType() == null ? "" : method.getType().getFullName() + ".";
+            id = internLabel(typeName + method.getMethodName());
+            methodIds.put(method, id);
+        }
+        return id;
+    }
+
+    private int internLabel(String label) {
+        return labelIds.computeIfAbsent(
+                label,
+                l -> {
+                    labels.add(l);
+                    return labels.size() - 1;
+                });
+    }
+
+    private String labelOf(Node node) {
+        return node.frame < 0 ? ROOT_LABEL : labels.get(node.frame);
+    }
+
+    private static JsonObject field(String name, String type, JsonArray values) {
+        JsonObject field = new JsonObject();
+        field.put("name", name);
+        field.put("type", type);
+        field.put("values", values);
+        return field;
+    }
+
+    private static String formatWeight(double weight) {
+        if (weight == Math.rint(weight) && Math.abs(weight) < Long.MAX_VALUE) {
+            return Long.toString((long) weight);
+        }
+        return Double.toString(weight);
+    }
+
+    private final class Node {
+        final int frame;
+        final int depth;
+        double total;
+        double self;
+        Map<Integer, Node> children;
+
+        Node(int frame, int depth) {
+            this.frame = frame;
+            this.depth = depth;
+        }
+
+        Node child(int frame) {
+            if (children == null) {
+                children = new HashMap<>(4);
+            }
+            return children.computeIfAbsent(frame, f -> new Node(f, depth + 1));
+        }
+
+        List<Node> sortedChildren() {
+            if (children == null) {
+                return List.of();
+            }
+            List<Node> sorted = new ArrayList<>(children.values());
+            sorted.sort(Comparator.comparing(StackTraceAggregator.this::labelOf));
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Limits how many requests of each {@link Lane} run at once. Requests beyond the limit wait in a
+ * bounded queue until the request timeout at the latest. Requests are shed with a {@code
+ * Retry-After} hint when the queue is full (429) or when no capacity frees up in time (503), so
+ * that excess load is turned away early instead of slowing down every request.
+ */
+@ApplicationScoped
+public class AdmissionController {
+
+    /** Endpoint classes, limited independently */
+    public enum Lane {
+        /** Requests that scan loaded events */
+        QUERY,
+        /** Requests that upload or parse recordings */
+        LOAD
+    }
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.timeout", defaultValue = "29000")
+    long timeoutMs;
+
+    @ConfigProperty(
+            name = "io.cryostat.jfr-datasource.admission.query.max-concurrent",
+            defaultValue = "8")
+    int queryMaxConcurrent;
+
+    @ConfigProperty(
+            name = "io.cryostat.jfr-datasource.admission.query.max-queued",
+            defaultValue = "32")
+    int queryMaxQueued;
+
+    @ConfigProperty(
+            name = "io.cryostat.jfr-datasource.admission.load.max-concurrent",
+            defaultValue = "2")
+    int loadMaxConcurrent;
+
+    @ConfigProperty(
+            name = "io.cryostat.jfr-datasource.admission.load.max-queued",
+            defaultValue = "4")
+    int loadMaxQueued;
+
+    @ConfigProperty(
+            name = "io.cryostat.jfr-datasource.admission.max-cost",
+            defaultValue = "50000000")
+    long maxCost;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.admission.retry-after", defaultValue = "5")
+    long retryAfterSeconds;
+
+    @Inject Logger logger;
+
+    private volatile Gate queries;
+    private volatile Gate loads;
+
+    void onStart(@Observes StartupEvent evt) {
+        this.queries = new Gate(queryMaxConcurrent, queryMaxQueued);
+        this.loads = new Gate(loadMaxConcurrent, loadMaxQueued);
+    }
+
+    /**
+     * Waits for capacity in the lane. The returned permit must be closed once the request is done.
+     *
+     * @throws ClientErrorException with status 429 if too many requests are already waiting
+     * @throws ServiceUnavailableException if no capacity frees up within the request timeout
+     */
+    public Permit admit(Lane lane) {
+        Gate gate = lane == Lane.QUERY ? queries : loads;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        if (!tryAcquireNow(gate)) {
+            if (gate.queued.incrementAndGet() > gate.maxQueued) {
+                gate.queued.decrementAndGet();
+                logger.warnv(
+                        "Rejecting {0} request, {1} requests already queued", lane, gate.maxQueued);
+                throw new ClientErrorException(
+                        Response.status(Response.Status.TOO_MANY_REQUESTS)
+                                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                                .entity("Error: too many requests")
+                                .build());
+            }
+            boolean acquired = false;
+            try {
+                long remaining = deadline - System.nanoTime();
+                acquired = gate.permits.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                gate.queued.decrementAndGet();
+            }
+            if (!acquired) {
+                logger.warnv("Rejecting {0} request, no capacity within {1}ms", lane, timeoutMs);
+                throw unavailable("Error: no capacity for the request");
+            }
+        }
+        return new Permit(gate.permits, deadline);
+    }
+
+    // Unlike tryAcquire(), the timed variant does not barge ahead of waiting requests
+    private static boolean tryAcquireNow(Gate gate) {
+        try {
+            return gate.permits.tryAcquire(0, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the 503 for a request that could not be served in time, with the same {@code
+     *     Retry-After} hint as requests shed for lack of capacity
+     */
+    public ServiceUnavailableException unavailable(String message) {
+        return new ServiceUnavailableException(message, retryAfterSeconds);
+    }
+
+    /**
+     * Rejects a query whose estimated cost, the number of events it visits, exceeds the maximum.
+     */
+    public void checkCost(long cost) {
+        if (maxCost > 0 && cost > maxCost) {
+            throw new BadRequestException(
+                    String.format(
+                            "Error: query visits about %d events, more than the maximum of %d."
+                                    + " Narrow the time range or reduce the number of targets",
+                            cost, maxCost));
+        }
+    }
+
+    /** Capacity held by an admitted request, released on close. */
+    public static final class Permit implements AutoCloseable {
+        private final Semaphore permits;
+        private final long deadline;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore permits, long deadline) {
+            this.permits = permits;
+            this.deadline = deadline;
+        }
+
+        /** @return the {@link System#nanoTime()} by which the request should be complete */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+
+    private static final class Gate {
+        final Semaphore permits;
+        final int maxQueued;
+        final AtomicInteger queued = new AtomicInteger();
+
+        Gate(int maxConcurrent, int maxQueued) {
+            this.permits = new Semaphore(Math.max(maxConcurrent, 1), true);
+            this.maxQueued = Math.max(maxQueued, 0);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Request body of an annotation query, e.g. {@code {"annotation": {"name": "GC", "query":
+ * "gc,safepoint"}, "range": {"from": "...", "to": "..."}}}. The annotation query selects rules by
+ * name or event type, or is an ad-hoc rule such as {@code jdk.SafepointBegin?duration>=20}.
+ */
+public record AnnotationQuery(JsonObject body) {
+
+    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ISO_INSTANT;
+
+    public JsonObject getAnnotation() {
+        return body.getJsonObject("annotation", new JsonObject());
+    }
+
+    public String getQuery() {
+        String query = getAnnotation().getString("query");
+        return query == null ? "" : query.trim();
+    }
+
+    public long getFrom() {
+        return Instant.from(dateFormat.parse(body.getJsonObject("range").getString("from")))
+                .toEpochMilli();
+    }
+
+    public long getTo() {
+        return Instant.from(dateFormat.parse(body.getJsonObject("range").getString("to")))
+                .toEpochMilli();
+    }
+}
@@ -18,27 +18,42 @@ package io.cryostat.jfr.datasource.server;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URISyntaxException;
+import java.net.URI;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.PathMatcher;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
 
 import org.openjdk.jmc.common.io.IOToolkit;
 import org.openjdk.jmc.common.util.Pair;
 
+import io.cryostat.jfr.datasource.events.EventTypeSelection;
 import io.cryostat.jfr.datasource.events.RecordingService;
+import io.cryostat.jfr.datasource.events.StackTraceAggregator;
+import io.cryostat.jfr.datasource.json.JsonUtils;
+import io.cryostat.jfr.datasource.server.AdmissionController.Lane;
+import io.cryostat.jfr.datasource.sys.ContentStore;
 import io.cryostat.jfr.datasource.sys.FileSystemService;
 import io.cryostat.jfr.datasource.sys.PresignedFileService;
+import io.cryostat.jfr.datasource.utils.CancellationToken;
+import io.cryostat.jfr.datasource.utils.ChunkedGzip;
+import io.cryostat.jfr.datasource.utils.QueryCancelledException;
 
-import io.quarkus.runtime.StartupEvent;
 import io.smallrye.common.annotation.Blocking;
+import io.smallrye.common.annotation.NonBlocking;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonObject;
-import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.BeanParam;
@@ -52,7 +67,8 @@ import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
-import jakarta.ws.rs.ServerErrorException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
@@ -65,13 +81,21 @@ public class Datasource {
 
     private static final String UNSET_FILE = "";
     private volatile String loadedFile = UNSET_FILE;
+    // The selected files, more than one if they were selected together
+    private volatile List<String> loadedFiles = List.of();
     private final ReentrantLock fileLock = new ReentrantLock();
 
     @ConfigProperty(name = "quarkus.http.body.uploads-directory")
     String jfrDir;
 
-    @ConfigProperty(name = "io.cryostat.jfr-datasource.timeout", defaultValue = "29000")
-    String timeoutMs;
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.download.streaming", defaultValue = "false")
+    boolean streamDownloads;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.download.keep", defaultValue = "false")
+    boolean keepDownloads;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.storage.compression", defaultValue = "none")
+    String storageCompression;
 
     @ConfigProperty(name = "cryostat.storage.auth-method")
     Optional<String> storageAuthMethod;
@@ -95,16 +119,15 @@ public class Datasource {
     Optional<java.nio.file.Path> storageCertPath;
 
     @Inject RecordingService recordingService;
+    @Inject AdmissionController admission;
+    @Inject RequestExecutor requestExecutor;
     @Inject FileSystemService fsService;
+    @Inject ContentStore contentStore;
+    @Inject UploadPipeline uploadPipeline;
+    @Inject RetentionService retention;
     @Inject PresignedFileService presignedFileService;
     @Inject Logger logger;
 
-    java.nio.file.Path presignDownloadFile;
-
-    public void onStart(@Observes StartupEvent evt) throws IOException {
-        this.presignDownloadFile = fsService.createTempFile();
-    }
-
     @GET
     @Path("/")
     public void healthCheck() {}
@@ -113,181 +136,332 @@ public class Datasource {
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Blocking
-    public String search(JsonObject body) {
-        try {
-            if (body != null && !body.isEmpty()) {
-                logger.debug(body.toString());
-                return recordingService.search(new Search(body));
+    public String search(JsonObject body, @Context HttpServerResponse response) {
+        try (AdmissionController.Permit permit = admission.admit(Lane.QUERY)) {
+            try {
+                if (body != null && !body.isEmpty()) {
+                    logger.debug(body.toString());
+                    return recordingService.search(
+                            new Search(body), cancellation(permit, response));
+                }
+            } catch (QueryCancelledException e) {
+                logger.warn(e.getMessage());
+                throw admission.unavailable("Error: " + e.getMessage());
+            } catch (Exception e) {
+                logger.error(e);
+                throw new BadRequestException("Error: invalid search body", e);
             }
-        } catch (Exception e) {
-            logger.error(e);
-            throw new BadRequestException("Error: invalid search body", e);
+            throw new BadRequestException("Error: invalid search body");
         }
-        throw new BadRequestException("Error: invalid search body");
     }
 
     @Path("/query")
     @POST
     @Produces(MediaType.APPLICATION_JSON)
-    @Blocking
-    public String query(JsonObject body) {
-        try {
-            if (body != null && !body.isEmpty()) {
-                logger.info(body.toString());
-                Query query = new Query(body);
-                return (recordingService.query(query));
+    public Uni<String> query(JsonObject body, @Context HttpServerResponse response) {
+        return requestExecutor.submit(Lane.QUERY, () -> runQuery(body, response));
+    }
+
+    private String runQuery(JsonObject body, HttpServerResponse response) {
+        try (AdmissionController.Permit permit = admission.admit(Lane.QUERY)) {
+            try {
+                if (body != null && !body.isEmpty()) {
+                    logger.info(body.toString());
+                    Query query = new Query(body);
+                    admission.checkCost(recordingService.estimateCost(query));
+                    return (recordingService.query(query, cancellation(permit, response)));
+                }
+            } catch (WebApplicationException e) {
+                throw e;
+            } catch (QueryCancelledException e) {
+                logger.warn(e.getMessage());
+                throw admission.unavailable("Error: " + e.getMessage());
+            } catch (Exception e) {
+                logger.error(e);
+                throw new BadRequestException("Error: invalid query body", e);
             }
-        } catch (Exception e) {
-            logger.error(e);
-            throw new BadRequestException("Error: invalid query body", e);
+
+            throw new BadRequestException("Error: invalid query body");
         }
+    }
 
-        throw new BadRequestException("Error: invalid query body");
+    @Path("/flamegraph")
+    @POST
+    @Produces({MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN})
+    @Blocking
+    public Response flameGraph(
+            JsonObject body,
+            @QueryParam("format") @DefaultValue("frame") String format,
+            @Context HttpServerResponse response) {
+        if (!"frame".equals(format) && !"folded".equals(format)) {
+            throw new BadRequestException("Error: unknown flame graph format " + format);
+        }
+        try (AdmissionController.Permit permit = admission.admit(Lane.QUERY)) {
+            try {
+                if (body != null && !body.isEmpty()) {
+                    logger.info(body.toString());
+                    FlameGraphQuery query = new FlameGraphQuery(body);
+                    admission.checkCost(recordingService.estimateCost(query));
+                    StackTraceAggregator aggregator =
+                            recordingService.aggregateStackTraces(
+                                    query, cancellation(permit, response));
+                    if ("folded".equals(format)) {
+                        return Response.ok(aggregator.toFolded(), MediaType.TEXT_PLAIN).build();
+                    }
+                    return Response.ok(
+                                    aggregator.toDataFrame(query.getTarget().get()).encode(),
+                                    MediaType.APPLICATION_JSON)
+                            .build();
+                }
+            } catch (WebApplicationException e) {
+                throw e;
+            } catch (QueryCancelledException e) {
+                logger.warn(e.getMessage());
+                throw admission.unavailable("Error: " + e.getMessage());
+            } catch (Exception e) {
+                logger.error(e);
+                throw new BadRequestException("Error: invalid flame graph body", e);
+            }
+
+            throw new BadRequestException("Error: invalid flame graph body");
+        }
     }
 
     @Path("/annotations")
     @POST
-    @Produces(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.APPLICATION_JSON)
     @Blocking
-    public String annotations() {
-        return recordingService.annotations();
+    public String annotations(JsonObject body, @Context HttpServerResponse response) {
+        try (AdmissionController.Permit permit = admission.admit(Lane.QUERY)) {
+            if (body == null || body.isEmpty()) {
+                return JsonUtils.EMPTY_ARRAY;
+            }
+            try {
+                logger.info(body.toString());
+                return recordingService.annotations(
+                        new AnnotationQuery(body), cancellation(permit, response));
+            } catch (QueryCancelledException e) {
+                logger.warn(e.getMessage());
+                throw admission.unavailable("Error: " + e.getMessage());
+            } catch (Exception e) {
+                logger.error(e);
+                throw new BadRequestException("Error: invalid annotations body", e);
+            }
+        }
+    }
+
+    /**
+     * Cancels a query once its client disconnects or its deadline passes, so that abandoned scans
+     * stop early and free their worker thread.
+     */
+    private CancellationToken cancellation(
+            AdmissionController.Permit permit, HttpServerResponse response) {
+        CancellationToken cancellation = new CancellationToken(permit.getDeadline());
+        if (response != null) {
+            response.closeHandler(v -> cancellation.cancel("client disconnected"));
+            if (response.closed()) {
+                cancellation.cancel("client disconnected");
+            }
+        }
+        return cancellation;
     }
 
     @Path("/set")
     @POST
     @Produces(MediaType.TEXT_PLAIN)
-    @Blocking
-    public String set(String file) {
-        String filePath = jfrDir + File.separator + file;
-
-        return setFile(filePath, file, new StringBuilder());
+    public Uni<String> set(
+            String file,
+            @QueryParam("include") List<String> include,
+            @QueryParam("exclude") List<String> exclude) {
+        EventTypeSelection types = EventTypeSelection.of(include, exclude);
+        return requestExecutor.submit(
+                Lane.LOAD,
+                () -> {
+                    try (AdmissionController.Permit permit = admission.admit(Lane.LOAD)) {
+                        List<String> filenames = resolveFiles(file == null ? "" : file);
+                        if (filenames.isEmpty()) {
+                            throw new NotFoundException();
+                        }
+                        if (filenames.size() > 1) {
+                            return setFiles(filenames, types);
+                        }
+                        String filePath = jfrDir + File.separator + filenames.get(0);
+
+                        return setFile(filePath, filenames.get(0), new StringBuilder(), types);
+                    }
+                });
     }
 
     @Path("/upload")
     @POST
     @Produces(MediaType.TEXT_PLAIN)
-    @Blocking
-    public String upload(
+    public Uni<String> upload(
             @RestForm(FileUpload.ALL) List<FileUpload> files,
-            @QueryParam("overwrite") @DefaultValue("false") boolean overwrite)
-            throws IOException {
-        final StringBuilder responseBuilder = new StringBuilder();
-
-        uploadFiles(files, responseBuilder, overwrite);
-        return responseBuilder.toString();
+            @QueryParam("overwrite") @DefaultValue("false") boolean overwrite) {
+        return requestExecutor.submit(
+                Lane.LOAD,
+                () -> {
+                    try (AdmissionController.Permit permit = admission.admit(Lane.LOAD)) {
+                        final StringBuilder responseBuilder = new StringBuilder();
+
+                        uploadFiles(files, responseBuilder, overwrite);
+                        retention.sweepSoon();
+                        return responseBuilder.toString();
+                    }
+                });
     }
 
     @Path("/load")
     @Produces(MediaType.TEXT_PLAIN)
     @POST
-    @Blocking
-    public String load(
+    public Uni<String> load(
             @RestForm(FileUpload.ALL) List<FileUpload> files,
-            @QueryParam("overwrite") @DefaultValue("false") boolean overwrite)
-            throws IOException {
-        final StringBuilder responseBuilder = new StringBuilder();
-
-        String lastFile = uploadFiles(files, responseBuilder, overwrite);
-        String filePath = jfrDir + File.separator + lastFile;
-
-        return setFile(filePath, lastFile, responseBuilder);
+            @QueryParam("overwrite") @DefaultValue("false") boolean overwrite,
+            @QueryParam("include") List<String> include,
+            @QueryParam("exclude") List<String> exclude) {
+        EventTypeSelection types = EventTypeSelection.of(include, exclude);
+        return requestExecutor.submit(
+                Lane.LOAD,
+                () -> {
+                    try (AdmissionController.Permit permit = admission.admit(Lane.LOAD)) {
+                        final StringBuilder responseBuilder = new StringBuilder();
+
+                        String lastFile = uploadFiles(files, responseBuilder, overwrite);
+                        String filePath = jfrDir + File.separator + lastFile;
+
+                        String response = setFile(filePath, lastFile, responseBuilder, types);
+                        retention.sweepSoon();
+                        return response;
+                    }
+                });
     }
 
     @Path("/load_presigned")
     @POST
     @Produces(MediaType.TEXT_PLAIN)
     @Consumes(MediaType.MULTIPART_FORM_DATA)
-    @Blocking
-    public String loadPresigned(@BeanParam PresignedFormData form)
-            throws IOException, URISyntaxException {
-        return setFile(
-                presignedFileService.download(form.uri).toFile().getAbsolutePath(),
-                UUID.randomUUID().toString(),
-                new StringBuilder());
+    public Uni<String> loadPresigned(@BeanParam PresignedFormData form) {
+        EventTypeSelection types = EventTypeSelection.of(form.include, form.exclude);
+        return requestExecutor.submit(
+                Lane.LOAD,
+                () -> {
+                    try (AdmissionController.Permit permit = admission.admit(Lane.LOAD)) {
+                        String filename = UUID.randomUUID().toString();
+                        if (streamDownloads) {
+                            return streamPresigned(form.uri, filename, types);
+                        }
+                        java.nio.file.Path file = presignedFileService.download(form.uri);
+                        if (keepDownloads) {
+                            java.nio.file.Path kept = keepDownload(file, filename);
+                            return setFile(
+                                    kept.toString(), filename, new StringBuilder(), types);
+                        }
+                        try {
+                            logger.infov("Setting active file: {0} ({1})", filename, file);
+                            recordingService.loadEventsOnce(
+                                    file.toFile().getAbsolutePath(), types);
+                            setLoadedFile(filename);
+                            return "Set: " + filename + System.lineSeparator();
+                        } catch (IOException e) {
+                            logger.error(e);
+                            throw new NotFoundException(e);
+                        } finally {
+                            // The events are loaded, so the download is not needed any more
+                            presignedFileService.discard(file);
+                        }
+                    }
+                });
     }
 
     @Path("/list")
     @GET
     @Produces(MediaType.TEXT_PLAIN)
-    @Blocking
-    public String list() {
-        fileLock.lock();
-        try {
-            StringBuilder responseBuilder = new StringBuilder();
-            for (String filename : listFiles()) {
-                if (filename.equals(loadedFile)) {
-                    filename = String.format("**%s**", filename);
-                }
-                responseBuilder.append(filename);
-                responseBuilder.append(System.lineSeparator());
-            }
-            return responseBuilder.toString();
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
-            throw new InternalServerErrorException(e);
-        } finally {
-            fileLock.unlock();
-        }
+    public Uni<String> list() {
+        return requestExecutor.submit(
+                Lane.LOAD,
+                () -> {
+                    // A snapshot is enough, listing does not need to exclude deletes
+                    List<String> current = loadedFiles;
+                    try {
+                        StringBuilder responseBuilder = new StringBuilder();
+                        for (String filename : listFiles()) {
+                            if (current.contains(filename)) {
+                                filename = String.format("**%s**", filename);
+                            }
+                            responseBuilder.append(filename);
+                            responseBuilder.append(System.lineSeparator());
+                        }
+                        return responseBuilder.toString();
+                    } catch (IOException e) {
+                        logger.error(e.getMessage(), e);
+                        throw new InternalServerErrorException(e);
+                    }
+                });
     }
 
     @Path("/current")
     @GET
     @Produces(MediaType.TEXT_PLAIN)
+    @NonBlocking
     public String current() {
-        fileLock.lock();
-        try {
-            logger.infov("Current: {0}", loadedFile);
-            return loadedFile + System.lineSeparator();
-        } finally {
-            fileLock.unlock();
-        }
+        // Runs on the event loop, so read the volatile field rather than wait for the file lock
+        String current = loadedFile;
+        logger.infov("Current: {0}", current);
+        return current + System.lineSeparator();
     }
 
     @Path("/delete_all")
     @DELETE
     @Produces(MediaType.TEXT_PLAIN)
-    @Blocking
-    public String deleteAll() {
-        final StringBuilder stringBuilder = new StringBuilder();
-        try {
-            List<String> deletedFiles = deleteAllFiles();
-            for (String deletedFile : deletedFiles) {
-                stringBuilder.append("Deleted: " + deletedFile);
-                stringBuilder.append(System.lineSeparator());
-            }
-            return (stringBuilder.toString());
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
-            throw new InternalServerErrorException(e);
-        } finally {
-            setLoadedFile(UNSET_FILE);
-        }
+    public Uni<String> deleteAll() {
+        return requestExecutor.submit(
+                Lane.LOAD,
+                () -> {
+                    final StringBuilder stringBuilder = new StringBuilder();
+                    try {
+                        List<String> deletedFiles = deleteAllFiles();
+                        for (String deletedFile : deletedFiles) {
+                            stringBuilder.append("Deleted: " + deletedFile);
+                            stringBuilder.append(System.lineSeparator());
+                        }
+                        return (stringBuilder.toString());
+                    } catch (IOException e) {
+                        logger.error(e.getMessage(), e);
+                        throw new InternalServerErrorException(e);
+                    } finally {
+                        recordingService.unloadAll();
+                        setLoadedFile(UNSET_FILE);
+                    }
+                });
     }
 
     @Path("/delete")
     @DELETE
     @Produces(MediaType.TEXT_PLAIN)
-    @Blocking
-    public void delete(String fileName) {
-        if (fileName == null || fileName.isEmpty()) {
-            throw new BadRequestException();
-        } else {
-            fileLock.lock();
-            try {
-                deleteFile(fileName);
-                if (fileName.equals(loadedFile)) {
-                    setLoadedFile(UNSET_FILE);
-                }
-            } catch (FileNotFoundException e) {
-                logger.error(e.getMessage(), e);
-                throw new NotFoundException();
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
-                throw new InternalServerErrorException();
-            } finally {
-                fileLock.unlock();
-            }
-        }
+    public Uni<Void> delete(String fileName) {
+        return requestExecutor.submit(
+                Lane.LOAD,
+                () -> {
+                    if (fileName == null || fileName.isEmpty()) {
+                        throw new BadRequestException();
+                    }
+                    fileLock.lock();
+                    try {
+                        deleteFile(fileName);
+                        if (loadedFiles.contains(fileName)) {
+                            setLoadedFile(UNSET_FILE);
+                        }
+                    } catch (FileNotFoundException e) {
+                        logger.error(e.getMessage(), e);
+                        throw new NotFoundException();
+                    } catch (IOException e) {
+                        logger.error(e.getMessage(), e);
+                        throw new InternalServerErrorException();
+                    } finally {
+                        fileLock.unlock();
+                    }
+                    return null;
+                });
     }
 
     private List<String> listFiles() throws IOException {
@@ -306,22 +480,85 @@ public class Datasource {
     private String uploadFiles(
             List<FileUpload> uploads, StringBuilder responseBuilder, boolean overwrite)
             throws IOException {
-        String lastFile = "";
-        for (FileUpload fileUpload : uploads) {
+        UploadStage stage = new UploadStage(responseBuilder, overwrite);
+        try {
+            uploadPipeline.process(uploads, stage);
+        } finally {
+            if (overwrite) {
+                contentStore.prune();
+            }
+        }
+        return stage.lastFile;
+    }
+
+    private record PreparedUpload(
+            String uploadedFile,
+            java.nio.file.Path source,
+            java.nio.file.Path stored,
+            AtomicBoolean pending) {
+
+        // Lets the stored content be pruned once it has a name, or is not going to get one
+        void release(ContentStore contentStore) {
+            if (stored != null && pending.compareAndSet(true, false)) {
+                contentStore.release(stored);
+            }
+        }
+    }
+
+    private final class UploadStage implements UploadPipeline.Stage<FileUpload, PreparedUpload> {
+        private final StringBuilder responseBuilder;
+        private final boolean overwrite;
+        private String lastFile = "";
+
+        UploadStage(StringBuilder responseBuilder, boolean overwrite) {
+            this.responseBuilder = responseBuilder;
+            this.overwrite = overwrite;
+        }
+
+        @Override
+        public PreparedUpload prepare(FileUpload fileUpload) throws IOException {
             Pair<String, java.nio.file.Path> pairHelper = uploadHelper(fileUpload);
-            String uploadedFile = pairHelper.left;
             java.nio.file.Path source = pairHelper.right;
+            try {
+                return new PreparedUpload(
+                        pairHelper.left, source, contentStore.add(source), new AtomicBoolean(true));
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(source);
+                throw e;
+            }
+        }
+
+        @Override
+        public void commit(FileUpload fileUpload, PreparedUpload prepared) throws IOException {
+            try {
+                link(fileUpload, prepared);
+            } finally {
+                prepared.release(contentStore);
+            }
+        }
+
+        private void link(FileUpload fileUpload, PreparedUpload prepared) throws IOException {
+            String uploadedFile = prepared.uploadedFile();
+            java.nio.file.Path source = prepared.source();
+            java.nio.file.Path stored = prepared.stored();
             lastFile = uploadedFile;
-            java.nio.file.Path dest = source.resolveSibling(fileUpload.fileName());
+            java.nio.file.Path dir = fsService.pathOf(jfrDir);
+            java.nio.file.Path dest = dir.resolve(fileUpload.fileName());
 
             if (fsService.exists(dest)) {
+                if (stored != null && fsService.isSameFile(dest, stored)) {
+                    logger.infov("{0} exists with the same content", fileUpload.fileName());
+                    logUploadedFile(fileUpload.fileName(), responseBuilder);
+                    lastFile = fileUpload.fileName();
+                    return;
+                }
                 if (overwrite) {
                     logger.infov("{0} exists and will be overwritten.", fileUpload.fileName());
                 } else {
                     int attempts = 0;
                     while (fsService.exists(dest) && attempts < 10) {
                         dest =
-                                source.resolveSibling(
+                                dir.resolve(
                                         UUID.randomUUID().toString() + '-' + fileUpload.fileName());
                         attempts++;
                     }
@@ -329,7 +566,9 @@ public class Datasource {
             }
 
             try {
-                if (overwrite) {
+                if (stored != null) {
+                    contentStore.link(stored, dest, overwrite);
+                } else if (overwrite) {
                     fsService.move(source, dest, StandardCopyOption.REPLACE_EXISTING);
                 } else {
                     fsService.move(source, dest);
@@ -342,13 +581,19 @@ public class Datasource {
             }
         }
 
-        return lastFile;
+        @Override
+        public void discard(PreparedUpload prepared) throws IOException {
+            // Stored content without a name is left for the next prune
+            prepared.release(contentStore);
+            if (prepared.stored() == null) {
+                Files.deleteIfExists(prepared.source());
+            }
+        }
     }
 
     private Pair<String, java.nio.file.Path> uploadHelper(FileUpload fileUpload)
             throws IOException {
         java.nio.file.Path source = fileUpload.filePath();
-        long timeout = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(timeoutMs));
         String uploadedFile = source.getFileName().toString();
         long start = System.nanoTime();
         long now = start;
@@ -357,7 +602,16 @@ public class Datasource {
         logger.infov(
                 "Received request for {0} ({1} bytes)", fileUpload.fileName(), fileUpload.size());
 
-        if (IOToolkit.isCompressedFile(source.toFile())) {
+        if (compressAtRest()) {
+            source = compress(source);
+            now = System.nanoTime();
+            elapsed = now - start;
+            logger.infov(
+                    "{0} was stored compressed. Compressed size: {1} bytes. Compression took {2}ms",
+                    fileUpload.fileName(),
+                    source.toFile().length(),
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+        } else if (IOToolkit.isCompressedFile(source.toFile())) {
             source = decompress(source);
             now = System.nanoTime();
             elapsed = now - start;
@@ -367,12 +621,6 @@ public class Datasource {
                     source.toFile().length(),
                     TimeUnit.NANOSECONDS.toMillis(elapsed));
         }
-
-        now = System.nanoTime();
-        elapsed = now - start;
-        if (elapsed > timeout) {
-            throw new ServerErrorException(Response.Status.BAD_GATEWAY);
-        }
         return new Pair<>(uploadedFile, source);
     }
 
@@ -381,6 +629,31 @@ public class Datasource {
         try (var stream = IOToolkit.openUncompressedStream(source.toFile())) {
             Files.copy(stream, tmp, StandardCopyOption.REPLACE_EXISTING);
             return tmp;
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        } finally {
+            Files.deleteIfExists(source);
+        }
+    }
+
+    private boolean compressAtRest() {
+        return "gzip".equalsIgnoreCase(storageCompression);
+    }
+
+    // Transcodes the recording, compressed or not, into one gzip member per JFR chunk, so it stays
+    // compressed on disk while single chunks can still be located and inflated on their own
+    private java.nio.file.Path compress(java.nio.file.Path source) throws IOException {
+        if (ChunkedGzip.isChunked(source)) {
+            return source;
+        }
+        java.nio.file.Path tmp = Files.createTempFile(null, null);
+        try (var stream = IOToolkit.openUncompressedStream(source.toFile())) {
+            ChunkedGzip.compress(stream, tmp, Deflater.BEST_SPEED);
+            return tmp;
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
         } finally {
             Files.deleteIfExists(source);
         }
@@ -393,18 +666,29 @@ public class Datasource {
     }
 
     private void setLoadedFile(String filename) {
+        setLoadedFiles(filename.isEmpty() ? List.of() : List.of(filename));
+    }
+
+    private void setLoadedFiles(List<String> filenames) {
         fileLock.lock();
         try {
-            this.loadedFile = filename;
+            this.loadedFiles = List.copyOf(filenames);
+            this.loadedFile = String.join(System.lineSeparator(), filenames);
+            retention.select(filenames);
         } finally {
             fileLock.unlock();
         }
     }
 
-    private String setFile(String absolutePath, String filename, StringBuilder responseBuilder) {
+    private String setFile(
+            String absolutePath,
+            String filename,
+            StringBuilder responseBuilder,
+            EventTypeSelection types) {
+        retention.pin(filename);
         try {
             logger.infov("Setting active file: {0} ({1})", filename, absolutePath);
-            recordingService.loadEvents(absolutePath);
+            recordingService.loadEvents(absolutePath, types);
             responseBuilder.append("Set: " + filename);
             responseBuilder.append(System.lineSeparator());
             setLoadedFile(filename);
@@ -412,6 +696,110 @@ public class Datasource {
         } catch (IOException e) {
             logger.error(e);
             throw new NotFoundException(e);
+        } finally {
+            retention.unpin(filename);
+        }
+    }
+
+    private String setFiles(List<String> filenames, EventTypeSelection types) {
+        List<String> absolutePaths = new ArrayList<>();
+        for (String filename : filenames) {
+            retention.pin(filename);
+            absolutePaths.add(jfrDir + File.separator + filename);
+        }
+        try {
+            logger.infov("Setting active files: {0}", filenames);
+            recordingService.loadEvents(absolutePaths, types);
+            StringBuilder responseBuilder = new StringBuilder();
+            for (String filename : filenames) {
+                responseBuilder.append("Set: " + filename);
+                responseBuilder.append(System.lineSeparator());
+            }
+            setLoadedFiles(filenames);
+            return responseBuilder.toString();
+        } catch (IOException e) {
+            logger.error(e);
+            throw new NotFoundException(e);
+        } finally {
+            for (String filename : filenames) {
+                retention.unpin(filename);
+            }
+        }
+    }
+
+    /**
+     * Resolves the files to select, given one name or glob pattern per line. Patterns match the
+     * names of uploaded files, in name order.
+     */
+    private List<String> resolveFiles(String spec) throws IOException {
+        Set<String> filenames = new LinkedHashSet<>();
+        List<String> uploaded = null;
+        for (String line : spec.split("\\R")) {
+            String pattern = line.strip();
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            if (!isGlob(pattern)) {
+                filenames.add(pattern);
+                continue;
+            }
+            if (uploaded == null) {
+                uploaded = listFiles();
+                uploaded.sort(null);
+            }
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            for (String filename : uploaded) {
+                if (matcher.matches(java.nio.file.Path.of(filename))) {
+                    filenames.add(filename);
+                }
+            }
+        }
+        return new ArrayList<>(filenames);
+    }
+
+    private static boolean isGlob(String pattern) {
+        for (char c : new char[] {'*', '?', '[', '{'}) {
+            if (pattern.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String streamPresigned(URI uri, String filename, EventTypeSelection types)
+            throws IOException {
+        java.nio.file.Path tee = keepDownloads ? fsService.createTempFile() : null;
+        try {
+            presignedFileService.stream(
+                    uri, tee, stream -> recordingService.loadEvents(stream, filename, types));
+            if (tee != null) {
+                keepDownload(tee, filename);
+                tee = null;
+            }
+        } finally {
+            if (tee != null) {
+                presignedFileService.discard(tee);
+            }
+        }
+        setLoadedFile(filename);
+        return "Set: " + filename + System.lineSeparator();
+    }
+
+    private java.nio.file.Path keepDownload(java.nio.file.Path file, String filename)
+            throws IOException {
+        try {
+            java.nio.file.Path dir = fsService.pathOf(jfrDir);
+            fsService.createDirectories(dir);
+            if (compressAtRest()) {
+                file = compress(file);
+            }
+            java.nio.file.Path kept = fsService.move(file, dir.resolve(filename));
+            logger.infov("Kept download as {0}", filename);
+            retention.sweepSoon();
+            return kept;
+        } catch (IOException e) {
+            presignedFileService.discard(file);
+            throw e;
         }
     }
 
@@ -426,6 +814,7 @@ public class Datasource {
                     logger.infov("Deleted: {0}", f.getFileSystem().toString());
                 }
             }
+            contentStore.prune();
             setLoadedFile(UNSET_FILE);
         }
         return deleteFiles;
@@ -437,10 +826,13 @@ public class Datasource {
             java.nio.file.Path dir = fsService.pathOf(jfrDir);
 
             if (fsService.exists(dir) && fsService.isDirectory(dir)) {
-                if (fsService.deleteIfExists(
-                        fsService.pathOf(dir.toAbsolutePath().toString(), filename))) {
+                java.nio.file.Path file =
+                        fsService.pathOf(dir.toAbsolutePath().toString(), filename);
+                if (fsService.deleteIfExists(file)) {
                     logger.infov("Deleted: {0}", filename);
-                    if (filename.equals(loadedFile)) {
+                    contentStore.prune();
+                    recordingService.unload(file.toString());
+                    if (loadedFiles.contains(filename)) {
                         setLoadedFile(UNSET_FILE);
                     }
                 } else {
@@ -0,0 +1,50 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Request body for stack trace aggregation, e.g. {@code {"target": "jdk.ExecutionSample",
+ * "weight": "weight", "range": {"from": "...", "to": "..."}}}. The weight field is optional, in
+ * which case every event counts once.
+ */
+public record FlameGraphQuery(JsonObject body) {
+
+    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ISO_INSTANT;
+
+    public Optional<String> getTarget() {
+        return Optional.ofNullable(body.getString("target")).filter(t -> !t.isBlank());
+    }
+
+    public Optional<String> getWeight() {
+        return Optional.ofNullable(body.getString("weight")).filter(w -> !w.isBlank());
+    }
+
+    public long getFrom() {
+        return Instant.from(dateFormat.parse(body.getJsonObject("range").getString("from")))
+                .toEpochMilli();
+    }
+
+    public long getTo() {
+        return Instant.from(dateFormat.parse(body.getJsonObject("range").getString("to")))
+                .toEpochMilli();
+    }
+}
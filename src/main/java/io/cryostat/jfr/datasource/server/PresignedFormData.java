@@ -16,7 +16,9 @@
 package io.cryostat.jfr.datasource.server;
 
 import java.net.URI;
+import java.util.List;
 
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import org.jboss.resteasy.reactive.PartType;
 import org.jboss.resteasy.reactive.RestForm;
@@ -25,4 +27,10 @@ public class PresignedFormData {
     @RestForm
     @PartType(MediaType.TEXT_PLAIN)
     public URI uri;
+
+    @QueryParam("include")
+    public List<String> include;
+
+    @QueryParam("exclude")
+    public List<String> exclude;
 }
@@ -37,11 +37,20 @@ public record Query(JsonObject query) {
         JsonArray targets = this.query.getJsonArray("targets");
         for (int i = 0; i < targets.size(); i++) {
             JsonObject target = targets.getJsonObject(i);
-            Target t = new Target(target.getString("target"), target.getString("type"));
+            Target t =
+                    new Target(
+                            target.getString("target"),
+                            target.getString("type"),
+                            target.getJsonObject("data"));
             consumer.accept(t);
         }
     }
 
+    /** The interval between datapoints requested by Grafana, or 0 if unspecified */
+    public long getIntervalMs() {
+        return this.query.getLong("intervalMs", 0L);
+    }
+
     public long getFrom() {
         TemporalAccessor accessor =
                 dateFormat.parse(this.query.getJsonObject("range").getString("from"));
@@ -0,0 +1,130 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.cryostat.jfr.datasource.server.AdmissionController.Lane;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Runs request work off the event loop, on an executor configured per {@link Lane}. Only the
+ * finished response is handed back to the event loop to be written, so that requests neither
+ * block the event loop nor, unless configured to, hold a thread of the shared worker pool.
+ */
+@ApplicationScoped
+public class RequestExecutor {
+
+    /** Where request work runs */
+    public enum Mode {
+        /** The shared Quarkus worker pool, as for blocking endpoints */
+        WORKER,
+        /** A dedicated pool of platform threads */
+        COMPUTE,
+        /** A new virtual thread per request */
+        VIRTUAL
+    }
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.query.execution", defaultValue = "worker")
+    Mode queryMode;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.query.compute-threads", defaultValue = "0")
+    int queryComputeThreads;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.load.execution", defaultValue = "worker")
+    Mode loadMode;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.load.compute-threads", defaultValue = "0")
+    int loadComputeThreads;
+
+    @Inject Logger logger;
+
+    // Owned executors, absent for lanes running on the worker pool
+    private final Map<Lane, ExecutorService> executors = new EnumMap<>(Lane.class);
+
+    void onStart(@Observes StartupEvent evt) {
+        start(Lane.QUERY, queryMode, queryComputeThreads);
+        start(Lane.LOAD, loadMode, loadComputeThreads);
+    }
+
+    private void start(Lane lane, Mode mode, int computeThreads) {
+        String prefix = "jfr-datasource-" + lane.name().toLowerCase() + "-";
+        switch (mode) {
+            case COMPUTE:
+                int threads =
+                        computeThreads > 0
+                                ? computeThreads
+                                : Runtime.getRuntime().availableProcessors();
+                logger.infov("Running {0} requests on {1} compute threads", lane, threads);
+                executors.put(
+                        lane,
+                        Executors.newFixedThreadPool(
+                                threads, Thread.ofPlatform().name(prefix, 0).daemon().factory()));
+                break;
+            case VIRTUAL:
+                logger.infov("Running {0} requests on virtual threads", lane);
+                executors.put(
+                        lane,
+                        Executors.newThreadPerTaskExecutor(
+                                Thread.ofVirtual().name(prefix, 0).factory()));
+                break;
+            default:
+                break;
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent evt) {
+        for (ExecutorService executor : executors.values()) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the result of the work, computed on the lane's executor once subscribed to. An
+     *     exception thrown by the work fails the result.
+     */
+    public <T> Uni<T> submit(Lane lane, Callable<T> work) {
+        return Uni.createFrom()
+                .<T>emitter(
+                        emitter -> {
+                            try {
+                                emitter.complete(work.call());
+                            } catch (Exception e) {
+                                emitter.fail(e);
+                            }
+                        })
+                .runSubscriptionOn(executor(lane));
+    }
+
+    private Executor executor(Lane lane) {
+        ExecutorService executor = executors.get(lane);
+        return executor != null ? executor : Infrastructure.getDefaultWorkerPool();
+    }
+}
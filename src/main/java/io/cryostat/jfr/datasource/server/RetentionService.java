@@ -0,0 +1,250 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.cryostat.jfr.datasource.events.RecordingService;
+import io.cryostat.jfr.datasource.sys.ContentStore;
+import io.cryostat.jfr.datasource.sys.FileSystemService;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Keeps the upload directory within a total size, file count and file age by deleting the least
+ * recently selected recordings in the background. Recordings that were never selected count as
+ * used when they were uploaded. The selected recording and recordings being loaded are never
+ * deleted.
+ */
+@ApplicationScoped
+public class RetentionService {
+
+    @ConfigProperty(name = "quarkus.http.body.uploads-directory")
+    String jfrDir;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.retention.max-bytes", defaultValue = "0")
+    long maxBytes;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.retention.max-files", defaultValue = "0")
+    int maxFiles;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.retention.max-age", defaultValue = "0")
+    Duration maxAge;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.retention.interval", defaultValue = "60")
+    Duration interval;
+
+    @Inject FileSystemService fsService;
+    @Inject ContentStore contentStore;
+    @Inject RecordingService recordingService;
+    @Inject Logger logger;
+
+    // Last selection time by file name, in epoch milliseconds
+    private final Map<String, Long> lastAccess = new ConcurrentHashMap<>();
+    // Files being loaded, with the number of loads in progress
+    private final Map<String, Integer> pinned = new ConcurrentHashMap<>();
+    private volatile Set<String> selected = Set.of();
+    // Held while protecting files, and while sweeps check and delete each file
+    private final ReentrantLock lock = new ReentrantLock();
+    private ScheduledExecutorService scheduler;
+
+    void onStart(@Observes StartupEvent evt) {
+        if (maxBytes <= 0 && maxFiles <= 0 && !isPositive(maxAge)) {
+            return;
+        }
+        scheduler =
+                Executors.newSingleThreadScheduledExecutor(
+                        Thread.ofPlatform().name("jfr-datasource-retention").daemon().factory());
+        long period = Math.max(1, interval.toMillis());
+        scheduler.scheduleWithFixedDelay(this::sweepQuietly, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    void onStop(@Observes ShutdownEvent evt) {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /** Records that a file was selected, which protects it and makes it the most recently used. */
+    public void select(String filename) {
+        select(filename.isEmpty() ? List.of() : List.of(filename));
+    }
+
+    /** Records that files were selected together, replacing the previous selection. */
+    public void select(List<String> filenames) {
+        lock.lock();
+        try {
+            selected = Set.copyOf(filenames);
+            long now = System.currentTimeMillis();
+            for (String filename : filenames) {
+                lastAccess.put(filename, now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Protects a file from deletion until it is {@link #unpin unpinned}. Waits for a sweep that is
+     * deleting the file, so the file is either protected or already gone once this returns.
+     */
+    public void pin(String filename) {
+        lock.lock();
+        try {
+            pinned.merge(filename, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unpin(String filename) {
+        pinned.computeIfPresent(filename, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /** Schedules a sweep without waiting for the next interval, e.g. after an upload. */
+    public void sweepSoon() {
+        if (scheduler != null) {
+            scheduler.execute(this::sweepQuietly);
+        }
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Retention sweep failed", e);
+        }
+    }
+
+    void sweep() throws IOException {
+        Path dir = fsService.pathOf(jfrDir);
+        if (!fsService.isDirectory(dir)) {
+            return;
+        }
+        List<StoredFile> files = new ArrayList<>();
+        for (Path path : fsService.list(dir)) {
+            if (!fsService.isRegularFile(path)) {
+                continue;
+            }
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            String name = path.getFileName().toString();
+            files.add(
+                    new StoredFile(
+                            name,
+                            attributes.fileKey() != null ? attributes.fileKey() : name,
+                            attributes.size(),
+                            lastAccess.getOrDefault(
+                                    name, attributes.lastModifiedTime().toMillis())));
+        }
+        Set<String> names = new HashSet<>();
+        files.forEach(file -> names.add(file.name()));
+        lastAccess.keySet().retainAll(names);
+
+        boolean evicted = false;
+        for (StoredFile file : plan(files, System.currentTimeMillis())) {
+            Path path = dir.resolve(file.name());
+            lock.lock();
+            try {
+                // Selected or pinned since the plan was made
+                if (isProtected(file.name()) || !fsService.deleteIfExists(path)) {
+                    continue;
+                }
+                lastAccess.remove(file.name());
+                recordingService.unload(path.toString());
+            } finally {
+                lock.unlock();
+            }
+            evicted = true;
+            logger.infov(
+                    "Retention deleted {0} ({1} bytes, last used at {2,number,#})",
+                    file.name(), file.size(), file.lastAccess());
+        }
+        if (evicted) {
+            contentStore.prune();
+        }
+    }
+
+    /**
+     * Picks the files to delete, least recently used first, until the remaining files are within
+     * the limits. Names of the same content count its size once, and free it with the last name.
+     */
+    List<StoredFile> plan(List<StoredFile> files, long now) {
+        Map<Object, Integer> names = new HashMap<>();
+        long bytes = 0;
+        for (StoredFile file : files) {
+            if (names.merge(file.key(), 1, Integer::sum) == 1) {
+                bytes += file.size();
+            }
+        }
+        int count = files.size();
+
+        List<StoredFile> candidates = new ArrayList<>(files);
+        candidates.sort(Comparator.comparingLong(StoredFile::lastAccess));
+        List<StoredFile> evict = new ArrayList<>();
+        for (StoredFile file : candidates) {
+            boolean expired = isPositive(maxAge) && now - file.lastAccess() > maxAge.toMillis();
+            boolean overCount = maxFiles > 0 && count > maxFiles;
+            boolean overBytes = maxBytes > 0 && bytes > maxBytes;
+            if (!(expired || overCount || overBytes) || isProtected(file.name())) {
+                continue;
+            }
+            evict.add(file);
+            count--;
+            if (names.merge(file.key(), -1, Integer::sum) == 0) {
+                bytes -= file.size();
+            }
+        }
+        return evict;
+    }
+
+    private boolean isProtected(String filename) {
+        return selected.contains(filename) || pinned.containsKey(filename);
+    }
+
+    private static boolean isPositive(Duration duration) {
+        return !duration.isNegative() && !duration.isZero();
+    }
+
+    record StoredFile(String name, Object key, long size, long lastAccess) {}
+}
@@ -15,18 +15,32 @@
  */
 package io.cryostat.jfr.datasource.server;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 import io.cryostat.jfr.datasource.utils.InvalidQueryException;
 
+import io.vertx.core.json.JsonObject;
+
 public class Target {
     private final String targetIdentifier;
     private final String type;
     private final Map<String, Set<String>> targetOptions;
+    private final String eventType;
+    private final List<String> fields;
+    private final Optional<String> orderBy;
+    private final boolean descending;
+    private final Optional<Integer> limit;
+    private final int offset;
+    private final Optional<Aggregate> aggregate;
 
     public static final String durationTargetIdentifier = "events.custom.recordingDuration";
     public static final String startTimeTargetIdentifier = "events.custom.startTime";
@@ -45,12 +59,80 @@ public class Target {
         }
     }
 
+    /** Aggregations of timeseries values per interval bucket */
+    public enum Aggregate {
+        COUNT,
+        SUM,
+        MIN,
+        MAX,
+        AVG,
+        P50(0.5),
+        P90(0.9),
+        P95(0.95),
+        P99(0.99);
+
+        private final double quantile;
+
+        Aggregate() {
+            this(Double.NaN);
+        }
+
+        Aggregate(double quantile) {
+            this.quantile = quantile;
+        }
+
+        public boolean isQuantile() {
+            return !Double.isNaN(quantile);
+        }
+
+        public double getQuantile() {
+            return this.quantile;
+        }
+    }
+
+    public static final String TIME_COLUMN = "Time";
+
     private static final String PARAM_SEPARATOR = "&";
+    private static final String FIELDS_START = "{";
+    private static final String FIELDS_END = "}";
+    private static final String FIELDS_SEPARATOR = ",";
 
     public Target(String target, String type) throws InvalidQueryException {
+        this(target, type, new JsonObject());
+    }
+
+    /**
+     * @param target the target expression, either {@code eventType.field} or {@code
+     *     eventType{field1,field2,...}}, optionally followed by {@code ?} and parameters
+     * @param type the Grafana target type, i.e. "timeserie" or "table"
+     * @param data additional per-target data. Table targets accept "orderBy", "desc", "limit" and
+     *     "offset". Timeseries targets accept "aggregate", to aggregate values per query interval.
+     */
+    public Target(String target, String type, JsonObject data) throws InvalidQueryException {
         this.targetIdentifier = parseTargetIdentifier(target);
         this.targetOptions = parseTargetOptions(target);
         this.type = type;
+        this.eventType = parseEventType(targetIdentifier);
+        this.fields = parseFields(targetIdentifier);
+
+        JsonObject tableData = data == null ? new JsonObject() : data;
+        this.orderBy = Optional.ofNullable(tableData.getString("orderBy"));
+        this.descending = tableData.getBoolean("desc", false);
+        this.limit = Optional.ofNullable(tableData.getInteger("limit"));
+        this.offset = tableData.getInteger("offset", 0);
+        this.aggregate = parseAggregate(tableData.getString("aggregate"));
+
+        if (orderBy.isPresent()
+                && !orderBy.get().equals(TIME_COLUMN)
+                && !fields.contains(orderBy.get())) {
+            throw new InvalidQueryException("orderBy");
+        }
+        if (limit.isPresent() && limit.get() < 0) {
+            throw new InvalidQueryException("limit");
+        }
+        if (offset < 0) {
+            throw new InvalidQueryException("offset");
+        }
     }
 
     public String getTargetIdentifier() {
@@ -65,11 +147,82 @@ public class Target {
         return this.targetOptions;
     }
 
+    /** The event type name, e.g. "jdk.ThreadPark" */
+    public String getEventType() {
+        return this.eventType;
+    }
+
+    /** The requested event fields, in column order */
+    public List<String> getFields() {
+        return this.fields;
+    }
+
+    public Optional<String> getOrderBy() {
+        return this.orderBy;
+    }
+
+    public boolean isDescending() {
+        return this.descending;
+    }
+
+    public Optional<Integer> getLimit() {
+        return this.limit;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    public Optional<Aggregate> getAggregate() {
+        return this.aggregate;
+    }
+
+    private Optional<Aggregate> parseAggregate(String aggregate) throws InvalidQueryException {
+        if (aggregate == null || aggregate.isBlank()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Aggregate.valueOf(aggregate.strip().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidQueryException("aggregate");
+        }
+    }
+
     private String parseTargetIdentifier(String target) {
         final int idx = target.indexOf("?");
         return idx >= 0 ? target.substring(0, target.indexOf("?")) : target;
     }
 
+    private String parseEventType(String identifier) {
+        final int idx = identifier.indexOf(FIELDS_START);
+        if (idx >= 0) {
+            return identifier.substring(0, idx);
+        }
+        return identifier.substring(0, Math.max(identifier.lastIndexOf("."), 0));
+    }
+
+    private List<String> parseFields(String identifier) throws InvalidQueryException {
+        final int idx = identifier.indexOf(FIELDS_START);
+        if (idx < 0) {
+            return Collections.singletonList(
+                    identifier.substring(identifier.lastIndexOf(".") + 1));
+        }
+        if (!identifier.endsWith(FIELDS_END)) {
+            throw new InvalidQueryException(identifier);
+        }
+        final List<String> fields = new ArrayList<>();
+        for (String field :
+                identifier.substring(idx + 1, identifier.length() - 1).split(FIELDS_SEPARATOR)) {
+            if (!field.isBlank()) {
+                fields.add(field.strip());
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new InvalidQueryException(identifier);
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
     private Map<String, Set<String>> parseTargetOptions(String target)
             throws InvalidQueryException {
         target = target.replaceAll("\\\\", ""); // Remove escapes
@@ -0,0 +1,218 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ServerErrorException;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Prepares the files of multipart uploads concurrently on a bounded pool, e.g. decompressing and
+ * hashing them, while committing them one at a time in upload order. Each request keeps at most as
+ * many files in preparation as the pool has threads, so that a large batch neither holds more
+ * prepared temporary files than that nor queues ahead of every other upload. Every file gets the
+ * configured timeout to be prepared in, counted from when its preparation starts.
+ */
+@ApplicationScoped
+public class UploadPipeline {
+
+    /** The work done for every file of an upload */
+    public interface Stage<S, T> {
+        /** Prepares a file, on a thread of the pool. Interrupted once the file times out. */
+        T prepare(S source) throws IOException;
+
+        /** Commits a prepared file, on the requesting thread, in upload order. */
+        void commit(S source, T prepared) throws IOException;
+
+        /** Cleans up a prepared file that will not be committed. */
+        void discard(T prepared) throws IOException;
+    }
+
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int CANCELLED = 3;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.upload.parallelism", defaultValue = "0")
+    int parallelism;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.timeout", defaultValue = "29000")
+    long timeoutMs;
+
+    @Inject Logger logger;
+
+    private ExecutorService executor;
+    private int threads;
+
+    void onStart(@Observes StartupEvent evt) {
+        start();
+    }
+
+    void start() {
+        threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        executor =
+                Executors.newFixedThreadPool(
+                        threads,
+                        Thread.ofPlatform().name("jfr-datasource-upload-", 0).daemon().factory());
+    }
+
+    void onStop(@Observes ShutdownEvent evt) {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Prepares and commits every source. If a source fails or times out, sources not yet
+     * committed are cancelled or discarded and the failure is rethrown.
+     */
+    public <S, T> void process(List<S> sources, Stage<S, T> stage) throws IOException {
+        Deque<Task<S, T>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < sources.size() || !inFlight.isEmpty()) {
+                while (next < sources.size() && inFlight.size() < threads) {
+                    inFlight.add(submit(sources.get(next++), stage));
+                }
+                Task<S, T> task = inFlight.peek();
+                T prepared = await(task);
+                inFlight.poll();
+                try {
+                    stage.commit(task.source, prepared);
+                } catch (IOException | RuntimeException e) {
+                    stage.discard(prepared);
+                    throw e;
+                }
+            }
+        } finally {
+            for (Task<S, T> task : inFlight) {
+                abandon(task, stage);
+            }
+        }
+    }
+
+    private <S, T> Task<S, T> submit(S source, Stage<S, T> stage) {
+        Task<S, T> task = new Task<>(source);
+        task.future =
+                executor.submit(
+                        () -> {
+                            if (!task.state.compareAndSet(NEW, RUNNING)) {
+                                return null;
+                            }
+                            task.deadline =
+                                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+                            task.started = true;
+                            T prepared = stage.prepare(source);
+                            if (!task.state.compareAndSet(RUNNING, DONE)) {
+                                // Timed out or abandoned while finishing up
+                                stage.discard(prepared);
+                                return null;
+                            }
+                            return prepared;
+                        });
+        return task;
+    }
+
+    private <S, T> T await(Task<S, T> task) throws IOException {
+        long poll = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            long wait = task.started ? task.deadline - System.nanoTime() : poll;
+            try {
+                if (wait > 0) {
+                    return task.future.get(wait, TimeUnit.NANOSECONDS);
+                }
+            } catch (TimeoutException e) {
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+            if (task.state.compareAndSet(RUNNING, CANCELLED)) {
+                task.future.cancel(true);
+                logger.errorv("Preparing an upload timed out after {0}ms", timeoutMs);
+                throw new ServerErrorException(Response.Status.BAD_GATEWAY);
+            }
+            // Finished just in time
+            task.started = false;
+        }
+    }
+
+    private <S, T> void abandon(Task<S, T> task, Stage<S, T> stage) {
+        if (task.state.compareAndSet(NEW, CANCELLED)
+                || task.state.compareAndSet(RUNNING, CANCELLED)) {
+            task.future.cancel(true);
+            return;
+        }
+        if (task.state.get() == CANCELLED) {
+            return;
+        }
+        try {
+            T prepared = task.future.get();
+            if (prepared != null) {
+                stage.discard(prepared);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException | IOException e) {
+            logger.warn(e);
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static final class Task<S, T> {
+        final S source;
+        final AtomicInteger state = new AtomicInteger(NEW);
+        Future<T> future;
+        volatile boolean started;
+        volatile long deadline;
+
+        Task(S source) {
+            this.source = source;
+        }
+    }
+}
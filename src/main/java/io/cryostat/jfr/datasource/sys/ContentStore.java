@@ -0,0 +1,176 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.sys;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Stores uploaded recordings once per distinct content, in a hidden directory of the upload
+ * directory named by the SHA-256 of the content. Every name a recording is uploaded under is a
+ * hard link to its stored copy, so all names of the same content share one file, and with it the
+ * file identity that loaded events are cached by.
+ *
+ * <p>Content that has been added but is not linked under a name yet is pending, and is never
+ * pruned, however many names it has.
+ */
+@ApplicationScoped
+public class ContentStore {
+
+    static final String STORE_DIR = ".cas";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    @ConfigProperty(name = "quarkus.http.body.uploads-directory")
+    String jfrDir;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.storage.dedupe", defaultValue = "true")
+    boolean enabled;
+
+    @Inject FileSystemService fsService;
+    @Inject Logger logger;
+
+    // Cleared on the first file system that turns out not to support hard links
+    private volatile boolean linksSupported = true;
+
+    // Guards adding content against pruning it, and the pending counts
+    private final ReentrantLock lock = new ReentrantLock();
+    // Adds of stored content that have not been released yet, by stored content
+    private final Map<Path, Integer> pending = new HashMap<>();
+
+    /**
+     * Moves a file into the store, unless content equal to it is stored already, in which case
+     * the file is deleted. The stored content is pending until it is {@link #release}d, which the
+     * caller must do once it has been linked or is no longer needed.
+     *
+     * @return the stored copy of the content, or null if the file was left as it is because
+     *     deduplication is disabled or unsupported
+     */
+    public Path add(Path source) throws IOException {
+        if (!enabled || !linksSupported) {
+            return null;
+        }
+        String digest = digest(source);
+        Path dir = fsService.pathOf(jfrDir, STORE_DIR);
+        fsService.createDirectories(dir);
+        Path stored = dir.resolve(digest);
+        boolean duplicate = true;
+        lock.lock();
+        try {
+            if (!fsService.exists(stored)) {
+                try {
+                    fsService.move(source, stored);
+                    duplicate = false;
+                } catch (FileAlreadyExistsException e) {
+                    // Stored by a concurrent upload of the same content
+                }
+            }
+            pending.merge(stored, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+        if (duplicate) {
+            logger.infov("Upload {0} is a duplicate of stored content {1}", source, digest);
+            fsService.deleteIfExists(source);
+        }
+        return stored;
+    }
+
+    /** Ends one add of stored content, which may be pruned again once no add is pending. */
+    public void release(Path stored) {
+        lock.lock();
+        try {
+            pending.computeIfPresent(stored, (k, count) -> count > 1 ? count - 1 : null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes stored content available under the given name.
+     *
+     * @param replace whether to replace a file existing under that name
+     */
+    public void link(Path stored, Path name, boolean replace) throws IOException {
+        if (replace) {
+            fsService.deleteIfExists(name);
+        }
+        try {
+            fsService.createLink(name, stored);
+        } catch (UnsupportedOperationException e) {
+            logger.warnv("Hard links are not supported in {0}, not deduplicating uploads", jfrDir);
+            linksSupported = false;
+            fsService.move(stored, name);
+        }
+    }
+
+    /** Deletes stored content that is no longer linked under any name, and is not pending. */
+    public void prune() throws IOException {
+        Path dir = fsService.pathOf(jfrDir, STORE_DIR);
+        if (!fsService.isDirectory(dir)) {
+            return;
+        }
+        for (Path stored : fsService.list(dir)) {
+            lock.lock();
+            try {
+                if (!pending.containsKey(stored)
+                        && ((Number) Files.getAttribute(stored, "unix:nlink")).intValue() <= 1) {
+                    fsService.deleteIfExists(stored);
+                    logger.infov("Pruned stored content {0}", stored.getFileName());
+                }
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // Without link counts there is no telling which content is still in use
+                return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static String digest(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
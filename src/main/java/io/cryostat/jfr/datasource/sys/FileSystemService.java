@@ -56,6 +56,18 @@ public class FileSystemService {
         return Path.of(first, more);
     }
 
+    public Path createLink(Path link, Path existing) throws IOException {
+        return Files.createLink(link, existing);
+    }
+
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        return Files.isSameFile(path, path2);
+    }
+
+    public Path createDirectories(Path dir) throws IOException {
+        return Files.createDirectories(dir);
+    }
+
     public Path move(Path source, Path target, CopyOption... options) throws IOException {
         return Files.move(source, target, options);
     }
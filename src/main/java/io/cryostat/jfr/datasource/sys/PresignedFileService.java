@@ -15,42 +15,85 @@
  */
 package io.cryostat.jfr.datasource.sys;
 
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.file.Files;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.security.KeyManagementException;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
 import javax.net.ssl.X509TrustManager;
 
-import io.quarkus.runtime.StartupEvent;
+import io.quarkus.runtime.ShutdownEvent;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+/**
+ * Downloads recordings from presigned URLs, e.g. of S3-compatible storage.
+ *
+ * <p>Objects are fetched in segments using HTTP range requests. The first segment doubles as a
+ * probe for range support and the object size, since presigned URLs are usually signed for GET
+ * only and so cannot be asked for a HEAD. The remaining segments are fetched in parallel and
+ * written at their offsets into a temporary file unique to the download. A segment that fails part
+ * way is retried from the last byte written. Servers that ignore the range header are read in one
+ * pass, without retries.
+ *
+ * <p>Alternatively an object can be {@link #stream streamed} to a consumer, e.g. the recording
+ * parser, as it arrives, which overlaps the transfer with the work done on the data.
+ *
+ * <p>All downloads share one {@link HttpClient}, so connections and TLS sessions are reused
+ * between segments and between downloads. The client is rebuilt only when the configured CA or
+ * certificate file changes.
+ */
 @ApplicationScoped
 public class PresignedFileService {
 
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_PARTIAL = 206;
+    private static final int HTTP_CLIENT_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long RETRY_BACKOFF_MS = 250;
+
     @ConfigProperty(name = "cryostat.storage.auth-method")
     Optional<String> storageAuthMethod;
 
@@ -72,30 +115,118 @@ public class PresignedFileService {
     @ConfigProperty(name = "cryostat.storage.tls.cert.path")
     Optional<java.nio.file.Path> storageCertPath;
 
+    @ConfigProperty(
+            name = "io.cryostat.jfr-datasource.download.segment-size",
+            defaultValue = "16777216")
+    long segmentSize;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.download.parallelism", defaultValue = "4")
+    int parallelism;
+
+    @ConfigProperty(name = "io.cryostat.jfr-datasource.download.max-retries", defaultValue = "3")
+    int maxRetries;
+
+    @ConfigProperty(
+            name = "io.cryostat.jfr-datasource.download.read-timeout",
+            defaultValue = "30000")
+    int readTimeoutMs;
+
     @Inject FileSystemService fsService;
     @Inject Logger logger;
 
-    Path presignDownloadFile;
+    private volatile StorageClient client;
 
-    public void onStart(@Observes StartupEvent evt) throws IOException {
-        this.presignDownloadFile = fsService.createTempFile();
+    void onStop(@Observes ShutdownEvent evt) {
+        StorageClient current = client;
+        if (current != null) {
+            current.http().shutdownNow();
+        }
     }
 
-    public Path download(URI uri) throws URISyntaxException, MalformedURLException, IOException {
+    /**
+     * Downloads the object at the given URI into a new temporary file. The caller owns the file
+     * and should {@link #discard(Path)} it once it is no longer needed.
+     */
+    public Path download(URI uri) throws IOException {
         logger.infov("Attempting to download presigned recording from {0}", uri);
-        HttpURLConnection httpConn = (HttpURLConnection) uri.toURL().openConnection();
-        httpConn.setRequestMethod("GET");
-        if (httpConn instanceof HttpsURLConnection) {
-            HttpsURLConnection httpsConn = (HttpsURLConnection) httpConn;
+        Path file = fsService.createTempFile();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            Download download = new Download(uri, channel, client());
+            download.run();
+            logger.infov(
+                    "Downloaded {0} to {1} ({2} bytes in {3} segments)",
+                    uri, file, channel.size(), download.segmentCount);
+            return file;
+        } catch (IOException | RuntimeException e) {
+            fsService.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the object at the given URI to the consumer as it arrives. If {@code tee} is given,
+     * the object is also written to that file, which is complete once this method returns. A
+     * transfer that fails part way is resumed with a range request where the server supports
+     * them, without the consumer noticing.
+     */
+    public void stream(URI uri, Path tee, StreamConsumer consumer) throws IOException {
+        logger.infov("Attempting to stream presigned recording from {0}", uri);
+        try (FileChannel channel =
+                tee == null
+                        ? null
+                        : FileChannel.open(
+                                tee,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Download download = new Download(uri, channel, client());
+            long size = download.stream(consumer);
+            logger.infov("Streamed {0} ({1} bytes)", uri, size);
+        }
+    }
+
+    public void discard(Path file) throws IOException {
+        fsService.deleteIfExists(file);
+    }
+
+    @FunctionalInterface
+    public interface StreamConsumer {
+        void accept(InputStream stream) throws IOException;
+    }
+
+    private HttpClient client() {
+        TlsFiles tlsFiles = TlsFiles.of(storageCaPath, storageCertPath);
+        StorageClient current = client;
+        if (current != null && current.tlsFiles().equals(tlsFiles)) {
+            return current.http();
+        }
+        synchronized (this) {
+            current = client;
+            if (current != null && current.tlsFiles().equals(tlsFiles)) {
+                return current.http();
+            }
+            HttpClient http =
+                    HttpClient.newBuilder()
+                            .version(HttpClient.Version.HTTP_2)
+                            .followRedirects(HttpClient.Redirect.NORMAL)
+                            .connectTimeout(Duration.ofMillis(readTimeoutMs))
+                            .sslContext(sslContext())
+                            .build();
+            if (current != null) {
+                logger.info("Storage TLS certificates changed, reloading");
+                // Downloads still using the old client are allowed to finish
+                current.http().shutdown();
+            }
+            client = new StorageClient(http, tlsFiles);
+            return http;
+        }
+    }
+
+    private SSLContext sslContext() {
+        try {
             if (storageTlsIgnore) {
-                try {
-                    httpsConn.setSSLSocketFactory(
-                            ignoreSslContext(storageTlsVersion).getSocketFactory());
-                } catch (Exception e) {
-                    logger.error(e);
-                    throw new IllegalStateException(e);
-                }
-            } else if (storageCaPath.isPresent() || storageCertPath.isPresent()) {
+                return sslContext(new X509TrustAllManager());
+            }
+            if (storageCaPath.isPresent() || storageCertPath.isPresent()) {
                 if (!(storageCaPath.isPresent() && storageCertPath.isPresent())) {
                     Exception e =
                             new IllegalStateException(
@@ -106,52 +237,42 @@ public class PresignedFileService {
                     logger.error(e);
                     throw new IllegalStateException(e);
                 }
-                try {
-                    httpsConn.setSSLSocketFactory(
-                            trustSslCertContext(
-                                            storageTlsVersion,
-                                            storageCaPath.get(),
-                                            storageCertPath.get())
-                                    .getSocketFactory());
-                } catch (Exception e) {
-                    logger.error(e);
-                    throw new IllegalStateException(e);
-                }
+                return sslContext(
+                        trustManager(
+                                trustSslCertKeyStore(storageCaPath.get(), storageCertPath.get())));
             }
             if (!storageHostnameVerify) {
-                httpsConn.setHostnameVerifier((hostname, session) -> true);
+                return sslContext(trustManager(null));
             }
-        }
-        if (storageAuthMethod.isPresent() && storageAuth.isPresent()) {
-            httpConn.setRequestProperty(
-                    "Authorization",
-                    String.format("%s %s", storageAuthMethod.get(), storageAuth.get()));
-        }
-
-        try (var stream = httpConn.getInputStream();
-                var bis = new BufferedInputStream(stream)) {
-            Files.copy(bis, presignDownloadFile, StandardCopyOption.REPLACE_EXISTING);
-            logger.infov("Downloaded {0} to {1}", uri, presignDownloadFile);
-            return presignDownloadFile;
-        } finally {
-            httpConn.disconnect();
+            return SSLContext.getDefault();
+        } catch (IOException | GeneralSecurityException e) {
+            logger.error(e);
+            throw new IllegalStateException(e);
         }
     }
 
-    private static SSLContext ignoreSslContext(String tlsVersion) throws Exception {
-        SSLContext sslContext = SSLContext.getInstance(tlsVersion);
-        sslContext.init(
-                null, new X509TrustManager[] {new X509TrustAllManager()}, new SecureRandom());
+    private SSLContext sslContext(X509TrustManager trustManager) throws GeneralSecurityException {
+        SSLContext sslContext = SSLContext.getInstance(storageTlsVersion);
+        sslContext.init(null, new TrustManager[] {trustManager}, new SecureRandom());
         return sslContext;
     }
 
-    private static SSLContext trustSslCertContext(
-            String tlsVersion, java.nio.file.Path caPath, java.nio.file.Path certPath)
-            throws IOException,
-                    KeyStoreException,
-                    KeyManagementException,
-                    CertificateException,
-                    NoSuchAlgorithmException {
+    private X509TrustManager trustManager(KeyStore keyStore) throws GeneralSecurityException {
+        TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        for (TrustManager trustManager : trustManagerFactory.getTrustManagers()) {
+            if (trustManager instanceof X509TrustManager x509) {
+                // HttpClient has no hostname verifier, the check is part of trusting the peer
+                return storageHostnameVerify ? x509 : new NoHostnameTrustManager(x509);
+            }
+        }
+        throw new IllegalStateException("No X.509 trust manager available");
+    }
+
+    private static KeyStore trustSslCertKeyStore(
+            java.nio.file.Path caPath, java.nio.file.Path certPath)
+            throws IOException, GeneralSecurityException {
         KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
         CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
         try (InputStream ca = new FileInputStream(caPath.toFile());
@@ -159,25 +280,560 @@ public class PresignedFileService {
             keyStore.load(null, null);
             keyStore.setCertificateEntry("storage-ca", certFactory.generateCertificate(ca));
             keyStore.setCertificateEntry("storage-tls", certFactory.generateCertificate(cert));
+            return keyStore;
+        }
+    }
+
+    private record StorageClient(HttpClient http, TlsFiles tlsFiles) {}
+
+    private record TlsFiles(long caModified, long certModified) {
+        static TlsFiles of(Optional<java.nio.file.Path> ca, Optional<java.nio.file.Path> cert) {
+            return new TlsFiles(
+                    ca.map(p -> p.toFile().lastModified()).orElse(0L),
+                    cert.map(p -> p.toFile().lastModified()).orElse(0L));
+        }
+    }
+
+    private final class Download {
+        private final URI uri;
+        private final FileChannel channel;
+        private final HttpClient http;
+        private final List<Segment> segments = new CopyOnWriteArrayList<>();
+        private final AtomicInteger nextSegment = new AtomicInteger();
+        private volatile boolean aborted;
+        private String etag;
+        int segmentCount = 1;
+
+        Download(URI uri, FileChannel channel, HttpClient http) {
+            this.uri = uri;
+            this.channel = channel;
+            this.http = http;
+        }
+
+        void run() throws IOException {
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                Future<?> watchdog = executor.submit(this::watch);
+                try {
+                    if (probe()) {
+                        fetchAll(executor);
+                    }
+                } finally {
+                    watchdog.cancel(true);
+                }
+            }
+        }
 
-            TrustManagerFactory trustManagerFactory =
-                    TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            trustManagerFactory.init(keyStore);
+        long stream(StreamConsumer consumer) throws IOException {
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                Future<?> watchdog = executor.submit(this::watch);
+                try (ResumingInputStream in = new ResumingInputStream()) {
+                    consumer.accept(in);
+                    if (channel != null) {
+                        // Whatever the consumer left unread still belongs in the tee
+                        in.transferTo(OutputStream.nullOutputStream());
+                    }
+                    return in.segment.position;
+                } finally {
+                    watchdog.cancel(true);
+                }
+            }
+        }
 
-            SSLContext sslCtx = SSLContext.getInstance(tlsVersion);
-            sslCtx.init(null, trustManagerFactory.getTrustManagers(), null);
+        /**
+         * Fetches the first segment, and learns the size of the object on the way. Returns whether
+         * there are segments left to fetch.
+         */
+        private boolean probe() throws IOException {
+            Segment first = new Segment(0, segmentSize - 1);
+            HttpResponse<InputStream> response = send(first);
+            int status = response.statusCode();
+            if (status == HTTP_RANGE_NOT_SATISFIABLE) {
+                // Only an empty object cannot satisfy a range starting at 0
+                response.body().close();
+                return false;
+            }
+            if (status == HTTP_OK) {
+                readWhole(response);
+                return false;
+            }
+            if (status != HTTP_PARTIAL) {
+                response.body().close();
+                throw new DownloadException(uri, status);
+            }
+            String contentRange = response.headers().firstValue("Content-Range").orElse(null);
+            Matcher m = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange);
+            if (m == null || !m.matches() || Long.parseLong(m.group(1)) != 0) {
+                response.body().close();
+                throw new DownloadException(
+                        String.format("Unexpected Content-Range %s from %s", contentRange, uri));
+            }
+            long size = Long.parseLong(m.group(3));
+            etag = response.headers().firstValue("ETag").orElse(null);
+            first.end = Math.min(segmentSize, size) - 1;
+            segments.add(first);
+            for (long start = segmentSize; start < size; start += segmentSize) {
+                segments.add(new Segment(start, Math.min(start + segmentSize, size) - 1));
+            }
+            segmentCount = segments.size();
 
-            return sslCtx;
+            try {
+                copy(response.body(), first);
+            } catch (IOException e) {
+                // Picked up again and resumed along with the other segments
+                logger.warnv("Probe of {0} failed part way: {1}", uri, e.getMessage());
+            }
+            return true;
+        }
+
+        private void fetchAll(ExecutorService executor) throws IOException {
+            int workers = Math.max(1, Math.min(parallelism, segments.size()));
+            List<Future<?>> futures = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    fetchSegments();
+                                    return null;
+                                }));
+            }
+            IOException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    aborted = true;
+                    IOException cause =
+                            e.getCause() instanceof IOException io
+                                    ? io
+                                    : new IOException(e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else if (failure != cause) {
+                        failure.addSuppressed(cause);
+                    }
+                } catch (InterruptedException e) {
+                    aborted = true;
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Download of " + uri + " interrupted");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void fetchSegments() throws IOException {
+            int i;
+            while (!aborted && (i = nextSegment.getAndIncrement()) < segments.size()) {
+                fetch(segments.get(i));
+            }
+        }
+
+        private void fetch(Segment segment) throws IOException {
+            int attempt = 0;
+            while (!segment.isComplete()) {
+                try {
+                    HttpResponse<InputStream> response = send(segment);
+                    try {
+                        checkPartialResponse(response, segment);
+                    } catch (IOException e) {
+                        response.body().close();
+                        throw e;
+                    }
+                    copy(response.body(), segment);
+                } catch (IOException e) {
+                    if (aborted
+                            || ++attempt > maxRetries
+                            || (e instanceof DownloadException de && !de.retryable)) {
+                        throw e;
+                    }
+                    logger.warnv(
+                            "Retrying download of {0} from byte {1} ({2}/{3}): {4}",
+                            uri, segment.position, attempt, maxRetries, e.getMessage());
+                    backoff(attempt);
+                }
+            }
+        }
+
+        private HttpResponse<InputStream> send(Segment segment) throws IOException {
+            HttpRequest.Builder request =
+                    HttpRequest.newBuilder(uri)
+                            .GET()
+                            .timeout(Duration.ofMillis(readTimeoutMs))
+                            .header(
+                                    "Range",
+                                    segment.end == Long.MAX_VALUE
+                                            ? "bytes=" + segment.position + "-"
+                                            : "bytes=" + segment.position + "-" + segment.end);
+            if (storageAuthMethod.isPresent() && storageAuth.isPresent()) {
+                request.header(
+                        "Authorization",
+                        String.format("%s %s", storageAuthMethod.get(), storageAuth.get()));
+            }
+            try {
+                return http.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download of " + uri + " interrupted");
+            }
+        }
+
+        private void checkPartialResponse(HttpResponse<InputStream> response, Segment segment)
+                throws IOException {
+            int status = response.statusCode();
+            if (status != HTTP_PARTIAL) {
+                throw new DownloadException(uri, status);
+            }
+            String contentRange = response.headers().firstValue("Content-Range").orElse(null);
+            Matcher m = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange);
+            if (m == null || !m.matches() || Long.parseLong(m.group(1)) != segment.position) {
+                throw new DownloadException(
+                        String.format("Unexpected Content-Range %s from %s", contentRange, uri));
+            }
+            if (etag != null
+                    && !Objects.equals(etag, response.headers().firstValue("ETag").orElse(null))) {
+                throw new DownloadException(
+                        String.format("%s changed while it was being downloaded", uri));
+            }
+        }
+
+        private void copy(InputStream in, Segment segment) throws IOException {
+            byte[] buf = new byte[BUFFER_SIZE];
+            segment.watch(in);
+            try (in) {
+                while (!segment.isComplete()) {
+                    int len = (int) Math.min(buf.length, segment.end - segment.position + 1);
+                    int n = in.read(buf, 0, len);
+                    if (n < 0 || segment.stalled) {
+                        throw new EOFException(
+                                String.format(
+                                        "Premature end of %s at byte %d", uri, segment.position));
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(buf, 0, n);
+                    while (buffer.hasRemaining()) {
+                        segment.position += channel.write(buffer, segment.position);
+                    }
+                    segment.touch();
+                }
+            } finally {
+                segment.unwatch();
+            }
+        }
+
+        private void readWhole(HttpResponse<InputStream> response) throws IOException {
+            logger.infov("{0} does not support range requests, downloading in one pass", uri);
+            long expected = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            Segment whole = new Segment(0, Long.MAX_VALUE);
+            segments.add(whole);
+            byte[] buf = new byte[BUFFER_SIZE];
+            whole.watch(response.body());
+            try (InputStream in = response.body()) {
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    ByteBuffer buffer = ByteBuffer.wrap(buf, 0, n);
+                    while (buffer.hasRemaining()) {
+                        whole.position += channel.write(buffer, whole.position);
+                    }
+                    whole.touch();
+                }
+            } finally {
+                whole.unwatch();
+            }
+            if (whole.stalled || (expected >= 0 && whole.position != expected)) {
+                throw new EOFException(
+                        String.format(
+                                "Premature end of %s at byte %d of %d",
+                                uri, whole.position, expected));
+            }
+        }
+
+        /**
+         * Closes the body of any transfer that has not received data for the read timeout, so
+         * that the blocked reader fails and its segment is resumed. HttpClient only bounds the
+         * time until the response headers arrive.
+         */
+        private void watch() {
+            long timeout = TimeUnit.MILLISECONDS.toNanos(readTimeoutMs);
+            while (true) {
+                try {
+                    Thread.sleep(Math.max(1, readTimeoutMs / 4));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long now = System.nanoTime();
+                for (Segment segment : segments) {
+                    if (segment.closeIfStalled(now, timeout)) {
+                        logger.warnv(
+                                "Download of {0} stalled at byte {1}", uri, segment.position);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads the object sequentially, for consumers that cannot wait for segments to arrive out
+         * of order. Reconnects from the current position if the transfer fails, provided the first
+         * response showed that the server supports range requests.
+         */
+        private final class ResumingInputStream extends InputStream {
+            final Segment segment = new Segment(0, Long.MAX_VALUE);
+            private InputStream body;
+            private long size = -1;
+            private boolean resumable;
+            private boolean eof;
+            private int attempt;
+
+            ResumingInputStream() {
+                segments.add(segment);
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (!eof) {
+                    try {
+                        if (body == null) {
+                            connect();
+                            continue;
+                        }
+                        int n = body.read(b, off, len);
+                        if (segment.stalled) {
+                            throw new IOException("Read timed out");
+                        }
+                        if (n < 0) {
+                            if (size >= 0 && segment.position < size) {
+                                throw new EOFException(
+                                        String.format(
+                                                "Premature end of %s at byte %d of %d",
+                                                uri, segment.position, size));
+                            }
+                            eof = true;
+                            closeBody();
+                            break;
+                        }
+                        if (channel != null) {
+                            ByteBuffer buffer = ByteBuffer.wrap(b, off, n);
+                            long position = segment.position;
+                            while (buffer.hasRemaining()) {
+                                position += channel.write(buffer, position);
+                            }
+                        }
+                        segment.position += n;
+                        segment.touch();
+                        // Retries are counted per interruption, a long stream may see several
+                        attempt = 0;
+                        return n;
+                    } catch (IOException e) {
+                        closeBody();
+                        if (!resumable
+                                || ++attempt > maxRetries
+                                || (e instanceof DownloadException de && !de.retryable)) {
+                            throw e;
+                        }
+                        logger.warnv(
+                                "Resuming stream of {0} from byte {1} ({2}/{3}): {4}",
+                                uri, segment.position, attempt, maxRetries, e.getMessage());
+                        backoff(attempt);
+                    }
+                }
+                return -1;
+            }
+
+            private void connect() throws IOException {
+                HttpResponse<InputStream> response = send(segment);
+                if (segment.position > 0) {
+                    try {
+                        checkPartialResponse(response, segment);
+                    } catch (IOException e) {
+                        response.body().close();
+                        throw e;
+                    }
+                    segment.watch(response.body());
+                    body = response.body();
+                    return;
+                }
+                int status = response.statusCode();
+                if (status == HTTP_RANGE_NOT_SATISFIABLE) {
+                    response.body().close();
+                    eof = true;
+                    return;
+                }
+                if (status == HTTP_PARTIAL) {
+                    String contentRange =
+                            response.headers().firstValue("Content-Range").orElse(null);
+                    Matcher m = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange);
+                    if (m != null && m.matches()) {
+                        size = Long.parseLong(m.group(3));
+                    }
+                    etag = response.headers().firstValue("ETag").orElse(null);
+                    resumable = true;
+                } else if (status == HTTP_OK) {
+                    size = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+                } else {
+                    response.body().close();
+                    throw new DownloadException(uri, status);
+                }
+                segment.watch(response.body());
+                body = response.body();
+            }
+
+            private void closeBody() {
+                InputStream in = body;
+                body = null;
+                segment.unwatch();
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // The connection is abandoned either way
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+                closeBody();
+            }
+        }
+
+        private void backoff(int attempt) throws IOException {
+            try {
+                Thread.sleep(RETRY_BACKOFF_MS << (attempt - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download of " + uri + " interrupted");
+            }
         }
     }
 
-    private static final class X509TrustAllManager implements X509TrustManager {
+    private static final class Segment {
+        long end;
+        volatile long position;
+        volatile boolean stalled;
+        private volatile InputStream body;
+        private volatile long lastRead;
+
+        Segment(long start, long end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        boolean isComplete() {
+            return position > end;
+        }
+
+        void watch(InputStream body) {
+            this.stalled = false;
+            this.lastRead = System.nanoTime();
+            this.body = body;
+        }
+
+        void touch() {
+            this.lastRead = System.nanoTime();
+        }
+
+        void unwatch() {
+            this.body = null;
+        }
+
+        boolean closeIfStalled(long now, long timeout) {
+            InputStream in = body;
+            if (in == null || now - lastRead < timeout) {
+                return false;
+            }
+            body = null;
+            stalled = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // The reader sees the stream closed either way
+            }
+            return true;
+        }
+    }
+
+    private static final class DownloadException extends IOException {
+        final boolean retryable;
+
+        DownloadException(URI uri, int status) {
+            super(String.format("Unexpected HTTP status %d from %s", status, uri));
+            this.retryable =
+                    status >= 500
+                            || status == HTTP_CLIENT_TIMEOUT
+                            || status == HTTP_TOO_MANY_REQUESTS;
+        }
+
+        DownloadException(String message) {
+            super(message);
+            this.retryable = false;
+        }
+    }
+
+    /** Trusts the peer's certificate chain without checking it against the peer's hostname. */
+    private static final class NoHostnameTrustManager extends X509ExtendedTrustManager {
+        private final X509TrustManager delegate;
+
+        NoHostnameTrustManager(X509TrustManager delegate) {
+            this.delegate = delegate;
+        }
+
         public X509Certificate[] getAcceptedIssuers() {
-            return null;
+            return delegate.getAcceptedIssuers();
+        }
+
+        public void checkClientTrusted(X509Certificate[] certs, String authType)
+                throws CertificateException {
+            delegate.checkClientTrusted(certs, authType);
+        }
+
+        public void checkClientTrusted(X509Certificate[] certs, String authType, Socket socket)
+                throws CertificateException {
+            delegate.checkClientTrusted(certs, authType);
+        }
+
+        public void checkClientTrusted(X509Certificate[] certs, String authType, SSLEngine engine)
+                throws CertificateException {
+            delegate.checkClientTrusted(certs, authType);
+        }
+
+        public void checkServerTrusted(X509Certificate[] certs, String authType)
+                throws CertificateException {
+            delegate.checkServerTrusted(certs, authType);
+        }
+
+        public void checkServerTrusted(X509Certificate[] certs, String authType, Socket socket)
+                throws CertificateException {
+            delegate.checkServerTrusted(certs, authType);
+        }
+
+        public void checkServerTrusted(X509Certificate[] certs, String authType, SSLEngine engine)
+                throws CertificateException {
+            delegate.checkServerTrusted(certs, authType);
+        }
+    }
+
+    private static final class X509TrustAllManager extends X509ExtendedTrustManager {
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
         }
 
         public void checkClientTrusted(X509Certificate[] certs, String authType) {}
 
+        public void checkClientTrusted(X509Certificate[] certs, String authType, Socket socket) {}
+
+        public void checkClientTrusted(
+                X509Certificate[] certs, String authType, SSLEngine engine) {}
+
         public void checkServerTrusted(X509Certificate[] certs, String authType) {}
+
+        public void checkServerTrusted(X509Certificate[] certs, String authType, Socket socket) {}
+
+        public void checkServerTrusted(
+                X509Certificate[] certs, String authType, SSLEngine engine) {}
     }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+/**
+ * Fixed width bit packing of non-negative integers into a {@code long[]}, so that small values
+ * such as timestamp deltas and dictionary ids take only as many bits as the largest value of their
+ * block while still allowing random access.
+ */
+public final class BitPacking {
+
+    private BitPacking() {}
+
+    /** @return the number of bits needed to represent every value up to {@code max} */
+    public static int width(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    public static long[] pack(long[] values, int count, int width) {
+        long[] packed = new long[(int) (((long) count * width + 63) >>> 6)];
+        if (width == 0) {
+            return packed;
+        }
+        for (int i = 0; i < count; i++) {
+            long bit = (long) i * width;
+            int word = (int) (bit >>> 6);
+            int offset = (int) (bit & 63);
+            packed[word] |= values[i] << offset;
+            if (offset + width > 64) {
+                packed[word + 1] |= values[i] >>> (64 - offset);
+            }
+        }
+        return packed;
+    }
+
+    public static long get(long[] packed, int width, int index) {
+        if (width == 0) {
+            return 0;
+        }
+        long bit = (long) index * width;
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        long value = packed[word] >>> offset;
+        if (offset + width > 64) {
+            value |= packed[word + 1] << (64 - offset);
+        }
+        return width == 64 ? value : value & ((1L << width) - 1);
+    }
+
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
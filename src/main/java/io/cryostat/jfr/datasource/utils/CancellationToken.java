@@ -0,0 +1,63 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+/**
+ * Cooperative cancellation of a running query, either explicitly, e.g. because the client went
+ * away, or by a deadline. Long-running loops call {@link #check()} periodically.
+ */
+public class CancellationToken {
+
+    /** A token that is never cancelled */
+    public static final CancellationToken NONE = new CancellationToken();
+
+    private final boolean hasDeadline;
+    private final long deadline;
+    private volatile String reason;
+
+    private CancellationToken() {
+        this.hasDeadline = false;
+        this.deadline = 0;
+    }
+
+    /** @param deadline the {@link System#nanoTime()} after which the query is cancelled */
+    public CancellationToken(long deadline) {
+        this.hasDeadline = true;
+        this.deadline = deadline;
+    }
+
+    public void cancel(String reason) {
+        if (this == NONE) {
+            throw new UnsupportedOperationException();
+        }
+        this.reason = reason;
+    }
+
+    public boolean isCancelled() {
+        return reason != null || (hasDeadline && System.nanoTime() - deadline > 0);
+    }
+
+    /** @throws QueryCancelledException if the query has been cancelled */
+    public void check() {
+        String reason = this.reason;
+        if (reason != null) {
+            throw new QueryCancelledException(reason);
+        }
+        if (hasDeadline && System.nanoTime() - deadline > 0) {
+            throw new QueryCancelledException("deadline exceeded");
+        }
+    }
+}
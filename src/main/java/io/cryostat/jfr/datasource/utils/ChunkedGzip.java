@@ -0,0 +1,290 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses a JFR recording into one gzip member per JFR chunk, in the manner of BGZF. Every
+ * member carries its compressed and uncompressed size in an extra header field, so the chunks of a
+ * file can be listed by hopping from header to header and each chunk decompressed on its own,
+ * straight from a memory-mapped file. The result is still an ordinary (multi-member) gzip file,
+ * which any gzip reader, including the JMC loader, decompresses into the original recording.
+ */
+public final class ChunkedGzip {
+
+    private static final byte[] JFR_MAGIC = {'F', 'L', 'R', 0};
+    private static final int JFR_HEADER_SIZE = 16;
+    private static final int JFR_CHUNK_SIZE_OFFSET = 8;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FEXTRA = 4;
+    private static final byte SUBFIELD_ID1 = 'J';
+    private static final byte SUBFIELD_ID2 = 'C';
+    private static final int SUBFIELD_SIZE = 16;
+    // ID1, ID2, CM, FLG, MTIME, XFL, OS, XLEN, then the subfield with its 4 byte header
+    private static final int MEMBER_HEADER_SIZE = 12 + 4 + SUBFIELD_SIZE;
+    private static final int MEMBER_TRAILER_SIZE = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ChunkedGzip() {}
+
+    /** A gzip member holding one JFR chunk */
+    public record Member(
+            long offset, long compressedSize, long uncompressedOffset, long uncompressedSize) {}
+
+    /**
+     * Compresses a recording into the target file, one member per JFR chunk. Input that does not
+     * look like a JFR chunk is compressed as a single member.
+     *
+     * @return the number of bytes read from the recording
+     */
+    public static long compress(InputStream recording, Path target, int level)
+            throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        try (FileChannel out =
+                FileChannel.open(
+                        target,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long total = 0;
+            while (true) {
+                byte[] header = recording.readNBytes(JFR_HEADER_SIZE);
+                if (header.length == 0) {
+                    return total;
+                }
+                long chunkSize = chunkSize(header);
+                long length = chunkSize < 0 ? Long.MAX_VALUE : chunkSize;
+                total += writeMember(out, deflater, header, recording, length, buf);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Lists the members of a file written by {@link #compress}. */
+    public static List<Member> index(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Member> members = new ArrayList<>();
+            ByteBuffer header = littleEndian(MEMBER_HEADER_SIZE);
+            long offset = 0;
+            long uncompressedOffset = 0;
+            long size = in.size();
+            while (offset < size) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (in.read(header, offset + header.position()) < 0) {
+                        throw new EOFException("Truncated gzip member header at " + offset);
+                    }
+                }
+                long[] sizes = memberSizes(header);
+                if (sizes == null) {
+                    throw new IOException("Not a chunked gzip member at " + offset);
+                }
+                members.add(new Member(offset, sizes[0], uncompressedOffset, sizes[1]));
+                offset += sizes[0];
+                uncompressedOffset += sizes[1];
+            }
+            return members;
+        }
+    }
+
+    /** Returns whether the file starts with a member written by {@link #compress}. */
+    public static boolean isChunked(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = littleEndian(MEMBER_HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (in.read(header) < 0) {
+                    return false;
+                }
+            }
+            return memberSizes(header) != null;
+        }
+    }
+
+    /** Decompresses a single member, i.e. one JFR chunk, from a memory mapping of the file. */
+    public static InputStream open(Path file, Member member) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped =
+                    in.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            member.offset() + MEMBER_HEADER_SIZE,
+                            member.compressedSize() - MEMBER_HEADER_SIZE - MEMBER_TRAILER_SIZE);
+        }
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(mapped);
+        return new InputStream() {
+            private long remaining = member.uncompressedSize();
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0 || len == 0) {
+                    return remaining <= 0 ? -1 : 0;
+                }
+                try {
+                    int n = inflater.inflate(b, off, (int) Math.min(len, remaining));
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new EOFException("Truncated gzip member at " + member.offset());
+                    }
+                    remaining -= n;
+                    return n;
+                } catch (DataFormatException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void close() {
+                inflater.end();
+            }
+        };
+    }
+
+    private static long chunkSize(byte[] header) {
+        if (header.length < JFR_HEADER_SIZE) {
+            return -1;
+        }
+        for (int i = 0; i < JFR_MAGIC.length; i++) {
+            if (header[i] != JFR_MAGIC[i]) {
+                return -1;
+            }
+        }
+        long size = ByteBuffer.wrap(header).getLong(JFR_CHUNK_SIZE_OFFSET);
+        return size >= JFR_HEADER_SIZE ? size : -1;
+    }
+
+    private static long writeMember(
+            FileChannel out,
+            Deflater deflater,
+            byte[] head,
+            InputStream in,
+            long length,
+            byte[] buf)
+            throws IOException {
+        long start = out.position();
+        ByteBuffer header = littleEndian(MEMBER_HEADER_SIZE);
+        header.putShort((short) GZIP_MAGIC)
+                .put((byte) Deflater.DEFLATED)
+                .put((byte) FEXTRA)
+                .putInt(0)
+                .put((byte) 0)
+                .put((byte) 0xff)
+                .putShort((short) (4 + SUBFIELD_SIZE))
+                .put(SUBFIELD_ID1)
+                .put(SUBFIELD_ID2)
+                .putShort((short) SUBFIELD_SIZE)
+                // Sizes are filled in once the member is complete
+                .putLong(0)
+                .putLong(0);
+        writeFully(out, header.flip());
+
+        CRC32 crc = new CRC32();
+        byte[] compressed = new byte[BUFFER_SIZE];
+        deflater.reset();
+        long read = Math.min(head.length, length);
+        crc.update(head, 0, (int) read);
+        deflater.setInput(head, 0, (int) read);
+        drain(out, deflater, compressed);
+        while (read < length) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, length - read));
+            if (n < 0) {
+                break;
+            }
+            read += n;
+            crc.update(buf, 0, n);
+            deflater.setInput(buf, 0, n);
+            drain(out, deflater, compressed);
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(compressed);
+            writeFully(out, ByteBuffer.wrap(compressed, 0, n));
+        }
+
+        ByteBuffer trailer = littleEndian(MEMBER_TRAILER_SIZE);
+        trailer.putInt((int) crc.getValue()).putInt((int) read);
+        writeFully(out, trailer.flip());
+
+        long end = out.position();
+        ByteBuffer sizes = littleEndian(SUBFIELD_SIZE);
+        sizes.putLong(end - start).putLong(read).flip();
+        while (sizes.hasRemaining()) {
+            out.write(sizes, start + MEMBER_HEADER_SIZE - SUBFIELD_SIZE + sizes.position());
+        }
+        return read;
+    }
+
+    private static void drain(FileChannel out, Deflater deflater, byte[] compressed)
+            throws IOException {
+        while (!deflater.needsInput()) {
+            int n = deflater.deflate(compressed);
+            writeFully(out, ByteBuffer.wrap(compressed, 0, n));
+        }
+    }
+
+    private static ByteBuffer littleEndian(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    // Returns the compressed and uncompressed size of a member, or null if it is not chunked
+    private static long[] memberSizes(ByteBuffer header) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if ((header.getShort(0) & 0xffff) != GZIP_MAGIC
+                || header.get(2) != Deflater.DEFLATED
+                || (header.get(3) & FEXTRA) == 0
+                || header.getShort(10) != 4 + SUBFIELD_SIZE
+                || header.get(12) != SUBFIELD_ID1
+                || header.get(13) != SUBFIELD_ID2
+                || header.getShort(14) != SUBFIELD_SIZE) {
+            return null;
+        }
+        long compressedSize = header.getLong(16);
+        long uncompressedSize = header.getLong(24);
+        if (compressedSize < MEMBER_HEADER_SIZE + MEMBER_TRAILER_SIZE || uncompressedSize < 0) {
+            return null;
+        }
+        return new long[] {compressedSize, uncompressedSize};
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.cryostat.jfr.datasource.utils.ChunkedGzip.Member;
+
+/**
+ * Locates the chunks of a JFR recording file by their headers, without parsing any events. Every
+ * chunk carries its own metadata and constant pools, so a chunk can be read and parsed on its own.
+ * Uncompressed files and files written by {@link ChunkedGzip} can be split into chunks, other
+ * compressed files have to be read as a whole.
+ */
+public final class JfrChunks {
+
+    private static final byte[] MAGIC = {'F', 'L', 'R', 0};
+    // Magic, version and chunk size, the start of every chunk header
+    private static final int HEADER_SIZE = 16;
+    private static final int SIZE_OFFSET = 8;
+    // Start time and duration in nanoseconds, after the constant pool and metadata offsets
+    private static final int START_OFFSET = 32;
+    private static final int DURATION_OFFSET = 40;
+    private static final int SPAN_HEADER_SIZE = 48;
+
+    private JfrChunks() {}
+
+    /**
+     * A chunk of a recording file.
+     *
+     * @param member the gzip member holding the chunk, or null if the file is not compressed
+     */
+    public record Chunk(long offset, long size, Member member) {}
+
+    /** The time range of a chunk, as written in its header. */
+    public record Span(long startNanos, long durationNanos) {
+
+        /** @return the start time in epoch milliseconds, rounded down */
+        public long startMillis() {
+            return Math.floorDiv(startNanos, 1_000_000);
+        }
+
+        /** @return the end time in epoch milliseconds, rounded up */
+        public long endMillis() {
+            return Math.ceilDiv(startNanos + durationNanos, 1_000_000);
+        }
+    }
+
+    /** @return the chunks of the file, or an empty list if the file cannot be split into chunks */
+    public static List<Chunk> list(Path file) throws IOException {
+        if (ChunkedGzip.isChunked(file)) {
+            List<Chunk> chunks = new ArrayList<>();
+            for (Member member : ChunkedGzip.index(file)) {
+                byte[] header;
+                try (InputStream in = ChunkedGzip.open(file, member)) {
+                    header = in.readNBytes(HEADER_SIZE);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(header);
+                if (!isChunkHeader(buffer)
+                        || buffer.getLong(SIZE_OFFSET) != member.uncompressedSize()) {
+                    return List.of();
+                }
+                chunks.add(new Chunk(member.offset(), member.uncompressedSize(), member));
+            }
+            return chunks;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Chunk> chunks = new ArrayList<>();
+            long size = channel.size();
+            long offset = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            while (offset < size) {
+                buffer.clear();
+                readFully(channel, buffer, offset);
+                long chunkSize = buffer.getLong(SIZE_OFFSET);
+                if (!isChunkHeader(buffer)
+                        || chunkSize < HEADER_SIZE
+                        || chunkSize > size - offset) {
+                    return List.of();
+                }
+                chunks.add(new Chunk(offset, chunkSize, null));
+                offset += chunkSize;
+            }
+            return chunks;
+        } catch (EOFException e) {
+            return List.of();
+        }
+    }
+
+    /** @return the time range of the chunk, read from its header */
+    public static Span span(Path file, Chunk chunk) throws IOException {
+        ByteBuffer header;
+        if (chunk.member() != null) {
+            try (InputStream in = ChunkedGzip.open(file, chunk.member())) {
+                header = ByteBuffer.wrap(in.readNBytes(SPAN_HEADER_SIZE));
+            }
+        } else {
+            if (chunk.size() < SPAN_HEADER_SIZE) {
+                throw new EOFException("Chunk at " + chunk.offset() + " has no complete header");
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                header = ByteBuffer.allocate(SPAN_HEADER_SIZE);
+                readFully(channel, header, chunk.offset());
+            }
+        }
+        if (header.limit() < SPAN_HEADER_SIZE) {
+            throw new EOFException("Chunk at " + chunk.offset() + " has no complete header");
+        }
+        return new Span(header.getLong(START_OFFSET), header.getLong(DURATION_OFFSET));
+    }
+
+    /** @return the bytes of the chunk, as a stream that can be parsed as a recording of its own */
+    public static InputStream open(Path file, Chunk chunk) throws IOException {
+        if (chunk.member() != null) {
+            return ChunkedGzip.open(file, chunk.member());
+        }
+        if (chunk.size() > Integer.MAX_VALUE - 8) {
+            throw new IOException("Chunk at " + chunk.offset() + " is too large");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) chunk.size());
+            readFully(channel, buffer, chunk.offset());
+            return new ByteArrayInputStream(buffer.array());
+        }
+    }
+
+    private static boolean isChunkHeader(ByteBuffer header) {
+        if (header.limit() < HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
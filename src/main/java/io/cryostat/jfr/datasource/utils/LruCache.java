@@ -0,0 +1,144 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/** A small thread-safe least-recently-used cache with a fixed maximum number of entries. */
+public class LruCache<K, V> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, V> entries;
+
+    public LruCache(int maxEntries) {
+        this(maxEntries, (k, v) -> {});
+    }
+
+    /**
+     * @param onEviction called with every entry evicted to make room for another, while the cache
+     *     is locked
+     */
+    public LruCache(int maxEntries, BiConsumer<K, V> onEviction) {
+        this.entries =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                        if (size() > maxEntries) {
+                            onEviction.accept(eldest.getKey(), eldest.getValue());
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+    }
+
+    public V get(K key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the value previously cached for the key, if any */
+    public V put(K key, V value) {
+        lock.lock();
+        try {
+            return entries.put(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cached value, computing it outside of the lock on a miss. Concurrent misses for
+     * the same key may compute the value more than once.
+     */
+    public V computeIfAbsent(K key, Function<K, V> mappingFunction) {
+        V value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the first value, least recently used first, whose entry matches the filter, without
+     * changing its recency.
+     */
+    public V findFirst(BiPredicate<? super K, ? super V> filter) {
+        lock.lock();
+        try {
+            for (Map.Entry<K, V> entry : entries.entrySet()) {
+                if (filter.test(entry.getKey(), entry.getValue())) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the removed values, least recently used first */
+    public List<V> removeIf(BiPredicate<? super K, ? super V> filter) {
+        lock.lock();
+        try {
+            List<V> removed = new ArrayList<>();
+            Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<K, V> entry = it.next();
+                if (filter.test(entry.getKey(), entry.getValue())) {
+                    removed.add(entry.getValue());
+                    it.remove();
+                }
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+/**
+ * A mergeable quantile sketch with a bounded relative error, after DDSketch. Values are counted in
+ * logarithmically sized bins, so a quantile estimate is within {@link #RELATIVE_ACCURACY} of a
+ * value actually added, and two sketches merge exactly by adding their bin counts.
+ *
+ * <p>Bins are kept in dense arrays spanning the observed range only. When a sketch would need more
+ * than {@link #MAX_BINS} bins for one sign, the lowest magnitude bins are collapsed, trading
+ * accuracy for the smallest values, which are rarely of interest for latency or size
+ * distributions.
+ */
+public class QuantileSketch {
+
+    public static final double RELATIVE_ACCURACY = 0.01;
+    static final int MAX_BINS = 2048;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    // Magnitudes below this are counted as zero
+    private static final double MIN_INDEXABLE = 1e-9;
+
+    private long count;
+    private long zeroCount;
+    private Bins positive;
+    private Bins negative;
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        if (Math.abs(value) < MIN_INDEXABLE) {
+            zeroCount++;
+        } else if (value > 0) {
+            if (positive == null) {
+                positive = new Bins();
+            }
+            positive.add(index(value), 1);
+        } else {
+            if (negative == null) {
+                negative = new Bins();
+            }
+            negative.add(index(-value), 1);
+        }
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other == null || other.count == 0) {
+            return;
+        }
+        count += other.count;
+        zeroCount += other.zeroCount;
+        if (other.positive != null) {
+            if (positive == null) {
+                positive = new Bins();
+            }
+            positive.merge(other.positive);
+        }
+        if (other.negative != null) {
+            if (negative == null) {
+                negative = new Bins();
+            }
+            negative.merge(other.negative);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the estimated value at the quantile, or NaN if the sketch is empty
+     */
+    public double quantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.floor(Math.max(0, Math.min(quantile, 1)) * (count - 1));
+        if (negative != null) {
+            // Largest magnitudes first
+            for (int i = negative.counts.length - 1; i >= 0; i--) {
+                rank -= negative.counts[i];
+                if (rank < 0) {
+                    return -value(negative.offset + i);
+                }
+            }
+        }
+        rank -= zeroCount;
+        if (rank < 0) {
+            return 0;
+        }
+        if (positive != null) {
+            for (int i = 0; i < positive.counts.length; i++) {
+                rank -= positive.counts[i];
+                if (rank < 0) {
+                    return value(positive.offset + i);
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static int index(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    private static double value(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    private static final class Bins {
+        int offset;
+        long[] counts;
+
+        void add(int index, long n) {
+            if (counts == null) {
+                offset = index;
+                counts = new long[1];
+            } else if (index < offset) {
+                if (counts.length + offset - index > MAX_BINS) {
+                    index = Math.max(index, offset + counts.length - MAX_BINS);
+                }
+                grow(index, offset + counts.length - 1);
+            } else if (index >= offset + counts.length) {
+                grow(offset, index);
+            }
+            counts[Math.max(index, offset) - offset] += n;
+        }
+
+        void merge(Bins other) {
+            if (other.counts == null) {
+                return;
+            }
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        private void grow(int low, int high) {
+            if (high - low + 1 > MAX_BINS) {
+                // Collapse the lowest bins into the lowest one kept
+                int newLow = high - MAX_BINS + 1;
+                long collapsed = 0;
+                for (int i = 0; i < counts.length && offset + i <= newLow; i++) {
+                    collapsed += counts[i];
+                }
+                long[] grown = new long[MAX_BINS];
+                for (int i = 0; i < counts.length; i++) {
+                    int index = offset + i;
+                    if (index > newLow && index <= high) {
+                        grown[index - newLow] = counts[i];
+                    }
+                }
+                grown[0] += collapsed;
+                offset = newLow;
+                counts = grown;
+                return;
+            }
+            long[] grown = new long[high - low + 1];
+            System.arraycopy(counts, 0, grown, offset - low, counts.length);
+            offset = low;
+            counts = grown;
+        }
+    }
+}
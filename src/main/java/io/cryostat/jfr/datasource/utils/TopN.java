@@ -0,0 +1,93 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the first {@code capacity} values by sort key out of an arbitrarily long stream, using a
+ * bounded heap. Values are only materialized once their key is known to be selected. Ties are
+ * resolved in favour of the value offered first, so an all-equal ordering selects the first
+ * {@code capacity} values in offer order.
+ */
+public class TopN<K, V> {
+
+    private final int capacity;
+    private final Comparator<? super K> order;
+    // Worst selected entry at the head
+    private final PriorityQueue<Entry<K, V>> heap;
+    private long sequence;
+
+    public TopN(int capacity, Comparator<? super K> order) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+        this.order = order;
+        this.heap = new PriorityQueue<>(Math.min(capacity, 1024) + 1, this::compare);
+    }
+
+    public boolean isFull() {
+        return heap.size() >= capacity;
+    }
+
+    public int size() {
+        return heap.size();
+    }
+
+    /**
+     * Offers a value by key. The supplier is only invoked if the value is selected.
+     *
+     * @return whether the value was selected
+     */
+    public boolean offer(K key, Supplier<V> value) {
+        if (capacity == 0) {
+            return false;
+        }
+        if (isFull()) {
+            // A later value with an equal key loses the tie
+            if (order.compare(key, heap.peek().key()) >= 0) {
+                return false;
+            }
+            heap.poll();
+        }
+        heap.add(new Entry<>(key, sequence++, value.get()));
+        return true;
+    }
+
+    /** @return the selected values, best first */
+    public List<V> toList() {
+        List<Entry<K, V>> entries = new ArrayList<>(heap);
+        entries.sort((a, b) -> compare(b, a));
+        List<V> values = new ArrayList<>(entries.size());
+        for (Entry<K, V> entry : entries) {
+            values.add(entry.value());
+        }
+        return values;
+    }
+
+    // Reversed ordering, so that the heap head is the entry to be evicted first
+    private int compare(Entry<K, V> a, Entry<K, V> b) {
+        int c = order.compare(b.key(), a.key());
+        return c != 0 ? c : Long.compare(b.sequence(), a.sequence());
+    }
+
+    private record Entry<K, V>(K key, long sequence, V value) {}
+}
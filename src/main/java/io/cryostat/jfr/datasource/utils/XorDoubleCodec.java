@@ -0,0 +1,136 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import java.util.Arrays;
+
+/**
+ * Compresses a sequence of doubles by XOR-ing each value with its predecessor, as in Facebook's
+ * Gorilla time series database. Repeated values take a single bit and slowly changing values only
+ * their differing middle bits, which suits periodic JFR samples well. Values can only be decoded
+ * sequentially.
+ */
+public final class XorDoubleCodec {
+
+    private XorDoubleCodec() {}
+
+    public static long[] encode(double[] values, int count) {
+        BitWriter out = new BitWriter(count);
+        long previous = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 0; i < count; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            if (i == 0) {
+                out.write(bits, 64);
+                previous = bits;
+                continue;
+            }
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            out.write(1, 1);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0
+                    && leading >= previousLeading
+                    && trailing >= previousTrailing) {
+                // Fits within the previous window of meaningful bits
+                out.write(0, 1);
+                out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int length = 64 - leading - trailing;
+                out.write(1, 1);
+                out.write(leading, 5);
+                out.write(length - 1, 6);
+                out.write(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        return out.toArray();
+    }
+
+    public static void decode(long[] encoded, int count, double[] values) {
+        BitReader in = new BitReader(encoded);
+        long previous = 0;
+        int previousLeading = 0;
+        int previousTrailing = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                previous = in.read(64);
+            } else if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    previousLeading = (int) in.read(5);
+                    int length = (int) in.read(6) + 1;
+                    previousTrailing = 64 - previousLeading - length;
+                }
+                previous ^= in.read(64 - previousLeading - previousTrailing) << previousTrailing;
+            }
+            values[i] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    private static final class BitWriter {
+        private long[] words;
+        private long position;
+
+        BitWriter(int count) {
+            this.words = new long[Math.max(1, count / 4)];
+        }
+
+        void write(long value, int bits) {
+            int word = (int) (position >>> 6);
+            int offset = (int) (position & 63);
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2 + 2);
+            }
+            long masked = bits == 64 ? value : value & ((1L << bits) - 1);
+            words[word] |= masked << offset;
+            if (offset + bits > 64) {
+                words[word + 1] |= masked >>> (64 - offset);
+            }
+            position += bits;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (int) ((position + 63) >>> 6));
+        }
+    }
+
+    private static final class BitReader {
+        private final long[] words;
+        private long position;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int bits) {
+            int word = (int) (position >>> 6);
+            int offset = (int) (position & 63);
+            long value = words[word] >>> offset;
+            if (offset + bits > 64) {
+                value |= words[word + 1] << (64 - offset);
+            }
+            position += bits;
+            return bits == 64 ? value : value & ((1L << bits) - 1);
+        }
+    }
+}
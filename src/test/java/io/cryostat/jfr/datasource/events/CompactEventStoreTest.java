@@ -0,0 +1,168 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class CompactEventStoreTest {
+
+    static final File RECORDING = new File("src/test/resources/recording.jfr");
+    // More than one block of events each
+    static final List<String> LARGE_EVENT_TYPES =
+            List.of("jdk.ObjectAllocationSample", "jdk.ThreadPark");
+
+    static ItemEventStore items;
+
+    @BeforeAll
+    static void load() throws Exception {
+        items = new ItemEventStore(JfrLoaderToolkit.loadEvents(RECORDING));
+    }
+
+    @Test
+    void testMatchesItemEventsOnHeap() {
+        try (CompactEventStore compact =
+                CompactEventStore.encode(items, new MemberDictionary(), false)) {
+            assertMatchesItems(compact);
+        }
+    }
+
+    @Test
+    void testMatchesItemEventsOffHeap() {
+        try (CompactEventStore compact =
+                CompactEventStore.encode(items, new MemberDictionary(), true)) {
+            assertMatchesItems(compact);
+        }
+    }
+
+    @Test
+    void testScansRangesLikeItemEvents() {
+        try (CompactEventStore compact =
+                CompactEventStore.encode(items, new MemberDictionary(), false)) {
+            for (String eventType : LARGE_EVENT_TYPES) {
+                EventTable expected = items.get(eventType);
+                EventTable actual = compact.get(eventType);
+                assertTrue(expected.size() > CompactEventTable.BLOCK_SIZE, eventType);
+
+                long min = expected.getMinStartTime();
+                long span = expected.getMaxEndTime() - min;
+                long from = min + span / 3;
+                long to = min + 2 * span / 3;
+                List<long[]> expectedTimes = times(expected, from, to, to);
+                assertEqualTimes(expectedTimes, times(actual, from, to, to));
+                // Events ending after the range are only left out when asked to
+                assertEqualTimes(
+                        times(expected, from, to, Long.MAX_VALUE),
+                        times(actual, from, to, Long.MAX_VALUE));
+                assertTrue(actual.estimateCount(from, to) >= expectedTimes.size(), eventType);
+            }
+        }
+    }
+
+    private static void assertMatchesItems(CompactEventStore compact) {
+        assertEquals(new HashSet<>(items.getEventTypes()), new HashSet<>(compact.getEventTypes()));
+        assertEquals(items.getChunkEventTypes(), compact.getChunkEventTypes());
+        for (String eventType : items.getEventTypes()) {
+            EventTable expected = items.get(eventType);
+            EventTable actual = compact.get(eventType);
+            assertEquals(expected.getFields(), actual.getFields(), eventType);
+            assertEquals(expected.size(), actual.size(), eventType);
+            if (expected.size() == 0) {
+                continue;
+            }
+            assertEquals(expected.getMinStartTime(), actual.getMinStartTime(), eventType);
+            assertEquals(expected.getMaxEndTime(), actual.getMaxEndTime(), eventType);
+
+            List<EventField> fields = expected.getFields();
+            List<Object[]> expectedRows = rows(expected);
+            List<Object[]> actualRows = rows(actual);
+            assertEquals(expectedRows.size(), actualRows.size(), eventType);
+            for (int i = 0; i < expectedRows.size(); i++) {
+                Object[] expectedRow = expectedRows.get(i);
+                Object[] actualRow = actualRows.get(i);
+                String row = eventType + " row " + i;
+                assertEquals(expectedRow[0], actualRow[0], row + " start time");
+                assertEquals(expectedRow[1], actualRow[1], row + " end time");
+                for (int f = 0; f < fields.size(); f++) {
+                    EventField field = fields.get(f);
+                    if (field.isEventTime()) {
+                        continue;
+                    }
+                    String column = row + " " + field.identifier();
+                    double number = (Double) expectedRow[2 + 2 * f];
+                    assertEquals(
+                            number,
+                            (Double) actualRow[2 + 2 * f],
+                            Math.abs(number) * 1e-12,
+                            column);
+                    if (!field.isQuantity()) {
+                        assertEquals(expectedRow[3 + 2 * f], actualRow[3 + 2 * f], column);
+                    }
+                }
+            }
+        }
+    }
+
+    // Start time, end time, then the number and value of each field, since rows are cursors
+    private static List<Object[]> rows(EventTable table) {
+        int fields = table.getFields().size();
+        List<Object[]> rows = new ArrayList<>(table.size());
+        table.scanAll(
+                row -> {
+                    Object[] values = new Object[2 + 2 * fields];
+                    values[0] = row.getStartTime();
+                    values[1] = row.getEndTime();
+                    for (int f = 0; f < fields; f++) {
+                        values[2 + 2 * f] = row.getNumber(f);
+                        values[3 + 2 * f] = row.getValue(f);
+                    }
+                    rows.add(values);
+                    return true;
+                });
+        return rows;
+    }
+
+    private static List<long[]> times(EventTable table, long from, long to, long endTo) {
+        List<long[]> times = new ArrayList<>();
+        table.scan(
+                from,
+                to,
+                endTo,
+                row -> {
+                    times.add(new long[] {row.getStartTime(), row.getEndTime()});
+                    return true;
+                });
+        return times;
+    }
+
+    private static void assertEqualTimes(List<long[]> expected, List<long[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i)[0], actual.get(i)[0], "start time " + i);
+            assertEquals(expected.get(i)[1], actual.get(i)[1], "end time " + i);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class EventTypeSelectionTest {
+
+    @Test
+    void testAllSelectsEveryType() {
+        assertTrue(EventTypeSelection.ALL.isAll());
+        assertTrue(EventTypeSelection.ALL.test("jdk.ExecutionSample"));
+        assertTrue(EventTypeSelection.of(null, List.of(" ", "")).isAll());
+    }
+
+    @Test
+    void testIncludeAndExclude() {
+        EventTypeSelection types =
+                EventTypeSelection.of(List.of("jdk.GC*,jdk.CPULoad"), List.of("jdk.GCPhase*"));
+        assertTrue(types.test("jdk.CPULoad"));
+        assertTrue(types.test("jdk.GCHeapSummary"));
+        assertFalse(types.test("jdk.GCPhasePause"));
+        assertFalse(types.test("jdk.ExecutionSample"));
+
+        EventTypeSelection excluded =
+                EventTypeSelection.of(
+                        List.of(), List.of("jdk.ExecutionSample", "jdk.ObjectAllocationSample"));
+        assertTrue(excluded.test("jdk.ThreadPark"));
+        assertFalse(excluded.test("jdk.ExecutionSample"));
+    }
+
+    @Test
+    void testWildcards() {
+        assertTrue(EventTypeSelection.matches("*", "jdk.ThreadPark"));
+        assertTrue(EventTypeSelection.matches("*Sample", "jdk.ExecutionSample"));
+        assertTrue(EventTypeSelection.matches("jdk.*Sample", "jdk.ExecutionSample"));
+        assertTrue(EventTypeSelection.matches("jdk.*a*a*", "jdk.aa"));
+        assertFalse(EventTypeSelection.matches("jdk.*a*a*", "jdk.a"));
+        assertFalse(EventTypeSelection.matches("jdk.*Sample", "jdk.Sampler"));
+        assertTrue(EventTypeSelection.matches("jdk.Thread*", "jdk.ThreadPark"));
+        assertFalse(EventTypeSelection.matches("ab*b", "ab"));
+        assertFalse(EventTypeSelection.matches("jdk.Thread", "jdk.ThreadPark"));
+    }
+
+    @Test
+    void testEqualSelectionsCompareEqual() {
+        assertEquals(
+                EventTypeSelection.of(List.of("b, a"), List.of()),
+                EventTypeSelection.of(List.of("a", "b", "a"), null));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+
+import org.junit.jupiter.api.Test;
+
+public class LazyEventStoreTest {
+
+    static final File RECORDING = new File("src/test/resources/recording.jfr");
+    static final List<String> EVENT_TYPES =
+            List.of("jdk.ThreadPark", "jdk.JavaMonitorWait", "jdk.ObjectAllocationSample");
+
+    @Test
+    void testMatchesEagerlyLoadedEvents() throws Exception {
+        ItemEventStore eager = new ItemEventStore(JfrLoaderToolkit.loadEvents(RECORDING));
+        // Fewer loaded types than queried ones, so the first type is evicted and parsed again
+        try (LazyEventStore lazy = LazyEventStore.open(RECORDING, 2, EventTypeSelection.ALL)) {
+            assertEquals(new HashSet<>(eager.getEventTypes()), new HashSet<>(lazy.getEventTypes()));
+            assertEquals(eager.getChunkEventTypes(), lazy.getChunkEventTypes());
+
+            for (int pass = 0; pass < 2; pass++) {
+                for (String eventType : EVENT_TYPES) {
+                    EventTable expected = eager.get(eventType);
+                    EventTable actual = lazy.get(eventType);
+                    assertNotNull(actual);
+                    assertEquals(expected.getFields(), actual.getFields());
+                    assertEquals(expected.size(), actual.size());
+                    assertEquals(expected.getMinStartTime(), actual.getMinStartTime());
+                    assertEquals(expected.getMaxEndTime(), actual.getMaxEndTime());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testTimeRangeCoversEagerlyLoadedEvents() throws Exception {
+        ItemEventStore eager = new ItemEventStore(JfrLoaderToolkit.loadEvents(RECORDING));
+        try (LazyEventStore lazy = LazyEventStore.open(RECORDING, 2, EventTypeSelection.ALL)) {
+            // Taken from the chunk headers, which span every event of the recording
+            assertTrue(lazy.getMinStartTime() <= eager.getMinStartTime());
+            assertTrue(lazy.getMaxEndTime() >= eager.getMaxEndTime());
+            assertTrue(eager.getMinStartTime() - lazy.getMinStartTime() < 1_000);
+            assertTrue(lazy.getMaxEndTime() - eager.getMaxEndTime() < 1_000);
+        }
+    }
+
+    @Test
+    void testScansLoadedEventsInStartTimeOrder() throws Exception {
+        try (LazyEventStore lazy = LazyEventStore.open(RECORDING, 16, EventTypeSelection.ALL)) {
+            EventTable table = lazy.get("jdk.ThreadPark");
+            long[] previous = {Long.MIN_VALUE};
+            int[] count = {0};
+            table.scanAll(
+                    row -> {
+                        assertTrue(row.getStartTime() >= previous[0]);
+                        previous[0] = row.getStartTime();
+                        count[0]++;
+                        return true;
+                    });
+            assertEquals(table.size(), count[0]);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class LoadedRecordingTest {
+
+    @Test
+    void testBuildsLazyRollupsOnceOnExecutor() {
+        CountingStore store = new CountingStore();
+        LoadedRecording recording = new LoadedRecording(store, new MemberDictionary());
+        List<Runnable> tasks = new ArrayList<>();
+
+        assertTrue(recording.getRollup("jdk.CPULoad", "machineTotal").isEmpty());
+        assertFalse(recording.hasRollup("jdk.CPULoad", "machineTotal"));
+
+        // Concurrent requests for the same field build it once
+        recording.buildRollup("jdk.CPULoad", "machineTotal", tasks::add);
+        recording.buildRollup("jdk.CPULoad", "machineTotal", tasks::add);
+        assertEquals(1, tasks.size());
+        assertFalse(recording.hasRollup("jdk.CPULoad", "machineTotal"));
+        assertEquals(0, store.gets.get());
+
+        tasks.remove(0).run();
+        assertTrue(recording.hasRollup("jdk.CPULoad", "machineTotal"));
+        assertTrue(recording.getRollup("jdk.CPULoad", "machineTotal").isEmpty());
+        assertEquals(1, store.gets.get());
+
+        recording.buildRollup("jdk.CPULoad", "machineTotal", tasks::add);
+        assertTrue(tasks.isEmpty());
+
+        // Other fields of the type are only built once asked for
+        assertFalse(recording.hasRollup("jdk.CPULoad", "jvmUser"));
+        recording.buildRollup("jdk.CPULoad", "jvmUser", tasks::add);
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    void testRetriesFailedRollupBuilds() {
+        CountingStore store = new CountingStore();
+        store.failing = true;
+        LoadedRecording recording = new LoadedRecording(store, new MemberDictionary());
+        List<Runnable> tasks = new ArrayList<>();
+
+        recording.buildRollup("jdk.CPULoad", "machineTotal", tasks::add);
+        assertThrows(IllegalStateException.class, () -> tasks.remove(0).run());
+        assertFalse(recording.hasRollup("jdk.CPULoad", "machineTotal"));
+        // The failed build released its reference
+        recording.release();
+        assertEquals(1, store.closes.get());
+    }
+
+    @Test
+    void testSkipsRollupBuildsOfClosedRecordings() {
+        CountingStore store = new CountingStore();
+        LoadedRecording recording = new LoadedRecording(store, new MemberDictionary());
+        List<Runnable> tasks = new ArrayList<>();
+
+        recording.buildRollup("jdk.CPULoad", "machineTotal", tasks::add);
+        recording.release();
+        tasks.remove(0).run();
+        assertEquals(0, store.gets.get());
+        assertEquals(1, store.closes.get());
+    }
+
+    @Test
+    void testClosesStoreOnLastRelease() {
+        CountingStore store = new CountingStore();
+        LoadedRecording recording = new LoadedRecording(store, new MemberDictionary());
+
+        assertTrue(recording.retain());
+        recording.release();
+        assertEquals(0, store.closes.get());
+        recording.release();
+        assertEquals(1, store.closes.get());
+        assertFalse(recording.retain());
+    }
+
+    static class CountingStore implements EventStore {
+        final AtomicInteger gets = new AtomicInteger();
+        final AtomicInteger closes = new AtomicInteger();
+        boolean failing;
+
+        @Override
+        public EventTable get(String eventType) {
+            gets.incrementAndGet();
+            if (failing) {
+                throw new IllegalStateException("closed");
+            }
+            return null;
+        }
+
+        @Override
+        public Collection<String> getEventTypes() {
+            return List.of();
+        }
+
+        @Override
+        public List<String> getChunkEventTypes() {
+            return List.of();
+        }
+
+        @Override
+        public void close() {
+            closes.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmc.common.IMCFrame;
+import org.openjdk.jmc.common.IMCStackTrace;
+
+import org.junit.jupiter.api.Test;
+
+public class MemberDictionaryTest {
+
+    @Test
+    void testRoundTripsMembersThroughIds() {
+        MemberDictionary dictionary = new MemberDictionary();
+        // More members than the initial capacity, so that the arrays grow
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, dictionary.id(new Member(i)));
+        }
+        assertEquals(1000, dictionary.size());
+
+        for (int i = 0; i < 1000; i++) {
+            // Equal members map to the same id
+            int id = dictionary.id(new Member(i));
+            assertEquals(i, id);
+            assertEquals(new Member(i), dictionary.member(id));
+            assertEquals("member " + i, dictionary.render(id));
+        }
+        assertEquals(1000, dictionary.size());
+    }
+
+    @Test
+    void testRendersMembersOnce() {
+        MemberDictionary dictionary = new MemberDictionary();
+        int id = dictionary.id(new Member(1));
+        assertSame(dictionary.render(id), dictionary.render(id));
+        assertSame(dictionary.render(id), dictionary.render(new Member(1)));
+
+        // Strings and nulls are rendered as is, without being interned
+        assertEquals("string", dictionary.render("string"));
+        assertNull(dictionary.render(null));
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    void testDoesNotInternStackTracesForRendering() {
+        MemberDictionary dictionary = new MemberDictionary();
+        StackTrace stackTrace = new StackTrace("trace");
+        assertEquals("trace", dictionary.render(stackTrace));
+        assertEquals(0, dictionary.size());
+
+        // Unless interned anyway, e.g. by a compact event table
+        int id = dictionary.id(stackTrace);
+        assertSame(dictionary.render(id), dictionary.render(stackTrace));
+    }
+
+    @Test
+    void testCapsMembersInternedForRendering() {
+        MemberDictionary dictionary = new MemberDictionary();
+        int max = MemberDictionary.MAX_RENDERED_MEMBERS;
+        for (int i = 0; i < max + 10; i++) {
+            assertEquals("member " + i, dictionary.render(new Member(i)));
+        }
+        assertEquals(max, dictionary.size());
+        // Interned members are still rendered from the cache
+        assertSame(dictionary.render(new Member(0)), dictionary.render(new Member(0)));
+
+        // Interning ids for encoding is not capped
+        assertEquals(max, dictionary.id(new Member(max)));
+        assertEquals(max + 1, dictionary.size());
+    }
+
+    @Test
+    void testAssignsOneIdPerMemberUnderConcurrentInterning() throws Exception {
+        int threads = 8;
+        int members = 5_000;
+        MemberDictionary dictionary = new MemberDictionary();
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Random random = new Random(t);
+                results.add(
+                        executor.submit(
+                                () -> {
+                                    List<Integer> order = new ArrayList<>();
+                                    for (int i = 0; i < members; i++) {
+                                        order.add(i);
+                                    }
+                                    Collections.shuffle(order, random);
+                                    start.await();
+                                    int[] ids = new int[members];
+                                    for (int i : order) {
+                                        ids[i] = dictionary.id(new Member(i));
+                                    }
+                                    return ids;
+                                }));
+            }
+
+            int[] expected = results.get(0).get(30, TimeUnit.SECONDS);
+            for (Future<int[]> result : results) {
+                int[] ids = result.get(30, TimeUnit.SECONDS);
+                for (int i = 0; i < members; i++) {
+                    assertEquals(expected[i], ids[i]);
+                }
+            }
+            assertEquals(members, dictionary.size());
+            Set<Integer> distinct = new HashSet<>();
+            for (int i = 0; i < members; i++) {
+                distinct.add(expected[i]);
+                assertEquals(new Member(i), dictionary.member(expected[i]));
+                assertEquals("member " + i, dictionary.render(expected[i]));
+            }
+            assertEquals(members, distinct.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    record Member(int value) {
+        @Override
+        public String toString() {
+            return "member " + value;
+        }
+    }
+
+    record StackTrace(String name) implements IMCStackTrace {
+        @Override
+        public List<? extends IMCFrame> getFrames() {
+            return List.of();
+        }
+
+        @Override
+        public TruncationState getTruncationState() {
+            return TruncationState.NOT_TRUNCATED;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
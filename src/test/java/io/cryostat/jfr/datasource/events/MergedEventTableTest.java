@@ -0,0 +1,240 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import io.cryostat.jfr.datasource.utils.CancellationToken;
+import io.cryostat.jfr.datasource.utils.QueryCancelledException;
+
+import org.junit.jupiter.api.Test;
+
+public class MergedEventTableTest {
+
+    static final EventField PART = new EventField("part", null);
+    static final EventField LABEL = new EventField("label", null);
+
+    @Test
+    void testScansOverlappingPartsInStartTimeOrder() {
+        // As the chunks of a recording, whose last events overlap the first of the next chunk
+        FakeTable first = new FakeTable(List.of(PART, LABEL), "first", 0, 10, 20, 30, 40);
+        FakeTable second = new FakeTable(List.of(PART, LABEL), "second", 25, 35, 45, 50);
+        FakeTable third = new FakeTable(List.of(PART, LABEL), "third", 50, 60);
+        MergedEventTable merged = new MergedEventTable("type", List.of(third, second, first));
+
+        assertEquals(11, merged.size());
+        assertEquals(
+                List.of(0L, 10L, 20L, 25L, 30L, 35L, 40L, 45L, 50L, 50L, 60L),
+                startTimes(merged, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE));
+        assertEquals(List.of(20L, 25L, 30L, 35L), startTimes(merged, 15, 35, Long.MAX_VALUE));
+        // Events ending after endTo are left out, so the durations of 1 only leave out the last
+        assertEquals(List.of(45L, 50L, 50L), startTimes(merged, 45, 60, 59));
+
+        // Equal start times keep the order of the parts
+        List<Object> parts = new ArrayList<>();
+        merged.scan(50, 50, Long.MAX_VALUE, row -> parts.add(row.getValue(0)));
+        assertEquals(List.of("second", "third"), parts);
+    }
+
+    @Test
+    void testStopsMergeWhenVisitorStops() {
+        FakeTable first = new FakeTable(List.of(PART), "first", 0, 20, 40);
+        FakeTable second = new FakeTable(List.of(PART), "second", 10, 30, 50);
+        MergedEventTable merged = new MergedEventTable("type", List.of(first, second));
+
+        List<Long> visited = new ArrayList<>();
+        merged.scanAll(
+                row -> {
+                    visited.add(row.getStartTime());
+                    return visited.size() < 4;
+                });
+        assertEquals(List.of(0L, 10L, 20L, 30L), visited);
+    }
+
+    @Test
+    void testMergesLargeOverlapsInWindows() {
+        Random random = new Random(42);
+        List<FakeTable> parts = new ArrayList<>();
+        List<Long> expected = new ArrayList<>();
+        for (int p = 0; p < 3; p++) {
+            long[] startTimes = new long[10_000];
+            for (int i = 0; i < startTimes.length; i++) {
+                startTimes[i] = p * 1_000 + random.nextInt(20_000);
+                expected.add(startTimes[i]);
+            }
+            parts.add(new FakeTable(List.of(PART), "part " + p, startTimes));
+        }
+        expected.sort(Comparator.naturalOrder());
+        MergedEventTable merged = new MergedEventTable("type", new ArrayList<>(parts));
+
+        assertEquals(
+                expected, startTimes(merged, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE));
+        List<Long> range = startTimes(merged, 5_000, 15_000, Long.MAX_VALUE);
+        assertEquals(expected.stream().filter(t -> t >= 5_000 && t <= 15_000).toList(), range);
+    }
+
+    @Test
+    void testMapsFieldsOfOverlappingParts() {
+        FakeTable named = new FakeTable(List.of(PART, LABEL), "named", 0, 20);
+        FakeTable unnamed = new FakeTable(List.of(LABEL), "unnamed", 10, 30);
+        MergedEventTable merged = new MergedEventTable("type", List.of(named, unnamed));
+
+        assertEquals(List.of(PART, LABEL), merged.getFields());
+        List<Object> parts = new ArrayList<>();
+        List<Object> labels = new ArrayList<>();
+        merged.scanAll(
+                row -> {
+                    parts.add(row.getValue(0));
+                    labels.add(row.getValue(1));
+                    return true;
+                });
+        assertEquals(List.of("named 0", "unnamed 10", "named 20", "unnamed 30"), labels);
+        // The unnamed part has no part field
+        assertEquals(Arrays.asList("named", null, "named", null), parts);
+    }
+
+    @Test
+    void testExpiredDeadlineCancelsScan() {
+        long[] startTimes = new long[5_000];
+        for (int i = 0; i < startTimes.length; i++) {
+            startTimes[i] = i;
+        }
+        FakeTable first = new FakeTable(List.of(PART), "first", startTimes);
+        FakeTable second = new FakeTable(List.of(PART), "second", startTimes);
+        MergedEventTable merged = new MergedEventTable("type", List.of(first, second));
+
+        List<Long> visited = new ArrayList<>();
+        CancellationToken expired = new CancellationToken(System.nanoTime() - 1);
+        QueryCancelledException e =
+                assertThrows(
+                        QueryCancelledException.class,
+                        () ->
+                                merged.scanAll(
+                                        expired,
+                                        row -> {
+                                            visited.add(row.getStartTime());
+                                            return true;
+                                        }));
+        assertEquals("Query cancelled: deadline exceeded", e.getMessage());
+        assertTrue(visited.isEmpty());
+    }
+
+    private static List<Long> startTimes(EventTable table, long from, long to, long endTo) {
+        List<Long> startTimes = new ArrayList<>();
+        table.scan(
+                from,
+                to,
+                endTo,
+                row -> {
+                    startTimes.add(row.getStartTime());
+                    return true;
+                });
+        return startTimes;
+    }
+
+    // Events lasting 1ms, labelled with the name of their part and their start time
+    static class FakeTable implements EventTable {
+        final List<EventField> fields;
+        final String part;
+        final long[] startTimes;
+
+        FakeTable(List<EventField> fields, String part, long... startTimes) {
+            this.fields = fields;
+            this.part = part;
+            this.startTimes = startTimes.clone();
+            Arrays.sort(this.startTimes);
+        }
+
+        @Override
+        public String getEventType() {
+            return "type";
+        }
+
+        @Override
+        public List<EventField> getFields() {
+            return fields;
+        }
+
+        @Override
+        public int size() {
+            return startTimes.length;
+        }
+
+        @Override
+        public long getMinStartTime() {
+            return startTimes.length == 0 ? Long.MAX_VALUE : startTimes[0];
+        }
+
+        @Override
+        public long getMaxEndTime() {
+            return startTimes.length == 0 ? 0 : startTimes[startTimes.length - 1] + 1;
+        }
+
+        @Override
+        public int estimateCount(long from, long to) {
+            int count = 0;
+            for (long startTime : startTimes) {
+                if (startTime >= from && startTime <= to) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void scan(long from, long to, long endTo, RowVisitor visitor) {
+            for (long startTime : startTimes) {
+                if (startTime < from || startTime > to || startTime + 1 > endTo) {
+                    continue;
+                }
+                String label = part + " " + startTime;
+                EventRow row =
+                        new EventRow() {
+                            @Override
+                            public long getStartTime() {
+                                return startTime;
+                            }
+
+                            @Override
+                            public long getEndTime() {
+                                return startTime + 1;
+                            }
+
+                            @Override
+                            public Object getValue(int field) {
+                                return fields.get(field) == PART ? part : label;
+                            }
+
+                            @Override
+                            public double getNumber(int field) {
+                                return Double.NaN;
+                            }
+                        };
+                if (!visitor.visit(row)) {
+                    return;
+                }
+            }
+        }
+    }
+}
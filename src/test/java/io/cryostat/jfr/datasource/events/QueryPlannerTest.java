@@ -0,0 +1,234 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.cryostat.jfr.datasource.events.QueryPlanner.Kind;
+import io.cryostat.jfr.datasource.events.QueryPlanner.LogicalPlan;
+import io.cryostat.jfr.datasource.events.QueryPlanner.Operator;
+import io.cryostat.jfr.datasource.events.QueryPlanner.PhysicalPlan;
+import io.cryostat.jfr.datasource.server.Target;
+import io.cryostat.jfr.datasource.utils.CancellationToken;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class QueryPlannerTest {
+
+    static final EventStore EMPTY_STORE =
+            new EventStore() {
+                @Override
+                public EventTable get(String eventType) {
+                    return null;
+                }
+
+                @Override
+                public Collection<String> getEventTypes() {
+                    return List.of();
+                }
+
+                @Override
+                public List<String> getChunkEventTypes() {
+                    return List.of();
+                }
+            };
+
+    LoadedRecording recording;
+
+    @BeforeEach
+    void setup() {
+        recording = new LoadedRecording(EMPTY_STORE, new MemberDictionary(), Map.of());
+    }
+
+    @Test
+    void testChoosesCheapestOperator() throws Exception {
+        QueryPlanner planner =
+                new QueryPlanner(
+                        List.of(
+                                new FixedCost("expensive", 10, 1),
+                                new FixedCost("cheap", 5, 1),
+                                new FixedCost("inapplicable", -1, 1),
+                                new FixedCost("tied", 5, 1)),
+                        100);
+        PhysicalPlan plan = planner.plan(recording, timeseries("max"), 0, 1000, 100);
+        assertEquals(Kind.AGGREGATE, plan.logical().kind());
+        assertEquals(100, plan.logical().bucket());
+        assertEquals("cheap", plan.operator().name());
+        assertEquals(5, plan.cost());
+    }
+
+    @Test
+    void testServesRepeatedTargetsFromCache() throws Exception {
+        FixedCost operator = new FixedCost("scan", 10, 1);
+        QueryPlanner planner = new QueryPlanner(List.of(operator), 100);
+
+        List<JsonObject> result =
+                planner.plan(recording, timeseries("avg"), 0, 1000, 100)
+                        .execute(recording, CancellationToken.NONE);
+        PhysicalPlan cached = planner.plan(recording, timeseries("avg"), 0, 1000, 100);
+        assertEquals("cached", cached.operator().name());
+        assertEquals(0, cached.cost());
+        assertSame(result, cached.execute(recording, CancellationToken.NONE));
+        assertEquals(1, operator.executions.get());
+
+        // Another range or interval is another result
+        assertEquals(
+                "scan", planner.plan(recording, timeseries("avg"), 0, 2000, 100).operator().name());
+        assertEquals(
+                "scan", planner.plan(recording, timeseries("avg"), 0, 1000, 200).operator().name());
+    }
+
+    @Test
+    void testDoesNotCacheLargeResults() throws Exception {
+        FixedCost operator = new FixedCost("scan", 10, QueryPlanner.MAX_CACHED_POINTS + 1);
+        QueryPlanner planner = new QueryPlanner(List.of(operator), 100);
+
+        planner.plan(recording, timeseries("sum"), 0, 1000, 100)
+                .execute(recording, CancellationToken.NONE);
+        PhysicalPlan plan = planner.plan(recording, timeseries("sum"), 0, 1000, 100);
+        assertEquals("scan", plan.operator().name());
+    }
+
+    @Test
+    void testPlansTables() throws Exception {
+        QueryPlanner planner = new QueryPlanner(List.of(new FixedCost("scan", 10, 1)), 100);
+
+        LogicalPlan table =
+                planner.plan(
+                                recording,
+                                new Target(
+                                        "jdk.ThreadPark{duration}",
+                                        "table",
+                                        new JsonObject().put("limit", 500).put("offset", 20)),
+                                0,
+                                1000,
+                                0)
+                        .logical();
+        assertEquals(Kind.TABLE, table.kind());
+        assertEquals(100, table.limit());
+        assertEquals(120, table.window());
+
+        Target duration = new Target(Target.durationTargetIdentifier, "table");
+        assertEquals(Kind.RECORDING, planner.plan(recording, duration, 0, 1, 0).logical().kind());
+
+        PhysicalPlan unsupported =
+                planner.plan(recording, new Target("jdk.ThreadPark.duration", "graph"), 0, 1, 0);
+        assertEquals(Kind.NONE, unsupported.logical().kind());
+        assertTrue(unsupported.execute(recording, CancellationToken.NONE).isEmpty());
+    }
+
+    @Test
+    void testEvaluatesBatchesTogether() throws Exception {
+        FixedCost batched = new FixedCost("scan", 10, 1, true);
+        FixedCost single = new FixedCost("single", 7, 1, false);
+        QueryPlanner planner = new QueryPlanner(List.of(batched), 100);
+        QueryPlanner singlePlanner = new QueryPlanner(List.of(single), 100);
+
+        List<PhysicalPlan> plans =
+                List.of(
+                        planner.plan(recording, timeseries("min"), 0, 1000, 100),
+                        singlePlanner.plan(recording, timeseries("min"), 0, 1000, 200),
+                        planner.plan(recording, timeseries("max"), 0, 1000, 100));
+        // The batch counts once, next to the plan of its own
+        assertEquals(17, planner.cost(plans));
+
+        List<JsonObject> results = planner.execute(recording, plans, CancellationToken.NONE);
+        assertEquals(3, results.size());
+        assertEquals(1, batched.batches.get());
+        assertEquals(2, batched.executions.get());
+        assertEquals(1, single.executions.get());
+        assertEquals("min", results.get(0).getString("aggregate"));
+        assertEquals("min", results.get(1).getString("aggregate"));
+        assertEquals("max", results.get(2).getString("aggregate"));
+
+        // Results of batches are cached as well
+        assertEquals(
+                "cached",
+                planner.plan(recording, timeseries("max"), 0, 1000, 100).operator().name());
+    }
+
+    static Target timeseries(String aggregate) throws Exception {
+        return new Target(
+                "jdk.ObjectAllocationSample.weight",
+                "timeserie",
+                new JsonObject().put("aggregate", aggregate));
+    }
+
+    static final class FixedCost implements Operator {
+        final String name;
+        final long cost;
+        final int points;
+        final boolean batching;
+        final AtomicInteger executions = new AtomicInteger();
+        final AtomicInteger batches = new AtomicInteger();
+
+        FixedCost(String name, long cost, int points) {
+            this(name, cost, points, false);
+        }
+
+        FixedCost(String name, long cost, int points, boolean batching) {
+            this.name = name;
+            this.cost = cost;
+            this.points = points;
+            this.batching = batching;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public long cost(LoadedRecording current, LogicalPlan plan) {
+            return cost;
+        }
+
+        @Override
+        public List<JsonObject> execute(
+                LoadedRecording current, LogicalPlan plan, CancellationToken cancellation) {
+            executions.incrementAndGet();
+            JsonArray datapoints = new JsonArray();
+            for (int i = 0; i < points; i++) {
+                datapoints.add(new JsonArray().add(i).add(plan.from() + i));
+            }
+            String aggregate = plan.aggregate().map(a -> a.name().toLowerCase()).orElse(null);
+            return List.of(
+                    new JsonObject().put("datapoints", datapoints).put("aggregate", aggregate));
+        }
+
+        @Override
+        public Object batchKey(LogicalPlan plan) {
+            return batching ? plan.eventType() : null;
+        }
+
+        @Override
+        public List<List<JsonObject>> executeAll(
+                LoadedRecording current, List<LogicalPlan> plans, CancellationToken cancellation) {
+            batches.incrementAndGet();
+            return Operator.super.executeAll(current, plans, cancellation);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+import io.cryostat.jfr.datasource.events.RecordingService.StorageMode;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RecordingServiceTest {
+
+    static final Path RECORDING = Path.of("src/test/resources/recording.jfr");
+    static final String EVENT_TYPE = "jdk.ThreadPark";
+
+    Path dir;
+    String first;
+    String second;
+    RecordingService service;
+
+    @BeforeEach
+    void setup() throws Exception {
+        dir = Files.createTempDirectory("recording-service-test");
+        first = copy("first.jfr");
+        second = copy("second.jfr");
+        service = new RecordingService();
+        service.tableMaxRows = 1000;
+        service.rollupsEnabled = false;
+        service.storageMode = StorageMode.OFF_HEAP;
+        service.maxRecordings = 1;
+        service.splitChunks = true;
+        service.loadInclude = Optional.empty();
+        service.loadExclude = Optional.empty();
+        service.annotationRulesFile = Optional.empty();
+        service.logger = Logger.getLogger(RecordingService.class);
+        service.onStart(null);
+    }
+
+    @AfterEach
+    void cleanup() throws Exception {
+        service.unloadAll();
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    void testQuerySurvivesUnload() throws Exception {
+        service.loadEvents(first, EventTypeSelection.ALL);
+        LoadedRecording query = service.acquire();
+
+        service.unload(first);
+        assertReadable(query);
+        query.release();
+        assertClosed(query);
+    }
+
+    @Test
+    void testQuerySurvivesUnloadAll() throws Exception {
+        service.loadEvents(first, EventTypeSelection.ALL);
+        LoadedRecording query = service.acquire();
+
+        service.unloadAll();
+        assertReadable(query);
+        query.release();
+        assertClosed(query);
+    }
+
+    @Test
+    void testQuerySurvivesEviction() throws Exception {
+        service.loadEvents(first, EventTypeSelection.ALL);
+        LoadedRecording query = service.acquire();
+
+        // Only one recording stays loaded, so selecting another evicts the first
+        service.loadEvents(second, EventTypeSelection.ALL);
+        LoadedRecording current = service.acquire();
+        assertTrue(current != query);
+        current.release();
+        assertReadable(query);
+        query.release();
+        assertClosed(query);
+    }
+
+    @Test
+    void testResidentRecordingStaysOpen() throws Exception {
+        service.loadEvents(first, EventTypeSelection.ALL);
+        LoadedRecording query = service.acquire();
+        query.release();
+
+        // Still held by the selection and the resident cache
+        assertReadable(query);
+        service.loadEvents(first, EventTypeSelection.ALL);
+        LoadedRecording again = service.acquire();
+        assertSame(query, again);
+        again.release();
+    }
+
+    private String copy(String name) throws Exception {
+        Path file = dir.resolve(name);
+        Files.copy(RECORDING, file, StandardCopyOption.REPLACE_EXISTING);
+        return file.toString();
+    }
+
+    private static int scan(LoadedRecording recording) {
+        EventTable table = recording.getStore().get(EVENT_TYPE);
+        assertNotNull(table);
+        int[] count = {0};
+        table.scanAll(
+                row -> {
+                    row.getStartTime();
+                    count[0]++;
+                    return true;
+                });
+        return count[0];
+    }
+
+    private static void assertReadable(LoadedRecording recording) {
+        assertTrue(scan(recording) > 0);
+    }
+
+    // The native memory of the events has been freed, so reading them fails rather than crashing
+    private static void assertClosed(LoadedRecording recording) {
+        assertThrows(IllegalStateException.class, () -> scan(recording));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmc.common.unit.UnitLookup;
+
+import org.junit.jupiter.api.Test;
+
+public class RollupTest {
+
+    static final EventField VALUE = new EventField("value", UnitLookup.NUMBER);
+    static final EventField NAME = new EventField("name", null);
+
+    @Test
+    void testChoosesCoarsestResolutionDividingInterval() {
+        assertEquals(1_000, Rollup.resolutionFor(1_000));
+        assertEquals(1_000, Rollup.resolutionFor(5_000));
+        assertEquals(10_000, Rollup.resolutionFor(30_000));
+        assertEquals(60_000, Rollup.resolutionFor(120_000));
+        assertEquals(600_000, Rollup.resolutionFor(600_000));
+        assertEquals(600_000, Rollup.resolutionFor(3_600_000));
+        assertEquals(10_000, Rollup.resolutionFor(90_000));
+        assertEquals(-1, Rollup.resolutionFor(500));
+        assertEquals(-1, Rollup.resolutionFor(1_500));
+    }
+
+    @Test
+    void testBuildsRollupsOfNumericFields() {
+        FakeTable table = new FakeTable();
+        table.add(0, 0, 1);
+        assertTrue(Rollup.build(table, "value").isPresent());
+        assertTrue(Rollup.build(table, "name").isEmpty());
+        assertTrue(Rollup.build(table, "missing").isEmpty());
+    }
+
+    @Test
+    void testVisitsAlignedBucketsWithinRange() {
+        FakeTable table = new FakeTable();
+        // One event every 500ms with the value of its second, over 25 minutes
+        for (long time = 0; time < 1_500_000; time += 500) {
+            table.add(time, time, time / 1_000);
+        }
+        Rollup rollup = Rollup.build(table, "value").get();
+
+        for (long resolution : Rollup.RESOLUTIONS) {
+            long from = 600_000;
+            long to = 1_200_000;
+            List<Long> startTimes = new ArrayList<>();
+            long[] count = {0};
+            double[] sum = {0};
+            rollup.forEach(
+                    resolution,
+                    from,
+                    to,
+                    (startTime, bucket) -> {
+                        assertEquals(0, startTime % resolution);
+                        startTimes.add(startTime);
+                        count[0] += bucket.getCount();
+                        sum[0] += bucket.getSum();
+                        assertEquals(startTime / 1_000, bucket.getMin(), 0);
+                        assertEquals((startTime + resolution) / 1_000 - 1, bucket.getMax(), 0);
+                    });
+            assertEquals((to - from) / resolution, startTimes.size());
+            assertEquals(from, startTimes.get(0).longValue());
+            assertEquals(to - resolution, startTimes.get(startTimes.size() - 1).longValue());
+            // Two events per second, valued 600 to 1199
+            assertEquals(1_200, count[0]);
+            assertEquals(2 * (600 + 1_199) * 600 / 2, sum[0], 0);
+        }
+    }
+
+    @Test
+    void testMergesLikeRollupOfUnion() {
+        Random random = new Random(42);
+        FakeTable first = new FakeTable();
+        FakeTable second = new FakeTable();
+        FakeTable union = new FakeTable();
+        for (int i = 0; i < 10_000; i++) {
+            long time = random.nextInt(3_600_000);
+            double value = random.nextInt(1_000);
+            (i % 2 == 0 ? first : second).add(time, time + 10, value);
+            union.add(time, time + 10, value);
+        }
+        Rollup merged =
+                Rollup.merge(
+                        List.of(
+                                Rollup.build(first, "value").get(),
+                                Rollup.build(second, "value").get()));
+        Rollup expected = Rollup.build(union, "value").get();
+
+        for (long resolution : Rollup.RESOLUTIONS) {
+            List<Rollup.Bucket> expectedBuckets = buckets(expected, resolution);
+            List<Rollup.Bucket> mergedBuckets = buckets(merged, resolution);
+            assertEquals(expectedBuckets.size(), mergedBuckets.size());
+            for (int i = 0; i < expectedBuckets.size(); i++) {
+                Rollup.Bucket e = expectedBuckets.get(i);
+                Rollup.Bucket m = mergedBuckets.get(i);
+                assertEquals(e.getCount(), m.getCount());
+                assertEquals(e.getSum(), m.getSum(), 1e-6);
+                assertEquals(e.getMin(), m.getMin(), 0);
+                assertEquals(e.getMax(), m.getMax(), 0);
+                assertEquals(e.getMaxEndTime(), m.getMaxEndTime());
+                assertEquals(e.getQuantile(0.5), m.getQuantile(0.5), 0);
+                assertEquals(e.getQuantile(0.99), m.getQuantile(0.99), 0);
+            }
+        }
+    }
+
+    @Test
+    void testFindsFirstBucketEndingAfterRange() {
+        FakeTable table = new FakeTable();
+        table.add(0, 10, 1);
+        table.add(1_000, 1_010, 1);
+        // Starts in the third second but lasts past the fourth
+        table.add(2_000, 4_500, 1);
+        table.add(3_000, 3_010, 1);
+        Rollup rollup = Rollup.build(table, "value").get();
+
+        assertEquals(4_000, rollup.firstEndingAfter(1_000, 0, 4_000, 5_000));
+        assertEquals(2_000, rollup.firstEndingAfter(1_000, 0, 4_000, 3_999));
+        assertEquals(2_000, rollup.firstEndingAfter(1_000, 1_000, 4_000, 3_999));
+        assertEquals(4_000, rollup.firstEndingAfter(1_000, 3_000, 4_000, 3_999));
+        // Coarser buckets take the latest end time of their events
+        assertEquals(0, rollup.firstEndingAfter(10_000, 0, 10_000, 3_999));
+        assertEquals(4_500, buckets(rollup, 10_000).get(0).getMaxEndTime());
+    }
+
+    private static List<Rollup.Bucket> buckets(Rollup rollup, long resolution) {
+        List<Rollup.Bucket> buckets = new ArrayList<>();
+        rollup.forEach(
+                resolution, Long.MIN_VALUE, Long.MAX_VALUE, (startTime, b) -> buckets.add(b));
+        return buckets;
+    }
+
+    // Events with a numeric and a non-numeric field, added in start time order
+    static class FakeTable implements EventTable {
+        final List<long[]> times = new ArrayList<>();
+        final List<Double> values = new ArrayList<>();
+
+        void add(long startTime, long endTime, double value) {
+            times.add(new long[] {startTime, endTime});
+            values.add(value);
+        }
+
+        @Override
+        public String getEventType() {
+            return "type";
+        }
+
+        @Override
+        public List<EventField> getFields() {
+            return List.of(NAME, VALUE);
+        }
+
+        @Override
+        public int size() {
+            return times.size();
+        }
+
+        @Override
+        public long getMinStartTime() {
+            return times.stream().mapToLong(t -> t[0]).min().orElse(Long.MAX_VALUE);
+        }
+
+        @Override
+        public long getMaxEndTime() {
+            return times.stream().mapToLong(t -> t[1]).max().orElse(0);
+        }
+
+        @Override
+        public int estimateCount(long from, long to) {
+            return size();
+        }
+
+        @Override
+        public void scan(long from, long to, long endTo, RowVisitor visitor) {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < times.size(); i++) {
+                order.add(i);
+            }
+            order.sort((a, b) -> Long.compare(times.get(a)[0], times.get(b)[0]));
+            for (int i : order) {
+                long[] time = times.get(i);
+                if (time[0] < from || time[0] > to || time[1] > endTo) {
+                    continue;
+                }
+                double value = values.get(i);
+                EventRow row =
+                        new EventRow() {
+                            @Override
+                            public long getStartTime() {
+                                return time[0];
+                            }
+
+                            @Override
+                            public long getEndTime() {
+                                return time[1];
+                            }
+
+                            @Override
+                            public Object getValue(int field) {
+                                return field == 0 ? "event" : null;
+                            }
+
+                            @Override
+                            public double getNumber(int field) {
+                                return field == 1 ? value : Double.NaN;
+                            }
+                        };
+                if (!visitor.visit(row)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.jfr.datasource.server.AdmissionController.Lane;
+import io.cryostat.jfr.datasource.server.AdmissionController.Permit;
+
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AdmissionControllerTest {
+
+    AdmissionController admission;
+
+    @BeforeEach
+    void setup() {
+        admission = new AdmissionController();
+        admission.timeoutMs = 100;
+        admission.queryMaxConcurrent = 1;
+        admission.queryMaxQueued = 0;
+        admission.loadMaxConcurrent = 1;
+        admission.loadMaxQueued = 1;
+        admission.maxCost = 1000;
+        admission.retryAfterSeconds = 7;
+        admission.logger = Logger.getLogger(AdmissionController.class);
+        admission.onStart(null);
+    }
+
+    @Test
+    void testRejectsWithTooManyRequestsWhenQueueIsFull() {
+        try (Permit permit = admission.admit(Lane.QUERY)) {
+            ClientErrorException e =
+                    assertThrows(ClientErrorException.class, () -> admission.admit(Lane.QUERY));
+            assertEquals(429, e.getResponse().getStatus());
+            assertEquals("7", e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER));
+        }
+        // Capacity is returned once the permit is closed
+        admission.admit(Lane.QUERY).close();
+    }
+
+    @Test
+    void testRejectsWithServiceUnavailableAfterTimeout() {
+        try (Permit permit = admission.admit(Lane.LOAD)) {
+            long start = System.nanoTime();
+            ServiceUnavailableException e =
+                    assertThrows(
+                            ServiceUnavailableException.class, () -> admission.admit(Lane.LOAD));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+            assertEquals(503, e.getResponse().getStatus());
+            assertEquals("7", e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER));
+        }
+    }
+
+    @Test
+    void testQueuedRequestIsAdmittedWhenCapacityFrees() throws Exception {
+        admission.timeoutMs = 5000;
+        Permit permit = admission.admit(Lane.LOAD);
+        CompletableFuture<Permit> queued =
+                CompletableFuture.supplyAsync(() -> admission.admit(Lane.LOAD));
+        Thread.sleep(50);
+        permit.close();
+        queued.get(5, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    void testDoesNotBargeAheadOfQueuedRequests() throws Exception {
+        admission.timeoutMs = 5000;
+        Permit permit = admission.admit(Lane.LOAD);
+        CompletableFuture<Permit> queued = new CompletableFuture<>();
+        Thread waiter =
+                new Thread(
+                        () -> {
+                            try {
+                                queued.complete(admission.admit(Lane.LOAD));
+                            } catch (RuntimeException e) {
+                                queued.completeExceptionally(e);
+                            }
+                        });
+        waiter.start();
+        while (waiter.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+
+        admission.timeoutMs = 50;
+        permit.close();
+        // The freed permit belongs to the queued request, so a new one is shed either way
+        assertThrows(WebApplicationException.class, () -> admission.admit(Lane.LOAD));
+        queued.get(5, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    void testRejectsQueriesOverMaxCost() {
+        admission.checkCost(1000);
+        assertThrows(BadRequestException.class, () -> admission.checkCost(1001));
+
+        admission.maxCost = 0;
+        admission.checkCost(Long.MAX_VALUE);
+    }
+}
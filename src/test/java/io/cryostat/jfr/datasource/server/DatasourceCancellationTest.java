@@ -0,0 +1,62 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import static io.restassured.RestAssured.given;
+
+import io.cryostat.jfr.datasource.events.RecordingService;
+import io.cryostat.jfr.datasource.utils.CancellationToken;
+import io.cryostat.jfr.datasource.utils.QueryCancelledException;
+
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+@QuarkusTest
+public class DatasourceCancellationTest {
+
+    @InjectMock RecordingService recordingService;
+
+    @Test
+    public void testCancelledQueryIsRetriable() throws Exception {
+        Mockito.when(
+                        recordingService.query(
+                                Mockito.any(Query.class), Mockito.any(CancellationToken.class)))
+                .thenThrow(new QueryCancelledException("deadline exceeded"));
+
+        JsonObject target = new JsonObject().put("target", "jdk.CPULoad.machineTotal");
+        JsonObject body =
+                new JsonObject()
+                        .put("targets", new JsonArray().add(target))
+                        .put(
+                                "range",
+                                new JsonObject()
+                                        .put("from", "2019-03-13T19:40:00.000Z")
+                                        .put("to", "2019-03-13T19:50:00.000Z"));
+
+        given().contentType(ContentType.JSON)
+                .body(body.encode())
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(503)
+                .header("Retry-After", "5");
+    }
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.net.URI;
 import java.nio.file.Path;
 
+import io.cryostat.jfr.datasource.events.EventTypeSelection;
 import io.cryostat.jfr.datasource.events.RecordingService;
 import io.cryostat.jfr.datasource.sys.PresignedFileService;
 
@@ -51,7 +52,9 @@ public class DatasourcePresignedTest {
         Path filePath = Mockito.mock(Path.class);
         Mockito.when(filePath.toFile()).thenReturn(file);
         Mockito.when(presignedFileService.download(Mockito.any())).thenReturn(filePath);
-        Mockito.doNothing().when(recordingService).loadEvents(Mockito.anyString());
+        Mockito.doNothing()
+                .when(recordingService)
+                .loadEventsOnce(Mockito.anyString(), Mockito.any(EventTypeSelection.class));
 
         given().multiPart("uri", uri.toString())
                 .when()
@@ -60,6 +63,7 @@ public class DatasourcePresignedTest {
                 .statusCode(200);
 
         Mockito.verify(presignedFileService, Mockito.times(1)).download(uri);
-        Mockito.verify(recordingService, Mockito.times(1)).loadEvents(absPath);
+        Mockito.verify(recordingService, Mockito.times(1))
+                .loadEventsOnce(absPath, EventTypeSelection.ALL);
     }
 }
@@ -17,6 +17,12 @@ package io.cryostat.jfr.datasource.server;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.emptyString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.doThrow;
 
@@ -31,6 +37,9 @@ import io.cryostat.jfr.datasource.sys.FileSystemService;
 
 import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.junit.mockito.InjectSpy;
+import io.restassured.http.ContentType;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
@@ -53,9 +62,12 @@ public class DatasourceTest {
         File directory = Path.of(jfrDir).toFile();
         if (directory.exists() && directory.isDirectory()) {
             for (File f : directory.listFiles()) {
-                if (f.isFile()) {
-                    f.delete();
+                if (f.isDirectory()) {
+                    for (File stored : f.listFiles()) {
+                        stored.delete();
+                    }
                 }
+                f.delete();
             }
         }
         directory.delete();
@@ -129,6 +141,35 @@ public class DatasourceTest {
                 .header("content-type", is("text/plain;charset=UTF-8"));
     }
 
+    @Test
+    public void testPostUploadDuplicate() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+        byte[] content = Files.readAllBytes(jfrFile.toPath());
+
+        String expected = "Uploaded: recording.jfr" + System.lineSeparator();
+        given().multiPart(jfrFile).when().post("/upload").then().statusCode(200).body(is(expected));
+
+        // The same content under the same name is not stored again
+        given().multiPart(jfrFile).when().post("/upload").then().statusCode(200).body(is(expected));
+
+        expected = "Uploaded: copy.jfr" + System.lineSeparator();
+        given().multiPart("file", "copy.jfr", content)
+                .when()
+                .post("/upload")
+                .then()
+                .statusCode(200)
+                .body(is(expected));
+
+        given().when()
+                .get("/list")
+                .then()
+                .statusCode(200)
+                .body(containsString("recording.jfr"), containsString("copy.jfr"));
+
+        assertTrue(Files.isSameFile(Path.of(jfrDir, "recording.jfr"), Path.of(jfrDir, "copy.jfr")));
+    }
+
     @Test
     @Order(5)
     public void testGetList() throws Exception {
@@ -214,6 +255,89 @@ public class DatasourceTest {
                 .header("content-type", is("text/plain;charset=UTF-8"));
     }
 
+    @Test
+    public void testPostSetMultiple() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+        byte[] content = Files.readAllBytes(jfrFile.toPath());
+
+        given().multiPart(jfrFile).when().post("/upload").then().statusCode(200);
+        given().multiPart("file", "copy.jfr", content)
+                .when()
+                .post("/upload")
+                .then()
+                .statusCode(200);
+
+        String expected =
+                "Set: copy.jfr"
+                        + System.lineSeparator()
+                        + "Set: recording.jfr"
+                        + System.lineSeparator();
+        given().body("*.jfr")
+                .when()
+                .post("/set")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain;charset=UTF-8"));
+
+        expected = "copy.jfr" + System.lineSeparator() + "recording.jfr" + System.lineSeparator();
+        given().when().get("/current").then().statusCode(200).body(is(expected));
+
+        given().when()
+                .get("/list")
+                .then()
+                .statusCode(200)
+                .body(containsString("**recording.jfr**"), containsString("**copy.jfr**"));
+
+        // Both files cover the same time range, so the merged recording does too
+        String input =
+                Files.readString(
+                        Path.of("src/test/resources/queries/query.recording_duration.input.txt"));
+        String output =
+                Files.readString(
+                        Path.of("src/test/resources/queries/query.recording_duration.output.txt"));
+        given().body(input).when().post("query").then().statusCode(200).body(is(output));
+
+        given().body("missing-*.jfr").when().post("/set").then().statusCode(404);
+    }
+
+    @Test
+    public void testPostSetExcludedTypes() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+
+        given().multiPart(jfrFile).when().post("/upload").then().statusCode(200);
+        given().body("recording.jfr")
+                .queryParam("exclude", "jdk.ObjectAllocationSample,jdk.G1*")
+                .when()
+                .post("/set")
+                .then()
+                .statusCode(200)
+                .body(is("Set: recording.jfr" + System.lineSeparator()));
+
+        String input =
+                Files.readString(Path.of("src/test/resources/searches/search.events.input.txt"));
+        given().body(input)
+                .when()
+                .post("/search")
+                .then()
+                .statusCode(200)
+                .body(
+                        containsString("jdk.ObjectCountAfterGC.count"),
+                        not(containsString("jdk.ObjectAllocationSample")),
+                        not(containsString("jdk.G1HeapRegionTypeChange")));
+
+        // Setting the file again without a filter loads every type
+        given().body("recording.jfr").when().post("/set").then().statusCode(200);
+        given().body(input)
+                .when()
+                .post("/search")
+                .then()
+                .statusCode(200)
+                .body(containsString("jdk.ObjectAllocationSample.weight"));
+    }
+
     @Test
     public void testPostLoad() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -418,6 +542,43 @@ public class DatasourceTest {
                 .header("content-type", is("application/json;charset=UTF-8"));
     }
 
+    @Test
+    public void testPostQueryTimeseriesAggregate() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+
+        String expected =
+                "Uploaded: recording.jfr"
+                        + System.lineSeparator()
+                        + "Set: recording.jfr"
+                        + System.lineSeparator();
+        given().multiPart(jfrFile)
+                .when()
+                .post("/load")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain;charset=UTF-8"));
+
+        File inputFile =
+                new File("src/test/resources/queries/query.timeseries.aggregate.input.txt");
+        assertTrue(inputFile.exists());
+        String input = new String(Files.readAllBytes(inputFile.toPath()));
+
+        File outputFile =
+                new File("src/test/resources/queries/query.timeseries.aggregate.output.txt");
+        assertTrue(outputFile.exists());
+        expected = new String(Files.readAllBytes(outputFile.toPath()));
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json;charset=UTF-8"));
+    }
+
     @Test
     public void testPostQueryTimeseriesWithParams() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -453,6 +614,61 @@ public class DatasourceTest {
                 .header("content-type", is("application/json;charset=UTF-8"));
     }
 
+    @Test
+    public void testPostQuerySharedScan() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+        given().multiPart(jfrFile).when().post("/load").then().statusCode(200);
+
+        // Targets on the same event type, which are evaluated in one scan
+        String eventType = "jdk.ObjectAllocationSample";
+        JsonArray targets =
+                new JsonArray()
+                        .add(
+                                new JsonObject()
+                                        .put("target", eventType + ".weight")
+                                        .put("type", "timeserie")
+                                        .put("data", new JsonObject().put("aggregate", "p95")))
+                        .add(
+                                new JsonObject()
+                                        .put("target", eventType + ".weight?objectClass=*")
+                                        .put("type", "timeserie"))
+                        .add(
+                                new JsonObject()
+                                        .put("target", eventType + "{weight}")
+                                        .put("type", "table")
+                                        .put("data", new JsonObject().put("limit", 5)));
+        Path input = Path.of("src/test/resources/queries/query.timeseries.aggregate.input.txt");
+        JsonObject query = new JsonObject(Files.readString(input));
+        String shared =
+                given().body(query.copy().put("targets", targets).encode())
+                        .when()
+                        .post("/query")
+                        .then()
+                        .statusCode(200)
+                        .extract()
+                        .asString();
+
+        // Another range covering the same events, so that the results are not taken from the
+        // cache
+        query.getJsonObject("range").put("to", "2022-09-21T18:50:07.015Z");
+        JsonArray separate = new JsonArray();
+        for (int i = 0; i < targets.size(); i++) {
+            JsonArray target = new JsonArray().add(targets.getValue(i));
+            String response =
+                    given().body(query.copy().put("targets", target).encode())
+                            .when()
+                            .post("/query")
+                            .then()
+                            .statusCode(200)
+                            .extract()
+                            .asString();
+            separate.addAll(new JsonArray(response));
+        }
+        assertEquals(separate, new JsonArray(shared));
+        assertTrue(separate.size() >= 3);
+    }
+
     @Test
     public void testPostQueryTable() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -488,6 +704,75 @@ public class DatasourceTest {
                 .header("content-type", is("application/json;charset=UTF-8"));
     }
 
+    @Test
+    public void testPostQueryTableColumns() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+
+        String expected =
+                "Uploaded: recording.jfr"
+                        + System.lineSeparator()
+                        + "Set: recording.jfr"
+                        + System.lineSeparator();
+        given().multiPart(jfrFile)
+                .when()
+                .post("/load")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain;charset=UTF-8"));
+
+        File inputFile = new File("src/test/resources/queries/query.table.columns.input.txt");
+        assertTrue(inputFile.exists());
+        String input = new String(Files.readAllBytes(inputFile.toPath()));
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body("[0].columns.text", contains("Time", "weight", "objectClass"))
+                .body("[0].columns.type", contains("time", "number", "string"))
+                .body("[0].rows.size()", is(3))
+                .body("[0].rows.collect { it[1] }", contains(528896.0f, 518112.0f, 517616.0f))
+                .header("content-type", is("application/json;charset=UTF-8"));
+    }
+
+    @Test
+    public void testPostQueryTableTopN() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+
+        String expected =
+                "Uploaded: recording.jfr"
+                        + System.lineSeparator()
+                        + "Set: recording.jfr"
+                        + System.lineSeparator();
+        given().multiPart(jfrFile)
+                .when()
+                .post("/load")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain;charset=UTF-8"));
+
+        File inputFile = new File("src/test/resources/queries/query.table.topn.input.txt");
+        assertTrue(inputFile.exists());
+        String input = new String(Files.readAllBytes(inputFile.toPath()));
+
+        File outputFile = new File("src/test/resources/queries/query.table.topn.output.txt");
+        assertTrue(outputFile.exists());
+        expected = new String(Files.readAllBytes(outputFile.toPath()));
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("application/json;charset=UTF-8"));
+    }
+
     @Test
     public void testPostQueryRecordingDuration() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -561,6 +846,96 @@ public class DatasourceTest {
                 .header("content-type", is("application/json;charset=UTF-8"));
     }
 
+    @Test
+    public void testPostFlameGraph() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+
+        String expected =
+                "Uploaded: recording.jfr"
+                        + System.lineSeparator()
+                        + "Set: recording.jfr"
+                        + System.lineSeparator();
+        given().multiPart(jfrFile)
+                .when()
+                .post("/load")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain;charset=UTF-8"));
+
+        File inputFile = new File("src/test/resources/flamegraphs/flamegraph.input.txt");
+        assertTrue(inputFile.exists());
+        String input = new String(Files.readAllBytes(inputFile.toPath()));
+
+        given().body(input)
+                .when()
+                .post("/flamegraph")
+                .then()
+                .statusCode(200)
+                .body("name", is("jdk.ObjectAllocationSample"))
+                .body("fields.name", contains("level", "value", "self", "label"))
+                .body("fields[0].values[0]", is(0))
+                .body("fields[1].values[0]", greaterThan(0f))
+                .body("fields[3].values[0]", is("total"))
+                .contentType(ContentType.JSON);
+
+        given().body(input)
+                .queryParam("format", "folded")
+                .when()
+                .post("/flamegraph")
+                .then()
+                .statusCode(200)
+                .body(not(emptyString()))
+                .contentType(ContentType.TEXT);
+
+        given().body(input)
+                .queryParam("format", "svg")
+                .when()
+                .post("/flamegraph")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    public void testPostAnnotations() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+
+        String expected =
+                "Uploaded: recording.jfr"
+                        + System.lineSeparator()
+                        + "Set: recording.jfr"
+                        + System.lineSeparator();
+        given().multiPart(jfrFile)
+                .when()
+                .post("/load")
+                .then()
+                .statusCode(200)
+                .body(is(expected))
+                .header("content-type", is("text/plain;charset=UTF-8"));
+
+        File inputFile = new File("src/test/resources/annotations/annotations.input.txt");
+        assertTrue(inputFile.exists());
+        String input = new String(Files.readAllBytes(inputFile.toPath()));
+
+        given().body(input)
+                .when()
+                .post("/annotations")
+                .then()
+                .statusCode(200)
+                .body("size()", is(6))
+                .body("[0].annotation.name", is("Large allocations"))
+                .body("[0].text", not(emptyString()))
+                .contentType(ContentType.JSON);
+
+        given().body(input.replace("weight>=500000", "noSuchField>=1"))
+                .when()
+                .post("/annotations")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     public void testDeleteFileExist() throws Exception {
         File jfrFile = new File("src/test/resources/recording.jfr");
@@ -578,6 +953,29 @@ public class DatasourceTest {
         given().body("recording.jfr").when().delete("/delete").then().statusCode(204);
     }
 
+    @Test
+    public void testDeleteUnloadsEvents() throws Exception {
+        File jfrFile = new File("src/test/resources/recording.jfr");
+        assertTrue(jfrFile.exists());
+
+        given().multiPart(jfrFile).when().post("/load").then().statusCode(200);
+
+        File inputFile =
+                new File("src/test/resources/queries/query.timeseries.aggregate.input.txt");
+        assertTrue(inputFile.exists());
+        String input = new String(Files.readAllBytes(inputFile.toPath()));
+
+        given().body("recording.jfr").when().delete("/delete").then().statusCode(204);
+
+        given().body(input)
+                .when()
+                .post("/query")
+                .then()
+                .statusCode(200)
+                .body(is("[]"))
+                .header("content-type", is("application/json;charset=UTF-8"));
+    }
+
     @Test
     public void testDeleteFileNotExist() throws Exception {
         given().body("recording.jfr").when().delete("/delete").then().statusCode(404);
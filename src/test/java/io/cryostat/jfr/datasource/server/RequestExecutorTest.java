@@ -0,0 +1,133 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.cryostat.jfr.datasource.server.AdmissionController.Lane;
+import io.cryostat.jfr.datasource.server.RequestExecutor.Mode;
+
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RequestExecutorTest {
+
+    static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    RequestExecutor executor;
+
+    @BeforeEach
+    void setup() {
+        executor = new RequestExecutor();
+        executor.queryMode = Mode.COMPUTE;
+        executor.queryComputeThreads = 2;
+        executor.loadMode = Mode.VIRTUAL;
+        executor.logger = Logger.getLogger(RequestExecutor.class);
+        executor.onStart(null);
+    }
+
+    @AfterEach
+    void cleanup() {
+        executor.onStop(null);
+    }
+
+    @Test
+    void testRunsComputeLaneOnPlatformThreads() {
+        Thread thread =
+                executor.submit(Lane.QUERY, Thread::currentThread).await().atMost(TIMEOUT);
+        assertFalse(thread.isVirtual());
+        assertTrue(thread.getName().startsWith("jfr-datasource-query-"), thread.getName());
+    }
+
+    @Test
+    void testRunsVirtualLaneOnVirtualThreads() {
+        Thread thread = executor.submit(Lane.LOAD, Thread::currentThread).await().atMost(TIMEOUT);
+        assertTrue(thread.isVirtual());
+        assertTrue(thread.getName().startsWith("jfr-datasource-load-"), thread.getName());
+    }
+
+    @Test
+    void testRunsWorkOnceSubscribed() {
+        for (Lane lane : Lane.values()) {
+            AtomicInteger runs = new AtomicInteger();
+            Uni<Integer> result = executor.submit(lane, runs::incrementAndGet);
+            assertEquals(0, runs.get());
+            assertEquals(1, result.await().atMost(TIMEOUT).intValue());
+        }
+    }
+
+    @Test
+    void testPropagatesFailures() {
+        for (Lane lane : Lane.values()) {
+            IllegalStateException failure = new IllegalStateException("failed");
+            assertSame(
+                    failure,
+                    assertThrows(
+                            IllegalStateException.class,
+                            () ->
+                                    executor.submit(
+                                                    lane,
+                                                    () -> {
+                                                        throw failure;
+                                                    })
+                                            .await()
+                                            .atMost(TIMEOUT)));
+
+            IOException checked = new IOException("failed");
+            CompletionException e =
+                    assertThrows(
+                            CompletionException.class,
+                            () ->
+                                    executor.submit(
+                                                    lane,
+                                                    () -> {
+                                                        throw checked;
+                                                    })
+                                            .await()
+                                            .atMost(TIMEOUT));
+            assertSame(checked, e.getCause());
+        }
+    }
+
+    @Test
+    void testRunsWorkerLaneOnSharedPool() {
+        executor.onStop(null);
+        executor = new RequestExecutor();
+        executor.queryMode = Mode.WORKER;
+        executor.loadMode = Mode.WORKER;
+        executor.logger = Logger.getLogger(RequestExecutor.class);
+        executor.onStart(null);
+
+        Thread caller = Thread.currentThread();
+        Thread thread =
+                executor.submit(Lane.QUERY, Thread::currentThread).await().atMost(TIMEOUT);
+        assertNotSame(caller, thread);
+        assertFalse(thread.getName().startsWith("jfr-datasource-"), thread.getName());
+    }
+}
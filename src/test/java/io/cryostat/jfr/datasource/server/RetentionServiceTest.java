@@ -0,0 +1,179 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.jfr.datasource.events.RecordingService;
+import io.cryostat.jfr.datasource.server.RetentionService.StoredFile;
+import io.cryostat.jfr.datasource.sys.ContentStore;
+import io.cryostat.jfr.datasource.sys.FileSystemService;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RetentionServiceTest {
+
+    static final long NOW = 1_000_000;
+
+    RetentionService retention;
+
+    @BeforeEach
+    void setup() {
+        retention = new RetentionService();
+        retention.maxBytes = 0;
+        retention.maxFiles = 0;
+        retention.maxAge = Duration.ZERO;
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedOverMaxBytes() {
+        retention.maxBytes = 250;
+        List<StoredFile> files =
+                List.of(
+                        file("c", 100, NOW - 10),
+                        file("a", 100, NOW - 30),
+                        file("b", 100, NOW - 20));
+        assertEquals(List.of("a"), names(retention.plan(files, NOW)));
+    }
+
+    @Test
+    void testEvictsOverMaxFilesAndMaxAge() {
+        retention.maxFiles = 2;
+        retention.maxAge = Duration.ofSeconds(60);
+        List<StoredFile> files =
+                List.of(
+                        file("a", 1, NOW - 120_000),
+                        file("b", 1, NOW - 90_000),
+                        file("c", 1, NOW - 30_000),
+                        file("d", 1, NOW));
+        assertEquals(List.of("a", "b"), names(retention.plan(files, NOW)));
+    }
+
+    @Test
+    void testKeepsSelectedAndPinnedFiles() {
+        retention.maxFiles = 1;
+        retention.select("a");
+        retention.pin("b");
+        List<StoredFile> files =
+                List.of(file("a", 1, NOW - 30), file("b", 1, NOW - 20), file("c", 1, NOW - 10));
+        // The file count stays over the limit, since only c may go
+        assertEquals(List.of("c"), names(retention.plan(files, NOW)));
+
+        retention.unpin("b");
+        assertEquals(List.of("b", "c"), names(retention.plan(files, NOW)));
+    }
+
+    @Test
+    void testCountsSharedContentOnce() {
+        retention.maxBytes = 100;
+        List<StoredFile> files =
+                List.of(
+                        new StoredFile("a", "content", 100, NOW - 20),
+                        new StoredFile("b", "content", 100, NOW - 10));
+        assertEquals(List.of(), names(retention.plan(files, NOW)));
+    }
+
+    @Test
+    void testPinWaitsForSweepDeletingTheFile() throws Exception {
+        Path dir = Files.createTempDirectory("retention");
+        Path old = Files.writeString(dir.resolve("old.jfr"), "old");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(0));
+        Files.writeString(dir.resolve("new.jfr"), "new");
+
+        CountDownLatch deleting = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        List<String> unloaded = new ArrayList<>();
+        retention.jfrDir = dir.toString();
+        retention.maxFiles = 1;
+        retention.logger = Logger.getLogger(RetentionService.class);
+        retention.fsService =
+                new FileSystemService() {
+                    @Override
+                    public boolean deleteIfExists(Path path) throws IOException {
+                        deleting.countDown();
+                        try {
+                            proceed.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return super.deleteIfExists(path);
+                    }
+                };
+        retention.recordingService =
+                new RecordingService() {
+                    @Override
+                    public void unload(String filename) {
+                        unloaded.add(filename);
+                    }
+                };
+        retention.contentStore =
+                new ContentStore() {
+                    @Override
+                    public void prune() {}
+                };
+
+        Thread sweep =
+                new Thread(
+                        () -> {
+                            try {
+                                retention.sweep();
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+        sweep.start();
+        assertTrue(deleting.await(10, TimeUnit.SECONDS));
+
+        // A load of the file being deleted waits for the deletion, and then finds it gone
+        Thread pin = new Thread(() -> retention.pin("old.jfr"));
+        pin.start();
+        pin.join(100);
+        assertTrue(pin.isAlive());
+
+        proceed.countDown();
+        sweep.join(10_000);
+        pin.join(10_000);
+        assertFalse(pin.isAlive());
+        assertFalse(Files.exists(old));
+        assertEquals(List.of(old.toString()), unloaded);
+        retention.unpin("old.jfr");
+
+        Files.delete(dir.resolve("new.jfr"));
+        Files.delete(dir);
+    }
+
+    private static StoredFile file(String name, long size, long lastAccess) {
+        return new StoredFile(name, name, size, lastAccess);
+    }
+
+    private static List<String> names(List<StoredFile> files) {
+        return files.stream().map(StoredFile::name).toList();
+    }
+}
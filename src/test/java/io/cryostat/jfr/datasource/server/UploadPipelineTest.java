@@ -0,0 +1,138 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.ws.rs.ServerErrorException;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class UploadPipelineTest {
+
+    UploadPipeline pipeline;
+
+    @BeforeEach
+    void setup() {
+        pipeline = new UploadPipeline();
+        pipeline.parallelism = 4;
+        pipeline.timeoutMs = 10_000;
+        pipeline.logger = Logger.getLogger(UploadPipeline.class);
+        pipeline.start();
+    }
+
+    @AfterEach
+    void teardown() {
+        pipeline.onStop(null);
+    }
+
+    @Test
+    void testPreparesConcurrentlyAndCommitsInOrder() throws IOException {
+        List<Integer> sources = List.of(0, 1, 2, 3, 4, 5, 6, 7);
+        CountDownLatch allRunning = new CountDownLatch(4);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> committed = new ArrayList<>();
+
+        pipeline.process(
+                sources,
+                new Stage() {
+                    @Override
+                    public Integer prepare(Integer source) throws IOException {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        try {
+                            allRunning.countDown();
+                            // The first files wait for each other, and later files finish first
+                            allRunning.await(5, TimeUnit.SECONDS);
+                            Thread.sleep(10 * (sources.size() - source));
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                        return source * 10;
+                    }
+
+                    @Override
+                    public void commit(Integer source, Integer prepared) {
+                        committed.add(prepared);
+                    }
+                });
+
+        assertEquals(List.of(0, 10, 20, 30, 40, 50, 60, 70), committed);
+        assertEquals(4, maxRunning.get());
+    }
+
+    @Test
+    void testTimesOutAndDiscardsPreparedFiles() throws InterruptedException {
+        pipeline.timeoutMs = 200;
+        List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> discarded = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        assertThrows(
+                ServerErrorException.class,
+                () ->
+                        pipeline.process(
+                                List.of(0, 1, 2),
+                                new Stage() {
+                                    @Override
+                                    public Integer prepare(Integer source) throws IOException {
+                                        if (source == 1) {
+                                            try {
+                                                Thread.sleep(10_000);
+                                            } catch (InterruptedException e) {
+                                                interrupted.countDown();
+                                                throw new IOException(e);
+                                            }
+                                        }
+                                        return source;
+                                    }
+
+                                    @Override
+                                    public void commit(Integer source, Integer prepared) {
+                                        committed.add(prepared);
+                                    }
+
+                                    @Override
+                                    public void discard(Integer prepared) {
+                                        discarded.add(prepared);
+                                    }
+                                }));
+
+        assertEquals(List.of(0), committed);
+        assertEquals(List.of(2), discarded);
+        // The file that timed out is interrupted rather than left to finish
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    private abstract static class Stage implements UploadPipeline.Stage<Integer, Integer> {
+        @Override
+        public void discard(Integer prepared) {}
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.sys;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ContentStoreTest {
+
+    Path dir;
+    ContentStore store;
+
+    @BeforeEach
+    void setup() throws Exception {
+        dir = Files.createTempDirectory("content-store-test");
+        store = new ContentStore();
+        store.jfrDir = dir.toString();
+        store.enabled = true;
+        store.fsService = new FileSystemService();
+        store.logger = Logger.getLogger(ContentStore.class);
+    }
+
+    @AfterEach
+    void cleanup() throws Exception {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    void testPruneBetweenAddAndLinkKeepsContent() throws Exception {
+        Path stored = store.add(upload("a", "content"));
+        // As an upload between prepare and commit, with a sweep or delete running meanwhile
+        store.prune();
+        assertTrue(Files.exists(stored));
+
+        Path name = dir.resolve("a.jfr");
+        store.link(stored, name, false);
+        store.release(stored);
+        store.prune();
+        assertEquals("content", Files.readString(name));
+        assertTrue(Files.exists(stored));
+
+        Files.delete(name);
+        store.prune();
+        assertFalse(Files.exists(stored));
+    }
+
+    @Test
+    void testPruneKeepsDuplicatePendingContent() throws Exception {
+        Path stored = store.add(upload("a", "content"));
+        Path name = dir.resolve("a.jfr");
+        store.link(stored, name, false);
+        store.release(stored);
+        // The only name goes away while a duplicate is being uploaded
+        Path duplicate = upload("b", "content");
+        assertEquals(stored, store.add(duplicate));
+        assertFalse(Files.exists(duplicate));
+        Files.delete(name);
+        store.prune();
+        assertTrue(Files.exists(stored));
+
+        store.link(stored, dir.resolve("b.jfr"), false);
+        store.release(stored);
+        assertEquals("content", Files.readString(dir.resolve("b.jfr")));
+    }
+
+    @Test
+    void testPrunesReleasedContentWithoutName() throws Exception {
+        Path first = store.add(upload("a", "content"));
+        Path second = store.add(upload("b", "content"));
+        assertEquals(first, second);
+
+        store.release(first);
+        store.prune();
+        assertTrue(Files.exists(first));
+
+        store.release(second);
+        store.prune();
+        assertFalse(Files.exists(first));
+    }
+
+    private Path upload(String name, String content) throws Exception {
+        Path upload = dir.resolve(name + ".upload");
+        Files.writeString(upload, content);
+        return upload;
+    }
+}
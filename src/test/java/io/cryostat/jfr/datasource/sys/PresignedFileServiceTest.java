@@ -0,0 +1,254 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.sys;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PresignedFileServiceTest {
+
+    static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    static final int SEGMENT_SIZE = 64 * 1024;
+
+    HttpServer server;
+    PresignedFileService service;
+    byte[] content;
+    volatile boolean rangesSupported;
+    volatile long failAt;
+    volatile String etag;
+    final AtomicBoolean failed = new AtomicBoolean();
+    final List<String> ranges = new CopyOnWriteArrayList<>();
+    final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setup() throws IOException {
+        content = new byte[10 * SEGMENT_SIZE + 1234];
+        new Random(42).nextBytes(content);
+        rangesSupported = true;
+        failAt = -1;
+        etag = "\"v1\"";
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/recording.jfr", this::serve);
+        server.start();
+
+        service = new PresignedFileService();
+        service.storageAuthMethod = Optional.empty();
+        service.storageAuth = Optional.empty();
+        service.storageTlsVersion = "TLSv1.3";
+        service.storageCaPath = Optional.empty();
+        service.storageCertPath = Optional.empty();
+        service.storageHostnameVerify = true;
+        service.segmentSize = SEGMENT_SIZE;
+        service.parallelism = 4;
+        service.maxRetries = 3;
+        service.readTimeoutMs = 500;
+        service.fsService = new FileSystemService();
+        service.logger = Logger.getLogger(PresignedFileService.class);
+    }
+
+    @AfterEach
+    void teardown() {
+        server.stop(0);
+    }
+
+    @Test
+    void testDownloadsInParallelSegments() throws Exception {
+        Path file = service.download(uri());
+        try {
+            assertArrayEquals(content, Files.readAllBytes(file));
+            assertEquals(11, ranges.size());
+        } finally {
+            service.discard(file);
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void testReusesConnectionsBetweenDownloads() throws Exception {
+        service.discard(service.download(uri()));
+        service.discard(service.download(uri()));
+        assertEquals(22, ranges.size());
+        // A connection may be opened while another is on its way back to the pool
+        assertTrue(clientPorts.size() <= 2 * service.parallelism, clientPorts::toString);
+    }
+
+    @Test
+    void testResumesInterruptedSegment() throws Exception {
+        failAt = 3 * SEGMENT_SIZE + 1000;
+        Path file = service.download(uri());
+        try {
+            assertArrayEquals(content, Files.readAllBytes(file));
+            assertTrue(ranges.contains("bytes=" + failAt + "-" + (4 * SEGMENT_SIZE - 1)));
+        } finally {
+            service.discard(file);
+        }
+    }
+
+    @Test
+    void testDownloadsWithoutRangeSupport() throws Exception {
+        rangesSupported = false;
+        Path file = service.download(uri());
+        try {
+            assertArrayEquals(content, Files.readAllBytes(file));
+            assertEquals(1, ranges.size());
+        } finally {
+            service.discard(file);
+        }
+    }
+
+    @Test
+    void testFailsIfObjectChanges() throws Exception {
+        server.removeContext("/recording.jfr");
+        server.createContext(
+                "/recording.jfr",
+                exchange -> {
+                    // Every request after the probe sees another version of the object
+                    if (!ranges.isEmpty()) {
+                        etag = "\"v2\"";
+                    }
+                    serve(exchange);
+                });
+        assertThrows(IOException.class, () -> service.download(uri()));
+    }
+
+    @Test
+    void testConcurrentDownloadsUseDistinctFiles() throws Exception {
+        CompletableFuture<Path> first = CompletableFuture.supplyAsync(this::downloadUnchecked);
+        CompletableFuture<Path> second = CompletableFuture.supplyAsync(this::downloadUnchecked);
+        Path a = first.get();
+        Path b = second.get();
+        try {
+            assertNotEquals(a, b);
+            assertArrayEquals(content, Files.readAllBytes(a));
+            assertArrayEquals(content, Files.readAllBytes(b));
+        } finally {
+            service.discard(a);
+            service.discard(b);
+        }
+    }
+
+    @Test
+    void testStreamsIntoConsumerAndTee() throws Exception {
+        failAt = 5 * SEGMENT_SIZE + 17;
+        Path tee = Files.createTempFile(null, null);
+        ByteArrayOutputStream consumed = new ByteArrayOutputStream();
+        try {
+            service.stream(
+                    uri(),
+                    tee,
+                    stream -> {
+                        // Stop early, the tee still receives the rest of the object
+                        consumed.write(stream.readNBytes(7 * SEGMENT_SIZE));
+                    });
+            assertArrayEquals(Arrays.copyOf(content, 7 * SEGMENT_SIZE), consumed.toByteArray());
+            assertArrayEquals(content, Files.readAllBytes(tee));
+            assertEquals(List.of("bytes=0-", "bytes=" + failAt + "-"), ranges);
+        } finally {
+            Files.deleteIfExists(tee);
+        }
+    }
+
+    @Test
+    void testStreamsWithoutRangeSupport() throws Exception {
+        rangesSupported = false;
+        ByteArrayOutputStream consumed = new ByteArrayOutputStream();
+        service.stream(uri(), null, stream -> stream.transferTo(consumed));
+        assertArrayEquals(content, consumed.toByteArray());
+    }
+
+    private Path downloadUnchecked() {
+        try {
+            return service.download(uri());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private URI uri() {
+        return URI.create(
+                String.format(
+                        "http://127.0.0.1:%d/recording.jfr?X-Amz-Signature=abc",
+                        server.getAddress().getPort()));
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        ranges.add(range);
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.getResponseHeaders().add("ETag", etag);
+        Matcher m = range == null ? null : RANGE.matcher(range);
+        if (!rangesSupported || m == null || !m.matches()) {
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+            return;
+        }
+        int start = Integer.parseInt(m.group(1));
+        int end =
+                m.group(2).isEmpty()
+                        ? content.length - 1
+                        : Math.min(Integer.parseInt(m.group(2)), content.length - 1);
+        exchange.getResponseHeaders()
+                .add("Content-Range", String.format("bytes %d-%d/%d", start, end, content.length));
+        exchange.sendResponseHeaders(206, end - start + 1);
+        OutputStream out = exchange.getResponseBody();
+        if (failAt > start && failAt <= end && failed.compareAndSet(false, true)) {
+            // Stall part way through the segment, the client times out and resumes
+            out.write(content, start, (int) failAt - start);
+            out.flush();
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Expected, fewer bytes were written than announced
+            }
+            return;
+        }
+        out.write(content, start, end - start + 1);
+        out.close();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class BitPackingTest {
+
+    @Test
+    void testWidth() {
+        assertEquals(0, BitPacking.width(0));
+        assertEquals(1, BitPacking.width(1));
+        assertEquals(8, BitPacking.width(255));
+        assertEquals(9, BitPacking.width(256));
+        assertEquals(63, BitPacking.width(Long.MAX_VALUE));
+        assertEquals(64, BitPacking.width(-1));
+    }
+
+    @Test
+    void testRoundTripsEveryWidth() {
+        Random random = new Random(42);
+        // Enough values for every width to straddle word boundaries
+        int count = 131;
+        for (int width = 0; width <= 64; width++) {
+            long mask = width == 64 ? -1 : (1L << width) - 1;
+            long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = random.nextLong() & mask;
+            }
+            values[0] = mask;
+            values[count - 1] = mask;
+
+            long[] packed = BitPacking.pack(values, count, width);
+            assertEquals(((long) count * width + 63) / 64, packed.length);
+            for (int i = 0; i < count; i++) {
+                assertEquals(values[i], BitPacking.get(packed, width, i), "width " + width);
+            }
+        }
+    }
+
+    @Test
+    void testPacksOnlyCountValues() {
+        long[] values = {3, 1, 2, 7, 7, 7};
+        long[] packed = BitPacking.pack(values, 3, 2);
+        assertEquals(1, packed.length);
+        assertEquals(3, BitPacking.get(packed, 2, 0));
+        assertEquals(1, BitPacking.get(packed, 2, 1));
+        assertEquals(2, BitPacking.get(packed, 2, 2));
+        assertEquals(0, BitPacking.get(packed, 2, 3));
+    }
+
+    @Test
+    void testZigZagRoundTrips() {
+        Random random = new Random(42);
+        long[] values = new long[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong() >> random.nextInt(64);
+        }
+        for (long value : values) {
+            assertEquals(value, BitPacking.unZigZag(BitPacking.zigZag(value)));
+        }
+        for (long value : new long[] {0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            assertEquals(value, BitPacking.unZigZag(BitPacking.zigZag(value)));
+        }
+    }
+
+    @Test
+    void testZigZagKeepsSmallMagnitudesNarrow() {
+        assertEquals(0, BitPacking.zigZag(0));
+        assertEquals(1, BitPacking.zigZag(-1));
+        assertEquals(2, BitPacking.zigZag(1));
+        assertEquals(3, BitPacking.zigZag(-2));
+        assertEquals(-1, BitPacking.zigZag(Long.MIN_VALUE));
+        assertEquals(-2, BitPacking.zigZag(Long.MAX_VALUE));
+        assertEquals(8, BitPacking.width(BitPacking.zigZag(-128)));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.cryostat.jfr.datasource.utils.ChunkedGzip.Member;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChunkedGzipTest {
+
+    Path dir;
+
+    @BeforeEach
+    void setup() throws IOException {
+        dir = Files.createTempDirectory("chunked-gzip");
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path f : files.toList()) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    void testWritesOneMemberPerChunk() throws IOException {
+        byte[] first = chunk(1_000, 1);
+        byte[] second = chunk(200_000, 2);
+        byte[] recording = concat(first, second);
+        Path target = dir.resolve("recording.jfr.gz");
+
+        assertEquals(
+                recording.length,
+                ChunkedGzip.compress(
+                        new ByteArrayInputStream(recording), target, Deflater.BEST_SPEED));
+
+        assertTrue(ChunkedGzip.isChunked(target));
+        List<Member> members = ChunkedGzip.index(target);
+        assertEquals(2, members.size());
+        assertEquals(first.length, members.get(0).uncompressedSize());
+        assertEquals(first.length, members.get(1).uncompressedOffset());
+        assertEquals(second.length, members.get(1).uncompressedSize());
+        assertEquals(Files.size(target), members.get(1).offset() + members.get(1).compressedSize());
+
+        // Chunks can be inflated on their own, in any order
+        try (InputStream in = ChunkedGzip.open(target, members.get(1))) {
+            assertArrayEquals(second, in.readAllBytes());
+        }
+        try (InputStream in = ChunkedGzip.open(target, members.get(0))) {
+            assertArrayEquals(first, in.readAllBytes());
+        }
+
+        // And the whole file is still plain gzip
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(target))) {
+            assertArrayEquals(recording, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void testCompressesOtherInputAsSingleMember() throws IOException {
+        byte[] data = new byte[100_000];
+        Arrays.fill(data, (byte) 'x');
+        Path target = dir.resolve("data.gz");
+
+        ChunkedGzip.compress(new ByteArrayInputStream(data), target, Deflater.BEST_SPEED);
+
+        List<Member> members = ChunkedGzip.index(target);
+        assertEquals(1, members.size());
+        try (InputStream in = ChunkedGzip.open(target, members.get(0))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void testDoesNotRecognizePlainGzip() throws IOException {
+        Path target = dir.resolve("plain.gz");
+        try (var out = new GZIPOutputStream(Files.newOutputStream(target))) {
+            out.write(chunk(100, 3));
+        }
+        assertFalse(ChunkedGzip.isChunked(target));
+
+        Path empty = Files.createFile(dir.resolve("empty"));
+        assertFalse(ChunkedGzip.isChunked(empty));
+    }
+
+    // A chunk with a JFR chunk header and a pseudo-random payload
+    private static byte[] chunk(int size, long seed) {
+        byte[] chunk = new byte[size];
+        new Random(seed).nextBytes(chunk);
+        chunk[0] = 'F';
+        chunk[1] = 'L';
+        chunk[2] = 'R';
+        chunk[3] = 0;
+        ByteBuffer.wrap(chunk).putLong(8, size);
+        return chunk;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import io.cryostat.jfr.datasource.utils.JfrChunks.Chunk;
+import io.cryostat.jfr.datasource.utils.JfrChunks.Span;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class JfrChunksTest {
+
+    Path dir;
+
+    @BeforeEach
+    void setup() throws IOException {
+        dir = Files.createTempDirectory("jfr-chunks");
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path f : files.toList()) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    void testListsChunksOfUncompressedFile() throws IOException {
+        byte[] first = chunk(100, (byte) 1);
+        byte[] second = chunk(300, (byte) 2);
+        Path file = Files.write(dir.resolve("recording.jfr"), concat(first, second));
+
+        List<Chunk> chunks = JfrChunks.list(file);
+        assertEquals(List.of(new Chunk(0, 100, null), new Chunk(100, 300, null)), chunks);
+        try (InputStream in = JfrChunks.open(file, chunks.get(1))) {
+            assertArrayEquals(second, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void testListsChunksOfChunkedGzipFile() throws IOException {
+        byte[] first = chunk(100, (byte) 1);
+        byte[] second = chunk(300, (byte) 2);
+        Path file = dir.resolve("recording.jfr.gz");
+        ChunkedGzip.compress(
+                new ByteArrayInputStream(concat(first, second)), file, Deflater.BEST_SPEED);
+
+        List<Chunk> chunks = JfrChunks.list(file);
+        assertEquals(2, chunks.size());
+        try (InputStream in = JfrChunks.open(file, chunks.get(1))) {
+            assertArrayEquals(second, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void testReadsChunkSpansFromHeaders() throws IOException {
+        byte[] first = chunk(100, (byte) 1);
+        ByteBuffer.wrap(first).putLong(32, 1_000_000_500L).putLong(40, 2_000_000_000L);
+        byte[] second = chunk(300, (byte) 2);
+        ByteBuffer.wrap(second).putLong(32, 3_000_000_000L).putLong(40, 1_500_000L);
+        byte[] recording = concat(first, second);
+        Path file = Files.write(dir.resolve("recording.jfr"), recording);
+        Path compressed = dir.resolve("recording.jfr.gz");
+        ChunkedGzip.compress(new ByteArrayInputStream(recording), compressed, Deflater.BEST_SPEED);
+
+        for (Path path : List.of(file, compressed)) {
+            List<Chunk> chunks = JfrChunks.list(path);
+            Span span = JfrChunks.span(path, chunks.get(0));
+            assertEquals(new Span(1_000_000_500L, 2_000_000_000L), span);
+            assertEquals(1_000, span.startMillis());
+            assertEquals(3_001, span.endMillis());
+            span = JfrChunks.span(path, chunks.get(1));
+            assertEquals(3_000, span.startMillis());
+            assertEquals(3_002, span.endMillis());
+        }
+    }
+
+    @Test
+    void testDoesNotSplitTruncatedFile() throws IOException {
+        byte[] recording = concat(chunk(100, (byte) 1), chunk(300, (byte) 2));
+        Path file = Files.write(dir.resolve("truncated.jfr"), Arrays.copyOf(recording, 250));
+
+        assertEquals(List.of(), JfrChunks.list(file));
+    }
+
+    private static byte[] chunk(int size, byte fill) {
+        byte[] chunk = new byte[size];
+        Arrays.fill(chunk, fill);
+        ByteBuffer.wrap(chunk).put(new byte[] {'F', 'L', 'R', 0}).putLong(8, size);
+        return chunk;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
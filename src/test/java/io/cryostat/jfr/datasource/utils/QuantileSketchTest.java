@@ -0,0 +1,123 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class QuantileSketchTest {
+
+    static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 1};
+
+    @Test
+    void testEmptySketch() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(Double.NaN);
+        assertEquals(0, sketch.getCount());
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+    }
+
+    @Test
+    void testQuantilesWithinRelativeAccuracy() {
+        Random random = new Random(42);
+        double[] values = new double[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Long tailed, as latencies are
+            values[i] = Math.exp(random.nextGaussian() * 2 + 5);
+        }
+        QuantileSketch sketch = sketch(values);
+        assertEquals(values.length, sketch.getCount());
+        assertAccurate(values, sketch);
+    }
+
+    @Test
+    void testQuantilesOfNegativeAndZeroValues() {
+        double[] values = new double[2_001];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i - 1_000;
+        }
+        QuantileSketch sketch = sketch(values);
+        assertAccurate(values, sketch);
+        assertEquals(0, sketch.quantile(0.5), 0);
+    }
+
+    @Test
+    void testMergesLikeSingleSketch() {
+        Random random = new Random(42);
+        double[] values = new double[10_000];
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian() * 1_000;
+            (i % 3 == 0 ? first : second).add(values[i]);
+        }
+        first.merge(second);
+        first.merge(new QuantileSketch());
+        first.merge(null);
+
+        QuantileSketch single = sketch(values);
+        assertEquals(single.getCount(), first.getCount());
+        for (double quantile : QUANTILES) {
+            assertEquals(single.quantile(quantile), first.quantile(quantile), 0);
+        }
+        assertAccurate(values, first);
+    }
+
+    @Test
+    void testKeepsHighQuantilesAccurateOverWideRange() {
+        // More distinct magnitudes than there are bins, so the smallest ones are collapsed
+        double[] values = new double[4_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.pow(10, -6 + 18.0 * i / values.length);
+        }
+        QuantileSketch sketch = sketch(values);
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 1}) {
+            double expected = sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+            assertEquals(
+                    expected,
+                    sketch.quantile(quantile),
+                    expected * QuantileSketch.RELATIVE_ACCURACY * 1.0001);
+        }
+    }
+
+    private static QuantileSketch sketch(double[] values) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (double value : values) {
+            sketch.add(value);
+        }
+        return sketch;
+    }
+
+    private static void assertAccurate(double[] values, QuantileSketch sketch) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double quantile : QUANTILES) {
+            double expected = sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+            assertEquals(
+                    expected,
+                    sketch.quantile(quantile),
+                    Math.abs(expected) * QuantileSketch.RELATIVE_ACCURACY * 1.0001,
+                    "quantile " + quantile);
+        }
+    }
+}
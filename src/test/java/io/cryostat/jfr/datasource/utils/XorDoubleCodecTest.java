@@ -0,0 +1,111 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.jfr.datasource.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class XorDoubleCodecTest {
+
+    @Test
+    void testRoundTripsSpecialValues() {
+        assertRoundTrips(
+                new double[] {
+                    Double.NaN,
+                    0.0,
+                    -0.0,
+                    0.0,
+                    Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY,
+                    Double.MIN_VALUE,
+                    -Double.MAX_VALUE,
+                    Double.MAX_VALUE,
+                    Double.longBitsToDouble(0x7ff8000000000001L),
+                    Double.NaN,
+                    1.0
+                });
+    }
+
+    @Test
+    void testRoundTripsRepeatedValues() {
+        double[] values = new double[1000];
+        Arrays.fill(values, 42.5);
+        long[] encoded = assertRoundTrips(values);
+        // The first value in full, then one bit per repetition
+        assertEquals((64 + values.length - 1 + 63) / 64, encoded.length);
+
+        values[500] = -0.0;
+        values[501] = -0.0;
+        assertRoundTrips(values);
+    }
+
+    @Test
+    void testRoundTripsFullWidthValues() {
+        Random random = new Random(42);
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            // Any bit pattern, so that XORs have no leading or trailing zeros
+            values[i] = Double.longBitsToDouble(random.nextLong());
+        }
+        assertRoundTrips(values);
+    }
+
+    @Test
+    void testRoundTripsSlowlyChangingValues() {
+        Random random = new Random(42);
+        double[] values = new double[1000];
+        double value = 100;
+        for (int i = 0; i < values.length; i++) {
+            value += random.nextInt(3) - 1;
+            values[i] = value;
+        }
+        long[] encoded = assertRoundTrips(values);
+        assertTrue(encoded.length < values.length / 2);
+    }
+
+    @Test
+    void testRoundTripsPrefix() {
+        double[] values = {1.5, 2.5, 3.5, Double.NaN, Double.NaN};
+        long[] encoded = XorDoubleCodec.encode(values, 3);
+        double[] decoded = new double[5];
+        XorDoubleCodec.decode(encoded, 3, decoded);
+        assertEquals(1.5, decoded[0]);
+        assertEquals(2.5, decoded[1]);
+        assertEquals(3.5, decoded[2]);
+        assertEquals(0.0, decoded[3]);
+
+        assertEquals(0, XorDoubleCodec.encode(values, 0).length);
+    }
+
+    private static long[] assertRoundTrips(double[] values) {
+        long[] encoded = XorDoubleCodec.encode(values, values.length);
+        double[] decoded = new double[values.length];
+        XorDoubleCodec.decode(encoded, values.length, decoded);
+        for (int i = 0; i < values.length; i++) {
+            // Bit for bit, which tells apart signed zeros and NaN payloads
+            assertEquals(
+                    Double.doubleToRawLongBits(values[i]),
+                    Double.doubleToRawLongBits(decoded[i]),
+                    "value " + i);
+        }
+        return encoded;
+    }
+}